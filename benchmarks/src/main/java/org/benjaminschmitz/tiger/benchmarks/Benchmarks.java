@@ -0,0 +1,57 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Running the benchmarks of the server. All benchmarks report their
+ * throughput in operations per second and, through the GC profiler, the
+ * allocation rate in bytes per operation ("gc.alloc.rate.norm"). The usual
+ * JMH options are accepted, e.g. a regular expression selecting the
+ * benchmarks or "-rf json -rff result.json" to write the results to a file.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.openjdk.jmh.Main
+ * @version 2021-02-19
+ */
+public class Benchmarks {
+	/**
+	 * Running the selected benchmarks with the GC profiler.
+	 * 
+	 * @param args JMH command line options.
+	 * @throws CommandLineOptionException Invalid command line options.
+	 * @throws RunnerException            Error running the benchmarks.
+	 * @throws IOException                Error listing the benchmarks.
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		if (options.shouldHelp() || options.shouldList()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+	}
+}
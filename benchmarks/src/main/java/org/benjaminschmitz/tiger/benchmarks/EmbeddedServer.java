@@ -0,0 +1,169 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.benjaminschmitz.tiger.BufferPool;
+import org.benjaminschmitz.tiger.CacheControl;
+import org.benjaminschmitz.tiger.Compression;
+import org.benjaminschmitz.tiger.ConnectionLimits;
+import org.benjaminschmitz.tiger.ErrorPageGenerator;
+import org.benjaminschmitz.tiger.FileCache;
+import org.benjaminschmitz.tiger.InvalidConfigException;
+import org.benjaminschmitz.tiger.LoadShedding;
+import org.benjaminschmitz.tiger.Logger;
+import org.benjaminschmitz.tiger.MappedFileCache;
+import org.benjaminschmitz.tiger.Metrics;
+import org.benjaminschmitz.tiger.PathCache;
+import org.benjaminschmitz.tiger.RequestHandler;
+import org.benjaminschmitz.tiger.SocketOptions;
+import org.benjaminschmitz.tiger.WebServer;
+
+/**
+ * {@link WebServer} running in the JVM of a benchmark on a free port of the
+ * loopback interface. The server runs on a daemon thread until the JVM exits.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.WebServer
+ * @version 2021-02-19
+ */
+public class EmbeddedServer {
+	private final int port;
+
+	/**
+	 * Starting the server and waiting until it accepts connections. Persistent
+	 * connections are never closed by the server. Files up to 1 MiB and the
+	 * resolved files of 10000 request targets are cached.
+	 * 
+	 * @param folder   Web root of the server.
+	 * @param engine   {@link WebServer.Engine} handling the connections.
+	 * @param executor {@link WebServer.ExecutorType} of the blocking engine.
+	 * @param threads  Number of threads of the fixed or the stealing executor.
+	 * @param loops    Number of event loops of the nio engine.
+	 * @throws IOException            The server didn't start.
+	 * @throws InvalidConfigException Invalid logger settings.
+	 * @throws InterruptedException   Interrupted waiting for the server.
+	 */
+	public EmbeddedServer(Path folder, WebServer.Engine engine, WebServer.ExecutorType executor, int threads,
+			int loops) throws IOException, InvalidConfigException, InterruptedException {
+		try (ServerSocket free = new ServerSocket(0)) {
+			port = free.getLocalPort();
+		}
+
+		Logger logger = new Logger("benchmark", 2);
+		RequestHandler handler = new RequestHandler(logger, new ErrorPageGenerator("benchmark", port, "localhost"),
+				new PathCache(folder, 10000, 1000), new FileCache(64L * 1024 * 1024, 1024L * 1024),
+				new MappedFileCache(0, 0), new Compression(false, 1024, Compression.DEFAULT_TYPES), new CacheControl(),
+				new Metrics(), null);
+		WebServer server = new WebServer(logger, port, threads, handler,
+				new ConnectionLimits(Integer.MAX_VALUE, 60000), new BufferPool(64L * 1024 * 1024),
+				new LoadShedding(10000, 0, 1), new SocketOptions(), engine, loops, executor, 0, null);
+		Thread thread = new Thread(server::run, "tiger-benchmark-server");
+		thread.setDaemon(true);
+		thread.start();
+
+		// waiting until the server accepts connections
+		for (int i = 0; i < 100; i++) {
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				return;
+			} catch (IOException e) {
+				Thread.sleep(50);
+			}
+		}
+		throw new IOException("server didn't start on port " + port);
+	}
+
+	/**
+	 * Getter for the port.
+	 * 
+	 * @return Port of the server.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Opening a connection to the server.
+	 * 
+	 * @return Connected socket without Nagle's algorithm.
+	 * @throws IOException Error connecting to the server.
+	 */
+	public Socket connect() throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+
+	/**
+	 * Reading a response with a Content-Length header.
+	 * 
+	 * @param in InputStream of the connection.
+	 * @return Status code of the response.
+	 * @throws IOException Error reading the response or a response without a
+	 *                     Content-Length.
+	 */
+	public static int readResponse(InputStream in) throws IOException {
+		int status = -1;
+		long length = -1;
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			int b = in.read();
+			if (b < 0)
+				throw new EOFException("connection closed in the header");
+			if (b != '\n') {
+				if (b != '\r')
+					line.append((char) b);
+				continue;
+			}
+			if (line.length() == 0)
+				break;
+			if (status < 0 && line.length() >= 12)
+				status = Integer.parseInt(line.substring(9, 12));
+			else if (line.length() > 15 && line.substring(0, 15).equalsIgnoreCase("Content-Length:"))
+				length = Long.parseLong(line.substring(15).trim());
+			line.setLength(0);
+		}
+		if (length < 0)
+			throw new IOException("response without Content-Length");
+		in.skipNBytes(length);
+		return status;
+	}
+
+	/**
+	 * Deleting a folder with all its files.
+	 * 
+	 * @param folder Folder to be deleted.
+	 * @throws IOException Error deleting a file.
+	 */
+	public static void delete(Path folder) throws IOException {
+		try (Stream<Path> paths = Files.walk(folder)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(path);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.benjaminschmitz.tiger.ErrorPageGenerator;
+import org.benjaminschmitz.tiger.HttpStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of generating the error pages of the {@link ErrorPageGenerator}.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.ErrorPageGenerator
+ * @version 2021-02-19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorPageBenchmark {
+	private final ErrorPageGenerator generator = new ErrorPageGenerator("0.01 Alpha", 8080, "localhost");
+
+	/**
+	 * Generating the page of a status.
+	 * 
+	 * @return HTML error page.
+	 */
+	@Benchmark
+	public String status() {
+		return generator.errorGenerator(HttpStatus.FORBIDDEN);
+	}
+
+	/**
+	 * Generating the page of a missing file.
+	 * 
+	 * @return HTML error page.
+	 */
+	@Benchmark
+	public String notFound() {
+		return generator.errorGenerator(HttpStatus.NOT_FOUND, "/images/photos/2021/summer/beach.jpg");
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.benjaminschmitz.tiger.InvalidConfigException;
+import org.benjaminschmitz.tiger.LatencyHistogram;
+import org.benjaminschmitz.tiger.WebServer;
+
+/**
+ * Macro benchmark of the whole server. A {@link WebServer} is started on the
+ * loopback interface with a synthetic web root of small, medium and large
+ * files, and loaded by clients sending a request after the response to their
+ * previous request (closed loop). Persistent clients keep their connection,
+ * closing clients open a new connection for every request. After a warmup the
+ * throughput and the latency quantiles are measured and written to a JSON
+ * result file, so runs of different engines and releases can be compared.
+ * <p>
+ * The settings are given as "key=value" arguments:
+ * <p>
+ * "engine" {@code blocking} or {@code nio}, default {@code blocking}.
+ * <p>
+ * "executor" {@code fixed}, {@code stealing} or {@code virtual}, default
+ * {@code fixed}.
+ * <p>
+ * "threads" and "loops" of the server, default the number of processors.
+ * <p>
+ * "clients" persistent clients, default 64; "closing" closing clients, default
+ * 0.
+ * <p>
+ * "warmup" and "duration" in seconds, default 5 and 20.
+ * <p>
+ * "mix" percentages of requests to small (4 KiB), medium (64 KiB) and large (4
+ * MiB) files, default "80,15,5". The large files aren't cached by the server.
+ * <p>
+ * "label" free text stored in the result, "out" result file, default
+ * "load-result.json".
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.benchmarks.EmbeddedServer
+ * @version 2021-02-19
+ */
+public class LoadGenerator {
+	private static final int[] SIZES = { 4 * 1024, 64 * 1024, 4 * 1024 * 1024 };
+	private static final String[] NAMES = { "small", "medium", "large" };
+	private static final int[] FILES = { 100, 20, 4 };
+
+	private final Map<String, String> settings;
+	private final int[] mix = new int[3];
+	private final LatencyHistogram persistentLatency = new LatencyHistogram();
+	private final LatencyHistogram closingLatency = new LatencyHistogram();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private volatile boolean measuring;
+	private volatile boolean running = true;
+
+	/**
+	 * Parsing the settings.
+	 * 
+	 * @param settings Settings of the arguments.
+	 */
+	public LoadGenerator(Map<String, String> settings) {
+		this.settings = settings;
+		String[] percentages = get("mix", "80,15,5").split(",");
+		if (percentages.length != 3)
+			throw new IllegalArgumentException("mix needs three percentages");
+		int sum = 0;
+		for (int i = 0; i < 3; i++)
+			sum += mix[i] = Integer.parseInt(percentages[i].trim());
+		if (sum != 100)
+			throw new IllegalArgumentException("mix must sum up to 100");
+	}
+
+	/**
+	 * Running the benchmark and writing the result.
+	 * 
+	 * @throws IOException            Error writing the web root or the result.
+	 * @throws InvalidConfigException Invalid logger settings of the server.
+	 * @throws InterruptedException   Interrupted while running.
+	 */
+	public void run() throws IOException, InvalidConfigException, InterruptedException {
+		int processors = Runtime.getRuntime().availableProcessors();
+		WebServer.Engine engine = WebServer.Engine.valueOf(get("engine", "blocking").toUpperCase());
+		WebServer.ExecutorType executor = WebServer.ExecutorType.valueOf(get("executor", "fixed").toUpperCase());
+		int threads = getInt("threads", processors);
+		int loops = getInt("loops", processors);
+		int clients = getInt("clients", 64);
+		int closing = getInt("closing", 0);
+		int warmup = getInt("warmup", 5);
+		int duration = getInt("duration", 20);
+
+		Path folder = Files.createTempDirectory("tiger-load");
+		try {
+			for (int i = 0; i < SIZES.length; i++) {
+				byte[] content = new byte[SIZES[i]];
+				ThreadLocalRandom.current().nextBytes(content);
+				for (int j = 0; j < FILES[i]; j++)
+					Files.write(folder.resolve(NAMES[i] + j + ".bin"), content);
+			}
+			EmbeddedServer server = new EmbeddedServer(folder, engine, executor, threads, loops);
+			System.out.println("Server " + engine + " on port " + server.getPort() + ", " + clients
+					+ " persistent and " + closing + " closing clients");
+
+			List<Thread> workers = new ArrayList<>();
+			for (int i = 0; i < clients + closing; i++) {
+				boolean persistent = i < clients;
+				Thread worker = new Thread(() -> client(server, persistent), "tiger-load-" + i);
+				worker.setDaemon(true);
+				workers.add(worker);
+				worker.start();
+			}
+
+			Thread.sleep(warmup * 1000L);
+			measuring = true;
+			long start = System.nanoTime();
+			Thread.sleep(duration * 1000L);
+			measuring = false;
+			double seconds = (System.nanoTime() - start) / 1e9;
+			running = false;
+			for (Thread worker : workers)
+				worker.join(1000);
+
+			String result = result(engine, executor, threads, loops, clients, closing, warmup, seconds);
+			Path out = Path.of(get("out", "load-result.json"));
+			Files.writeString(out, result);
+			System.out.print(result);
+			System.out.println("Result written to " + out.toAbsolutePath());
+		} finally {
+			EmbeddedServer.delete(folder);
+		}
+	}
+
+	/**
+	 * Sending requests until the benchmark ends.
+	 * 
+	 * @param server     Server under load.
+	 * @param persistent Weather the connection is kept for all requests.
+	 */
+	private void client(EmbeddedServer server, boolean persistent) {
+		LatencyHistogram latency = persistent ? persistentLatency : closingLatency;
+		Socket socket = null;
+		OutputStream out = null;
+		InputStream in = null;
+		while (running) {
+			int type = pick();
+			String file = NAMES[type] + ThreadLocalRandom.current().nextInt(FILES[type]) + ".bin";
+			byte[] request = ("GET /" + file + " HTTP/1.1\r\nHost: localhost\r\n"
+					+ (persistent ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.US_ASCII);
+			long start = System.nanoTime();
+			try {
+				if (socket == null) {
+					socket = server.connect();
+					out = socket.getOutputStream();
+					in = new BufferedInputStream(socket.getInputStream(), 65536);
+				}
+				out.write(request);
+				out.flush();
+				int status = EmbeddedServer.readResponse(in);
+				if (!persistent) {
+					socket.close();
+					socket = null;
+				}
+				if (!measuring)
+					continue;
+				latency.record(System.nanoTime() - start);
+				if (status == 200)
+					bytes.add(SIZES[type]);
+				else
+					errors.increment();
+			} catch (IOException e) {
+				if (measuring)
+					errors.increment();
+				close(socket);
+				socket = null;
+			}
+		}
+		close(socket);
+	}
+
+	/**
+	 * Picking the type of the requested file by the mix.
+	 * 
+	 * @return Index of the file type.
+	 */
+	private int pick() {
+		int r = ThreadLocalRandom.current().nextInt(100);
+		if (r < mix[0])
+			return 0;
+		return r < mix[0] + mix[1] ? 1 : 2;
+	}
+
+	/**
+	 * Making the JSON result.
+	 * 
+	 * @param engine   Engine of the server.
+	 * @param executor Executor of the server.
+	 * @param threads  Threads of the server.
+	 * @param loops    Event loops of the server.
+	 * @param clients  Persistent clients.
+	 * @param closing  Closing clients.
+	 * @param warmup   Warmup in seconds.
+	 * @param seconds  Measured seconds.
+	 * @return JSON object of the result.
+	 */
+	private String result(WebServer.Engine engine, WebServer.ExecutorType executor, int threads, int loops,
+			int clients, int closing, int warmup, double seconds) {
+		long[] persistentCounts = persistentLatency.getCounts();
+		long[] closingCounts = closingLatency.getCounts();
+		long[] counts = new long[persistentCounts.length];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = persistentCounts[i] + closingCounts[i];
+		long requests = persistentLatency.getCount() + closingLatency.getCount();
+		long sum = persistentLatency.getSum() + closingLatency.getSum();
+
+		StringBuilder json = new StringBuilder(1024);
+		json.append("{\n");
+		json.append("  \"label\": \"").append(escape(get("label", ""))).append("\",\n");
+		json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+		json.append("  \"java\": \"").append(escape(System.getProperty("java.version"))).append("\",\n");
+		json.append("  \"os\": \"").append(escape(System.getProperty("os.name"))).append("\",\n");
+		json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		json.append("  \"config\": {\"engine\": \"").append(engine.name().toLowerCase())
+				.append("\", \"executor\": \"").append(executor.name().toLowerCase()).append("\", \"threads\": ")
+				.append(threads).append(", \"loops\": ").append(loops).append(", \"clients\": ").append(clients)
+				.append(", \"closing\": ").append(closing).append(", \"warmup\": ").append(warmup)
+				.append(", \"mix\": [").append(mix[0]).append(", ").append(mix[1]).append(", ").append(mix[2])
+				.append("]},\n");
+		json.append("  \"seconds\": ").append(format(seconds)).append(",\n");
+		json.append("  \"requests\": ").append(requests).append(",\n");
+		json.append("  \"errors\": ").append(errors.sum()).append(",\n");
+		json.append("  \"requestsPerSecond\": ").append(format(requests / seconds)).append(",\n");
+		json.append("  \"bytesPerSecond\": ").append(format(bytes.sum() / seconds)).append(",\n");
+		json.append("  \"latencyMicros\": ").append(latency(counts, sum, requests)).append(",\n");
+		json.append("  \"persistentLatencyMicros\": ")
+				.append(latency(persistentCounts, persistentLatency.getSum(), persistentLatency.getCount()))
+				.append(",\n");
+		json.append("  \"closingLatencyMicros\": ")
+				.append(latency(closingCounts, closingLatency.getSum(), closingLatency.getCount())).append("\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Making the JSON object of the latency quantiles.
+	 * 
+	 * @param counts Bucket counts of the latency histogram.
+	 * @param sum    Sum of the latencies in nanoseconds.
+	 * @param count  Number of latencies.
+	 * @return JSON object with the mean and the quantiles in microseconds.
+	 */
+	private static String latency(long[] counts, long sum, long count) {
+		return "{\"mean\": " + format(count == 0 ? 0 : sum / 1e3 / count) + ", \"p50\": "
+				+ format(LatencyHistogram.quantile(counts, 0.5) / 1e3) + ", \"p90\": "
+				+ format(LatencyHistogram.quantile(counts, 0.9) / 1e3) + ", \"p99\": "
+				+ format(LatencyHistogram.quantile(counts, 0.99) / 1e3) + ", \"p999\": "
+				+ format(LatencyHistogram.quantile(counts, 0.999) / 1e3) + "}";
+	}
+
+	/**
+	 * Formatting a number with one decimal.
+	 * 
+	 * @param value Number to be formatted.
+	 * @return Formatted number.
+	 */
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	/**
+	 * Escaping a JSON string.
+	 * 
+	 * @param value String to be escaped.
+	 * @return Escaped string without quotes.
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Getter for a setting.
+	 * 
+	 * @param key          Key of the setting.
+	 * @param defaultValue Value if the setting isn't given.
+	 * @return Value of the setting.
+	 */
+	private String get(String key, String defaultValue) {
+		return settings.getOrDefault(key, defaultValue).trim();
+	}
+
+	/**
+	 * Getter for a numeric setting.
+	 * 
+	 * @param key          Key of the setting.
+	 * @param defaultValue Value if the setting isn't given.
+	 * @return Value of the setting.
+	 */
+	private int getInt(String key, int defaultValue) {
+		String value = settings.get(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Closing a connection and ignoring errors.
+	 * 
+	 * @param socket Socket of the connection or <code>null</code>.
+	 */
+	private static void close(Socket socket) {
+		if (socket == null)
+			return;
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Running the load generator with the "key=value" settings. The JVM is exited
+	 * at the end, as the server doesn't stop by itself.
+	 * 
+	 * @param args Settings of the benchmark.
+	 * @throws Exception Error running the benchmark.
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> settings = new HashMap<>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0)
+				throw new IllegalArgumentException("argument " + arg + " isn't key=value");
+			settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		new LoadGenerator(settings).run();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.benjaminschmitz.tiger.InvalidConfigException;
+import org.benjaminschmitz.tiger.WebServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmark of requests to an embedded {@link WebServer} over the
+ * loopback interface. The server runs in the benchmark JVM, so the GC
+ * profiler reports the allocations of the client and the server together.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.WebServer
+ * @version 2021-02-19
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+	private static final byte[] REQUEST = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CLOSE_REQUEST = ("GET /index.html HTTP/1.1\r\nHost: localhost\r\n"
+			+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Embedded server with a web root of a single file.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	@State(Scope.Benchmark)
+	public static class Server {
+		@Param({ "BLOCKING", "NIO" })
+		public WebServer.Engine engine;
+
+		@Param({ "1024" })
+		public int size;
+
+		Path folder;
+		EmbeddedServer server;
+
+		/**
+		 * Writing the web root and starting the server.
+		 * 
+		 * @throws IOException            Error writing the web root.
+		 * @throws InvalidConfigException Invalid logger settings.
+		 * @throws InterruptedException   Interrupted waiting for the server.
+		 */
+		@Setup(Level.Trial)
+		public void start() throws IOException, InvalidConfigException, InterruptedException {
+			folder = Files.createTempDirectory("tiger-benchmark");
+			Files.write(folder.resolve("index.html"), new byte[size]);
+			int processors = Runtime.getRuntime().availableProcessors();
+			server = new EmbeddedServer(folder, engine, WebServer.ExecutorType.FIXED, processors, processors);
+		}
+
+		/**
+		 * Deleting the web root. The server runs on a daemon thread until the JVM
+		 * of the benchmark exits.
+		 * 
+		 * @throws IOException Error deleting the web root.
+		 */
+		@TearDown(Level.Trial)
+		public void delete() throws IOException {
+			EmbeddedServer.delete(folder);
+		}
+	}
+
+	/**
+	 * Persistent connection of a benchmark thread.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	@State(Scope.Thread)
+	public static class Connection {
+		Socket socket;
+		OutputStream out;
+		InputStream in;
+
+		/**
+		 * Opening the connection.
+		 * 
+		 * @param server Running server.
+		 * @throws IOException Error connecting to the server.
+		 */
+		@Setup(Level.Trial)
+		public void open(Server server) throws IOException {
+			socket = server.server.connect();
+			out = socket.getOutputStream();
+			in = new BufferedInputStream(socket.getInputStream());
+		}
+
+		/**
+		 * Closing the connection.
+		 * 
+		 * @throws IOException Error closing the connection.
+		 */
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Sending a request on a persistent connection and reading the response.
+	 * 
+	 * @param connection Persistent connection of the thread.
+	 * @return Status code of the response.
+	 * @throws IOException Error of the connection.
+	 */
+	@Benchmark
+	public int keepAlive(Connection connection) throws IOException {
+		connection.out.write(REQUEST);
+		connection.out.flush();
+		return EmbeddedServer.readResponse(connection.in);
+	}
+
+	/**
+	 * Opening a connection, sending a request and reading the response.
+	 * 
+	 * @param server Running server.
+	 * @return Status code of the response.
+	 * @throws IOException Error of the connection.
+	 */
+	@Benchmark
+	public int newConnection(Server server) throws IOException {
+		try (Socket socket = server.server.connect()) {
+			socket.getOutputStream().write(CLOSE_REQUEST);
+			return EmbeddedServer.readResponse(new BufferedInputStream(socket.getInputStream()));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.benjaminschmitz.tiger.HttpRequest;
+import org.benjaminschmitz.tiger.RequestParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of parsing the request line and the header fields of a request
+ * received by the {@link RequestParser}.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RequestParser
+ * @version 2021-02-19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+	private static final String MINIMAL = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	private static final String BROWSER = "GET /css/style.css?v=3 HTTP/1.1\r\n" + "Host: www.example.org\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+			+ "Accept: text/css,*/*;q=0.1\r\n" + "Accept-Language: en-US,en;q=0.5\r\n"
+			+ "Accept-Encoding: gzip, deflate, br\r\n" + "Referer: http://www.example.org/index.html\r\n"
+			+ "Connection: keep-alive\r\n" + "If-None-Match: \"4d2-17a8f3c2b40\"\r\n"
+			+ "If-Modified-Since: Fri, 09 Jul 2021 10:00:00 GMT\r\n" + "Cache-Control: max-age=0\r\n\r\n";
+
+	@Param({ "minimal", "browser" })
+	public String request;
+
+	private byte[] bytes;
+	private RequestParser parser;
+
+	/**
+	 * Encoding the request and making the parser.
+	 */
+	@Setup
+	public void setup() {
+		bytes = (request.equals("minimal") ? MINIMAL : BROWSER).getBytes(StandardCharsets.US_ASCII);
+		parser = new RequestParser(ByteBuffer.allocate(RequestParser.MAX_HEADER_SIZE));
+	}
+
+	/**
+	 * Receiving and parsing the request with a reused parser, as on a persistent
+	 * connection.
+	 * 
+	 * @return Parsed request.
+	 */
+	@Benchmark
+	public HttpRequest parse() {
+		parser.reset();
+		parser.getBuffer().put(bytes);
+		parser.parse();
+		return parser.getRequest();
+	}
+
+	/**
+	 * Receiving and parsing the request with a new parser, as on a new connection.
+	 * 
+	 * @return Parsed request.
+	 */
+	@Benchmark
+	public HttpRequest parseNewConnection() {
+		RequestParser p = new RequestParser();
+		p.getBuffer().put(bytes);
+		p.parse();
+		return p.getRequest();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.benjaminschmitz.tiger.BufferPool;
+import org.benjaminschmitz.tiger.HttpResponse;
+import org.benjaminschmitz.tiger.HttpStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of making and serializing a {@link HttpResponse} with the header
+ * fields of a typical static file.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.HttpResponse
+ * @version 2021-02-19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+	private byte[] body;
+	private BufferPool pool;
+
+	/**
+	 * Making the body of the responses.
+	 */
+	@Setup
+	public void setup() {
+		body = new byte[4096];
+		pool = new BufferPool(1024 * 1024);
+	}
+
+	/**
+	 * Making a response and encoding its header, as it is sent to the connection.
+	 * 
+	 * @return Encoded header.
+	 */
+	@Benchmark
+	public byte[] headerBytes() {
+		return response().getHeaderBytes();
+	}
+
+	/**
+	 * Making a response and encoding its header and body into a pooled buffer,
+	 * as the connections do.
+	 * 
+	 * @return Number of encoded bytes.
+	 */
+	@Benchmark
+	public int pooledBuffers() {
+		ByteBuffer[] buffers = response().getBuffers(pool);
+		int length = buffers[0].remaining();
+		pool.release(buffers[0]);
+		return length;
+	}
+
+	/**
+	 * Making a response and its string representation.
+	 * 
+	 * @return String of the response.
+	 */
+	@Benchmark
+	public String string() {
+		return response().toString();
+	}
+
+	/**
+	 * Making a response with the header fields of a static file.
+	 * 
+	 * @return HttpResponse of a file.
+	 */
+	private HttpResponse response() {
+		HttpResponse response = new HttpResponse(HttpStatus.OK, body);
+		response.addHeader("Content-Type", "text/css; charset=utf-8");
+		response.addHeader("ETag", "\"1000-17a8f3c2b40\"");
+		response.addHeader("Last-Modified", "Fri, 09 Jul 2021 10:00:00 GMT");
+		response.addHeader("Cache-Control", "max-age=86400");
+		response.addHeader("Accept-Ranges", "bytes");
+		response.addHeader("Vary", "Accept-Encoding");
+		return response;
+	}
+}
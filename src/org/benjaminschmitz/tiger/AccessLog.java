@@ -0,0 +1,484 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log with a line for every answered request. The connections only put
+ * a {@link Record} into a {@link RingBuffer}, a single writer thread formats
+ * the records and writes them to a buffered file. Records are dropped and
+ * counted if the queue is full, so the access log never blocks a connection.
+ * <p>
+ * The file is rotated when it reaches the configured size: "access.log" is
+ * renamed to "access.log.1", "access.log.1" to "access.log.2" and so on, and
+ * the oldest file is deleted.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.Logger
+ * @version 2021-02-19
+ */
+public class AccessLog {
+	public static final int DEFAULT_QUEUE_SIZE = 16384;
+	private static final long MAX_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final DateTimeFormatter COMMON_DATE = DateTimeFormatter
+			.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+	private final Logger LOGGER;
+	private final Format format;
+	private final Path file;
+	private final long rotateBytes;
+	private final int keep;
+	private final RingBuffer<Record> queue;
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean waiting;
+	private volatile boolean closed;
+
+	// state of the writer thread
+	private Writer out;
+	private long written;
+	private final StringBuilder line = new StringBuilder(256);
+	private long second = Long.MIN_VALUE;
+	private String secondDate;
+
+	/**
+	 * Opening the file and starting the writer thread.
+	 * 
+	 * @param logger      {@link Logger} for errors of the access log.
+	 * @param format      {@link Format} of the lines.
+	 * @param file        File the lines are appended to.
+	 * @param rotateBytes Size of the file after which it is rotated. 0 disables
+	 *                    the rotation.
+	 * @param keep        Number of rotated files to keep.
+	 * @param queueSize   Number of records waiting to be written.
+	 * @throws IOException Error opening the file.
+	 */
+	public AccessLog(Logger logger, Format format, Path file, long rotateBytes, int keep, int queueSize)
+			throws IOException {
+		if (rotateBytes < 0 || keep < 0)
+			throw new IllegalArgumentException("rotation must not be negative");
+		LOGGER = logger;
+		this.format = format;
+		this.file = file;
+		this.rotateBytes = rotateBytes;
+		this.keep = keep;
+		queue = new RingBuffer<>(queueSize);
+		open();
+
+		writer = new Thread(this::write, "tiger-access-log");
+		writer.setDaemon(true);
+		writer.start();
+		shutdownHook = new Thread(this::close, "tiger-access-log-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Starting the record of a request. The handling time is measured from here.
+	 * The request is copied, as it is reused for the next request.
+	 * 
+	 * @param request HttpRequest of the client or <code>null</code> for an
+	 *                invalid request.
+	 * @param remote  Address of the client.
+	 * @return Record to be finished by {@link #log(Record, HttpResponse)}.
+	 */
+	public Record start(HttpRequest request, InetAddress remote) {
+		return new Record(request, remote, format == Format.COMMON);
+	}
+
+	/**
+	 * Finishing the record after the response was written and putting it into the
+	 * queue.
+	 * 
+	 * @param record   Record of the request.
+	 * @param response HttpResponse sent to the client.
+	 */
+	public void log(Record record, HttpResponse response) {
+		record.duration = System.nanoTime() - record.start;
+		record.status = response.getStatus().errorCode();
+		record.bytes = response.isBodyOmitted() ? 0 : response.getContentLength();
+		if (closed || !queue.offer(record)) {
+			dropped.increment();
+			return;
+		}
+		if (waiting)
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Getter for the number of dropped records.
+	 * 
+	 * @return Number of records dropped because the queue was full.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Removing the shutdown hook closing the log, so a shutdown hook which still
+	 * logs requests, e.g. while the server drains its connections, can call
+	 * {@link #close()} afterwards.
+	 */
+	public void removeShutdownHook() {
+		Runtime.getRuntime().removeShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Writing the waiting records and closing the file.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Loop of the writer thread. The records are written as long as the queue
+	 * isn't empty and flushed together afterwards.
+	 */
+	private void write() {
+		while (true) {
+			boolean wrote = false;
+			try {
+				Record record;
+				while ((record = queue.poll()) != null) {
+					format(record);
+					out.append(line);
+					written += line.length();
+					wrote = true;
+					if (rotateBytes > 0 && written >= rotateBytes)
+						rotate();
+				}
+				if (wrote)
+					out.flush();
+			} catch (IOException e) {
+				LOGGER.warning("Couldn't write access log " + file + ": " + e.getMessage());
+			}
+
+			if (closed && queue.isEmpty()) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.warning("Couldn't close access log " + file);
+				}
+				return;
+			}
+			if (!wrote) {
+				waiting = true;
+				if (queue.isEmpty() && !closed)
+					LockSupport.parkNanos(MAX_WAIT);
+				waiting = false;
+			}
+		}
+	}
+
+	/**
+	 * Opening the file for appending.
+	 * 
+	 * @throws IOException Error opening the file.
+	 */
+	private void open() throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(
+				Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+				StandardCharsets.UTF_8), 64 * 1024);
+		written = Files.size(file);
+	}
+
+	/**
+	 * Rotating the file and opening a new one. If the file couldn't be renamed,
+	 * the lines are still appended to it.
+	 * 
+	 * @throws IOException Error renaming or opening the files.
+	 */
+	private void rotate() throws IOException {
+		out.close();
+		try {
+			if (keep == 0) {
+				Files.delete(file);
+			} else {
+				Files.deleteIfExists(rotated(keep));
+				for (int i = keep - 1; i >= 1; i--)
+					if (Files.exists(rotated(i)))
+						Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+				Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			open();
+		}
+	}
+
+	/**
+	 * Returning the path of a rotated file.
+	 * 
+	 * @param i Number of the rotated file, 1 for the newest.
+	 * @return Path of the rotated file.
+	 */
+	private Path rotated(int i) {
+		return file.resolveSibling(file.getFileName() + "." + i);
+	}
+
+	/**
+	 * Formatting the record into {@link #line}.
+	 * 
+	 * @param record Record to be formatted.
+	 */
+	private void format(Record record) {
+		line.setLength(0);
+		if (format == Format.JSON) {
+			line.append("{\"time\":\"").append(Instant.ofEpochMilli(record.time)).append("\",\"remote\":");
+			appendJson(record.remote);
+			line.append(",\"method\":");
+			appendJson(record.method);
+			line.append(",\"path\":");
+			appendJson(record.target);
+			line.append(",\"version\":");
+			appendJson(record.version);
+			line.append(",\"status\":").append(record.status);
+			line.append(",\"bytes\":").append(record.bytes);
+			line.append(",\"duration_ns\":").append(record.duration);
+			line.append(",\"referer\":");
+			appendJson(record.referer);
+			line.append(",\"user_agent\":");
+			appendJson(record.userAgent);
+			line.append("}\n");
+			return;
+		}
+
+		line.append(record.remote).append(" - - [").append(getDate(record.time)).append("] \"");
+		if (record.method == null)
+			line.append('-');
+		else
+			line.append(record.method).append(' ').append(escape(record.target)).append(' ').append(record.version);
+		line.append("\" ").append(record.status).append(' ');
+		if (record.bytes == 0)
+			line.append('-');
+		else
+			line.append(record.bytes);
+		if (format == Format.COMBINED) {
+			line.append(" \"").append(record.referer == null ? "-" : escape(record.referer));
+			line.append("\" \"").append(record.userAgent == null ? "-" : escape(record.userAgent)).append('"');
+		}
+		line.append(' ').append(record.duration).append('\n');
+	}
+
+	/**
+	 * Returning the date in the format 'dd/MMM/yyyy:HH:mm:ss Z'. The date is only
+	 * formatted once per second.
+	 * 
+	 * @param time Time in milliseconds.
+	 * @return String representation of the date.
+	 */
+	private String getDate(long time) {
+		long s = Math.floorDiv(time, 1000L);
+		if (s != second) {
+			secondDate = COMMON_DATE.format(Instant.ofEpochSecond(s));
+			second = s;
+		}
+		return secondDate;
+	}
+
+	/**
+	 * Appending a JSON string or null.
+	 * 
+	 * @param str String to be appended or <code>null</code>.
+	 */
+	private void appendJson(String str) {
+		if (str == null) {
+			line.append("null");
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"' -> line.append("\\\"");
+			case '\\' -> line.append("\\\\");
+			case '\n' -> line.append("\\n");
+			case '\r' -> line.append("\\r");
+			case '\t' -> line.append("\\t");
+			default -> {
+				if (c < 0x20)
+					line.append(String.format("\\u%04x", (int) c));
+				else
+					line.append(c);
+			}
+			}
+		}
+		line.append('"');
+	}
+
+	/**
+	 * Reading the access log and returning the targets of the most successful GET
+	 * requests, e.g. to load their files into the cache at startup. Lines which
+	 * can't be parsed are skipped.
+	 * 
+	 * @param file   Access log to be read.
+	 * @param format {@link Format} of the access log.
+	 * @param count  Maximum number of targets.
+	 * @return Targets ordered by their number of requests, the most requested
+	 *         first.
+	 * @throws IOException Error reading the access log.
+	 */
+	public static List<String> topTargets(Path file, Format format, int count) throws IOException {
+		Map<String, Integer> requests = new HashMap<>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String target = format == Format.JSON ? jsonTarget(line) : commonTarget(line);
+				if (target != null)
+					requests.merge(target, 1, Integer::sum);
+			}
+		}
+		List<String> targets = new ArrayList<>(requests.keySet());
+		targets.sort((a, b) -> requests.get(b) - requests.get(a));
+		return targets.subList(0, Math.min(count, targets.size()));
+	}
+
+	/**
+	 * Parsing the target of a successful GET request of a line in the Common or
+	 * Combined format.
+	 * 
+	 * @param line Line of the access log.
+	 * @return Target of the request or <code>null</code>.
+	 */
+	private static String commonTarget(String line) {
+		int start = line.indexOf("\"GET ");
+		if (start < 0)
+			return null;
+		int end = line.indexOf(' ', start + 5);
+		int quote = end < 0 ? -1 : line.indexOf('"', end);
+		if (quote < 0 || !line.startsWith(" 200 ", quote + 1))
+			return null;
+		String target = line.substring(start + 5, end);
+		return target.indexOf('\\') < 0 ? target : null;
+	}
+
+	/**
+	 * Parsing the target of a successful GET request of a line in the JSON
+	 * format.
+	 * 
+	 * @param line Line of the access log.
+	 * @return Target of the request or <code>null</code>.
+	 */
+	private static String jsonTarget(String line) {
+		if (!line.contains("\"method\":\"GET\"") || !line.contains("\"status\":200,"))
+			return null;
+		int start = line.indexOf("\"path\":\"");
+		int end = start < 0 ? -1 : line.indexOf('"', start + 8);
+		if (end < 0)
+			return null;
+		String target = line.substring(start + 8, end);
+		return target.indexOf('\\') < 0 ? target : null;
+	}
+
+	/**
+	 * Escaping the quotes and backslashes of a header value in the Combined
+	 * format.
+	 * 
+	 * @param str Value of the header.
+	 * @return Escaped value.
+	 */
+	private static String escape(String str) {
+		if (str.indexOf('"') < 0 && str.indexOf('\\') < 0)
+			return str;
+		return str.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Record of a request, filled by the connection and formatted by the writer
+	 * thread.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public static final class Record {
+		final long start = System.nanoTime();
+		final long time = System.currentTimeMillis();
+		final String remote;
+		final String method;
+		final String target;
+		final String version;
+		final String referer;
+		final String userAgent;
+		long duration;
+		int status;
+		long bytes;
+
+		/**
+		 * Copying the values of the request.
+		 * 
+		 * @param request HttpRequest of the client or <code>null</code>.
+		 * @param remote  Address of the client.
+		 * @param common  Weather the headers aren't needed.
+		 */
+		Record(HttpRequest request, InetAddress remote, boolean common) {
+			this.remote = remote.getHostAddress();
+			method = request == null ? null : request.getMethod();
+			target = request == null ? null : request.getTarget();
+			version = request == null ? null : request.getVersion();
+			referer = request == null || common ? null : request.getHeader("Referer");
+			userAgent = request == null || common ? null : request.getHeader("User-Agent");
+		}
+	}
+
+	/**
+	 * Formats of the access log.
+	 * <p>
+	 * "COMMON" for the Common Log Format with the handling time in nanoseconds
+	 * appended.
+	 * <p>
+	 * "COMBINED" for the Combined Log Format with the handling time in
+	 * nanoseconds appended.
+	 * <p>
+	 * "JSON" for a JSON object per line.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum Format {
+		COMMON, COMBINED, JSON
+	}
+}
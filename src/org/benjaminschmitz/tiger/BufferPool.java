@@ -0,0 +1,282 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers for reading requests and writing responses. The
+ * operating system reads and writes direct buffers without copying them
+ * through a temporary buffer, and reused buffers don't cost the garbage
+ * collector anything, so handling a request doesn't allocate buffers.
+ * <p>
+ * The buffers are split into size classes from {@link #MIN_SIZE} to
+ * {@link #MAX_SIZE}, doubling from class to class. Every platform thread keeps
+ * a few released buffers of every class for itself, further buffers go to a
+ * shared stack of the class. Virtual threads only use the shared stacks, as a
+ * virtual thread ends with its connection and would take its buffers with it
+ * until the garbage collector hands them back. Direct buffers are only
+ * allocated while the pool holds less than its maximum number of bytes,
+ * afterwards and for larger sizes heap buffers are returned.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.HttpResponse
+ * @version 2021-02-19
+ */
+public class BufferPool {
+	public static final int MIN_SIZE = 4096;
+	public static final int MAX_SIZE = 65536;
+	private static final int MIN_SHIFT = 12;
+	private static final int CLASSES = 5;
+	private static final int LOCAL_BUFFERS = 8;
+	private static final Cleaner CLEANER = Cleaner.create();
+	private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+	private final long maxBytes;
+	private final AtomicLong allocated = new AtomicLong();
+	private final LongAdder fallbacks = new LongAdder();
+	private final Stack[] shared = new Stack[CLASSES];
+	private final ThreadLocal<Local> locals = ThreadLocal.withInitial(this::newLocal);
+
+	/**
+	 * Making an empty pool.
+	 * 
+	 * @param maxBytes Maximum number of bytes of all direct buffers of the pool.
+	 *                 0 for heap buffers only.
+	 */
+	public BufferPool(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("maximum size must not be negative");
+		this.maxBytes = maxBytes;
+		for (int i = 0; i < CLASSES; i++)
+			shared[i] = new Stack(16);
+	}
+
+	/**
+	 * Taking a cleared buffer with room for at least the given number of bytes.
+	 * 
+	 * @param size Minimum capacity of the buffer.
+	 * @return Direct buffer of the size class or a heap buffer of the size if the
+	 *         size is larger than {@link #MAX_SIZE} or the pool is exhausted.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size > MAX_SIZE) {
+			fallbacks.increment();
+			return ByteBuffer.allocate(size);
+		}
+		int sizeClass = sizeClass(size);
+		Stack local = local(sizeClass);
+		ByteBuffer buffer = local == null ? null : local.pop();
+		if (buffer == null) {
+			synchronized (shared[sizeClass]) {
+				buffer = shared[sizeClass].pop();
+			}
+		}
+		if (buffer != null)
+			return buffer.clear();
+
+		int capacity = MIN_SIZE << sizeClass;
+		long current;
+		do {
+			current = allocated.get();
+			if (current + capacity > maxBytes) {
+				fallbacks.increment();
+				return ByteBuffer.allocate(size);
+			}
+		} while (!allocated.compareAndSet(current, current + capacity));
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Returning a buffer to the pool. Heap buffers and buffers which don't match
+	 * a size class are left to the garbage collector. The buffer must not be used
+	 * afterwards.
+	 * 
+	 * @param buffer Buffer taken with {@link #acquire(int)} or <code>null</code>.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() > MAX_SIZE)
+			return;
+		int sizeClass = sizeClass(buffer.capacity());
+		if (buffer.capacity() != MIN_SIZE << sizeClass)
+			return;
+		Stack local = local(sizeClass);
+		if (local != null && local.size < LOCAL_BUFFERS) {
+			local.push(buffer);
+			return;
+		}
+		synchronized (shared[sizeClass]) {
+			shared[sizeClass].push(buffer);
+		}
+	}
+
+	/**
+	 * Getter for the bytes of the direct buffers allocated by the pool.
+	 * 
+	 * @return Number of bytes of direct buffers.
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * Getter for the number of heap buffers returned instead of direct buffers.
+	 * 
+	 * @return Number of heap buffers.
+	 */
+	public long getFallbacks() {
+		return fallbacks.sum();
+	}
+
+	/**
+	 * Returning the size class of a size.
+	 * 
+	 * @param size Size of at most {@link #MAX_SIZE}.
+	 * @return Index of the smallest size class holding the size.
+	 */
+	private static int sizeClass(int size) {
+		if (size <= MIN_SIZE)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * Returning the stack of the current thread for a size class.
+	 * 
+	 * @param sizeClass Index of the size class.
+	 * @return Stack of the thread or <code>null</code> for a virtual thread.
+	 */
+	private Stack local(int sizeClass) {
+		if (IS_VIRTUAL != null) {
+			try {
+				if ((boolean) IS_VIRTUAL.invokeExact(Thread.currentThread()))
+					return null;
+			} catch (Throwable e) {
+				return null;
+			}
+		}
+		return locals.get().stacks[sizeClass];
+	}
+
+	/**
+	 * Looking up Thread.isVirtual(), which only exists since Java 19, like the
+	 * virtual-thread executor of the {@link WebServer}.
+	 * 
+	 * @return MethodHandle of the method or <code>null</code> if the runtime has
+	 *         no virtual threads.
+	 */
+	private static MethodHandle isVirtualHandle() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+					MethodType.methodType(boolean.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Making the buffers of a thread. They are handed over to the shared stacks
+	 * after the thread ended.
+	 * 
+	 * @return Empty buffers of the thread.
+	 */
+	private Local newLocal() {
+		Local local = new Local();
+		Stack[] stacks = local.stacks;
+		CLEANER.register(local, () -> {
+			for (int i = 0; i < CLASSES; i++) {
+				synchronized (shared[i]) {
+					ByteBuffer buffer;
+					while ((buffer = stacks[i].pop()) != null)
+						shared[i].push(buffer);
+				}
+			}
+		});
+		return local;
+	}
+
+	/**
+	 * Buffers kept by a thread.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Local {
+		final Stack[] stacks = new Stack[CLASSES];
+
+		/**
+		 * Making the empty stacks of the size classes.
+		 */
+		Local() {
+			for (int i = 0; i < CLASSES; i++)
+				stacks[i] = new Stack(LOCAL_BUFFERS);
+		}
+	}
+
+	/**
+	 * Stack of released buffers of a size class. It only grows, so pushing a
+	 * buffer doesn't allocate once the pool is warm.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Stack {
+		ByteBuffer[] buffers;
+		int size;
+
+		/**
+		 * Making an empty stack.
+		 * 
+		 * @param capacity Initial capacity of the stack.
+		 */
+		Stack(int capacity) {
+			buffers = new ByteBuffer[capacity];
+		}
+
+		/**
+		 * Adding a buffer to the stack.
+		 * 
+		 * @param buffer Released buffer.
+		 */
+		void push(ByteBuffer buffer) {
+			if (size == buffers.length)
+				buffers = Arrays.copyOf(buffers, 2 * size);
+			buffers[size++] = buffer;
+		}
+
+		/**
+		 * Removing the last released buffer.
+		 * 
+		 * @return Buffer or <code>null</code> if the stack is empty.
+		 */
+		ByteBuffer pop() {
+			if (size == 0)
+				return null;
+			ByteBuffer buffer = buffers[--size];
+			buffers[size] = null;
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ranges of a Range request, e.g. "Range: bytes=0-499, -500". A single range
+ * is answered with its bytes and a Content-Range header, more ranges with a
+ * "multipart/byteranges" body, whose parts are separated by a boundary.
+ * <p>
+ * The Range header is ignored, i.e. the whole file is sent, if it isn't a valid
+ * byte range, if it has more than {@link #MAX_RANGES} ranges or if the
+ * If-Range of the request doesn't match the current version of the file.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RequestHandler
+ * @version 2021-02-19
+ */
+public final class ByteRanges {
+	public static final int MAX_RANGES = 16;
+
+	private final long[] ranges;
+	private final long size;
+	private final String boundary;
+
+	/**
+	 * Setting the satisfiable ranges.
+	 * 
+	 * @param ranges Position and length of every range, one after another.
+	 * @param size   Size of the file.
+	 */
+	private ByteRanges(long[] ranges, long size) {
+		this.ranges = ranges;
+		this.size = size;
+		boundary = ranges.length > 2 ? Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE)
+				: null;
+	}
+
+	/**
+	 * Parsing the ranges of the request.
+	 * 
+	 * @param request      HttpRequest of the client.
+	 * @param etag         ETag of the response.
+	 * @param lastModified Last-Modified date of the response.
+	 * @param size         Size of the response body.
+	 * @return Ranges of the request or <code>null</code> if the whole body is sent.
+	 */
+	public static ByteRanges of(HttpRequest request, String etag, String lastModified, long size) {
+		if (!request.getMethod().equals("GET"))
+			return null;
+		String range = request.getHeader("Range");
+		if (range == null)
+			return null;
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModified))
+			return null;
+
+		range = range.trim();
+		if (!range.regionMatches(true, 0, "bytes=", 0, 6))
+			return null;
+		String[] specs = range.substring(6).split(",");
+		if (specs.length > MAX_RANGES)
+			return null;
+
+		long[] ranges = new long[2 * specs.length];
+		int count = 0;
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0)
+				return null;
+			long first;
+			long last;
+			try {
+				if (dash == 0) {
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix < 0)
+						return null;
+					if (suffix == 0)
+						continue;
+					first = Math.max(size - suffix, 0);
+					last = size - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+					if (first < 0 || last < first)
+						return null;
+					last = Math.min(last, size - 1);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (first >= size)
+				continue;
+			ranges[2 * count] = first;
+			ranges[2 * count + 1] = last - first + 1;
+			count++;
+		}
+
+		long[] satisfiable = new long[2 * count];
+		System.arraycopy(ranges, 0, satisfiable, 0, satisfiable.length);
+		return new ByteRanges(satisfiable, size);
+	}
+
+	/**
+	 * Checks weather at least one range is within the body.
+	 * 
+	 * @return Boolean value weather the ranges can be sent.
+	 */
+	public boolean isSatisfiable() {
+		return ranges.length > 0;
+	}
+
+	/**
+	 * Getter for the ranges.
+	 * 
+	 * @return Position and length of every range, one after another.
+	 */
+	public long[] getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Making the separators of the parts of a "multipart/byteranges" body. Every
+	 * part starts with the boundary and a header with the content type and the
+	 * range of the part.
+	 * 
+	 * @param contentType Content type of the file.
+	 * @return Bytes before every range and after the last range or
+	 *         <code>null</code> if there is only one range.
+	 */
+	public byte[][] getSeparators(String contentType) {
+		if (boundary == null)
+			return null;
+		byte[][] separators = new byte[ranges.length / 2 + 1][];
+		for (int i = 0; i < ranges.length; i += 2)
+			separators[i / 2] = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: "
+					+ contentRange(i) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		separators[separators.length - 1] = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		return separators;
+	}
+
+	/**
+	 * Copying the ranges of the content into a body.
+	 * 
+	 * @param content    Content of the file.
+	 * @param separators Separators of the parts or <code>null</code>.
+	 * @return Body of the response.
+	 */
+	public byte[] slice(byte[] content, byte[][] separators) {
+		int length = 0;
+		for (int i = 1; i < ranges.length; i += 2)
+			length += (int) ranges[i];
+		if (separators != null)
+			for (byte[] separator : separators)
+				length += separator.length;
+
+		byte[] body = new byte[length];
+		int position = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (separators != null) {
+				System.arraycopy(separators[i / 2], 0, body, position, separators[i / 2].length);
+				position += separators[i / 2].length;
+			}
+			System.arraycopy(content, (int) ranges[i], body, position, (int) ranges[i + 1]);
+			position += (int) ranges[i + 1];
+		}
+		if (separators != null)
+			System.arraycopy(separators[separators.length - 1], 0, body, position,
+					separators[separators.length - 1].length);
+		return body;
+	}
+
+	/**
+	 * Adding the Content-Range and the Content-Type header to the response.
+	 * 
+	 * @param response    HttpResponse with the ranges or
+	 *                    {@link HttpStatus#RANGE_NOT_SATISFIABLE}.
+	 * @param contentType Content type of the file.
+	 */
+	public void addHeaders(HttpResponse response, String contentType) {
+		if (!isSatisfiable()) {
+			response.addHeader("Content-Range", "bytes */" + size);
+		} else if (boundary == null) {
+			response.addHeader("Content-Range", contentRange(0));
+			response.addHeader("Content-Type", contentType);
+		} else {
+			response.addHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+		}
+	}
+
+	/**
+	 * Making the Content-Range of a range, e.g. "bytes 0-499/1234".
+	 * 
+	 * @param i Index of the position of the range.
+	 * @return Content-Range of the range.
+	 */
+	private String contentRange(int i) {
+		return "bytes " + ranges[i] + "-" + (ranges[i] + ranges[i + 1] - 1) + "/" + size;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Validators and caching rules of the responses. Files get a strong ETag made
+ * of their size and modification time and a Last-Modified date, so clients can
+ * revalidate them with If-None-Match and If-Modified-Since and get a
+ * {@link HttpStatus#NOT_MODIFIED} without the body.
+ * <p>
+ * The max-age of the Cache-Control header is set by the first rule whose glob
+ * pattern matches the path of the file relative to the web root, e.g.
+ * "**.css" or "images/*".
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RequestHandler
+ * @version 2021-02-19
+ */
+public class CacheControl {
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+			.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	private final List<PathMatcher> patterns = new ArrayList<>();
+	private final List<String> values = new ArrayList<>();
+
+	/**
+	 * Adding a rule for the max-age of the matching files. Rules are checked in
+	 * the order they were added.
+	 * 
+	 * @param glob   Glob pattern for the path relative to the web root.
+	 * @param maxAge Seconds the response may be cached without revalidating it.
+	 */
+	public void addRule(String glob, long maxAge) {
+		if (maxAge < 0)
+			throw new IllegalArgumentException("max-age must not be negative");
+		patterns.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		values.add("max-age=" + maxAge);
+	}
+
+	/**
+	 * Returning the Cache-Control header of the file.
+	 * 
+	 * @param relative Path of the file relative to the web root.
+	 * @return Value of the Cache-Control header or <code>null</code> if no rule
+	 *         matches.
+	 */
+	public String get(Path relative) {
+		for (int i = 0; i < patterns.size(); i++)
+			if (patterns.get(i).matches(relative))
+				return values.get(i);
+		return null;
+	}
+
+	/**
+	 * Checks weather the client already has the current version of the file.
+	 * If-None-Match takes precedence over If-Modified-Since. Only GET and HEAD
+	 * requests are answered with {@link HttpStatus#NOT_MODIFIED}.
+	 * 
+	 * @param request      HttpRequest of the client.
+	 * @param etag         ETag of the response.
+	 * @param lastModified Modification time of the file in milliseconds.
+	 * @return Boolean value weather the response is not modified.
+	 */
+	public static boolean isNotModified(HttpRequest request, String etag, long lastModified) {
+		String method = request.getMethod();
+		if (!method.equals("GET") && !method.equals("HEAD"))
+			return false;
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+			return matches(ifNoneMatch, etag);
+
+		String ifModifiedSince = request.getHeader("If-Modified-Since");
+		if (ifModifiedSince == null)
+			return false;
+		long since = parseDate(ifModifiedSince);
+		return since >= 0 && lastModified / 1000 <= since / 1000;
+	}
+
+	/**
+	 * Making the strong ETag of a file. Compressed variants get their own ETag,
+	 * as their bytes differ from the file.
+	 * 
+	 * @param size         Size of the file.
+	 * @param lastModified Modification time of the file in milliseconds.
+	 * @param encoding     Encoding of the response or <code>null</code>.
+	 * @return Quoted ETag, e.g. "\"1f4-177b8d2c3e0\"".
+	 */
+	public static String etag(long size, long lastModified, Compression.Encoding encoding) {
+		String tag = Long.toHexString(size) + "-" + Long.toHexString(lastModified);
+		if (encoding != null)
+			tag = tag + "-" + encoding;
+		return "\"" + tag + "\"";
+	}
+
+	/**
+	 * Formatting a time as HTTP date, e.g. "Fri, 19 Feb 2021 12:00:00 GMT".
+	 * 
+	 * @param millis Time in milliseconds.
+	 * @return HTTP date of the time.
+	 */
+	public static String formatDate(long millis) {
+		return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * Parsing a HTTP date.
+	 * 
+	 * @param date HTTP date, e.g. "Fri, 19 Feb 2021 12:00:00 GMT".
+	 * @return Time in milliseconds or -1 if the date is invalid.
+	 */
+	public static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks weather one of the ETags of If-None-Match matches the ETag. The weak
+	 * comparison is used, so "W/" prefixes are ignored.
+	 * 
+	 * @param ifNoneMatch Value of the If-None-Match header.
+	 * @param etag        ETag of the response.
+	 * @return Boolean value weather the ETag matches.
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*"))
+				return true;
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals(etag))
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content negotiation and compression of the responses. A pre-compressed
+ * sibling of a file, e.g. "style.css.gz" for "style.css", is preferred.
+ * Otherwise files of an eligible content type are compressed once and the
+ * compressed bytes are kept in the {@link FileCache} next to the file.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.FileCache
+ * @version 2021-02-19
+ */
+public class Compression {
+	public static final Set<String> DEFAULT_TYPES = Set.of("text/html", "text/css", "text/javascript", "text/plain",
+			"text/csv", "text/markdown", "application/json", "application/xml", "image/svg+xml", "application/wasm");
+
+	private final boolean enabled;
+	private final long minSize;
+	private final Set<String> types;
+
+	/**
+	 * Setting up the compression.
+	 * 
+	 * @param enabled Weather responses are compressed at all.
+	 * @param minSize Minimum size of a file to be compressed.
+	 * @param types   Content types, without parameters, which are compressed.
+	 */
+	public Compression(boolean enabled, long minSize, Set<String> types) {
+		this.enabled = enabled;
+		this.minSize = minSize;
+		this.types = Set.copyOf(types);
+	}
+
+	/**
+	 * Checks weather files of the content type are compressed. Responses of such
+	 * files depend on the Accept-Encoding of the request.
+	 * 
+	 * @param contentType Content type of the file.
+	 * @return Boolean value weather the content type is compressed.
+	 */
+	public boolean isCompressible(String contentType) {
+		return enabled && types.contains(MimeTypes.withoutParameters(contentType));
+	}
+
+	/**
+	 * Choosing the encoding for the response. Gzip is preferred over deflate if
+	 * the client accepts both equally.
+	 * 
+	 * @param request     HttpRequest of the client.
+	 * @param contentType Content type of the file.
+	 * @param size        Size of the file.
+	 * @return Encoding of the response or <code>null</code> if the response isn't
+	 *         compressed.
+	 */
+	public Encoding negotiate(HttpRequest request, String contentType, long size) {
+		if (size < minSize || !isCompressible(contentType) || !request.hasHeader("Accept-Encoding"))
+			return null;
+
+		Encoding best = null;
+		int bestQuality = 0;
+		for (Encoding encoding : Encoding.values()) {
+			int quality = request.getQuality("Accept-Encoding", encoding.token);
+			if (quality < 0)
+				quality = request.getQuality("Accept-Encoding", "*");
+			if (quality > bestQuality) {
+				best = encoding;
+				bestQuality = quality;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Encoding the content of the file. The pre-compressed sibling of the file is
+	 * used if it isn't older than the file.
+	 * 
+	 * @param path         Path of the file.
+	 * @param lastModified Modification time of the file in milliseconds.
+	 * @param content      Content of the file.
+	 * @param encoding     Encoding to be used.
+	 * @return Encoded content or the content itself if compressing doesn't make it
+	 *         smaller.
+	 * @throws IOException Error reading the pre-compressed file.
+	 */
+	public byte[] encode(Path path, long lastModified, byte[] content, Encoding encoding) throws IOException {
+		Path sibling = precompressed(path, lastModified, encoding);
+		byte[] encoded = sibling != null ? Files.readAllBytes(sibling) : compress(content, encoding);
+		return encoded.length < content.length ? encoded : content;
+	}
+
+	/**
+	 * Returning the pre-compressed sibling of the file.
+	 * 
+	 * @param path         Path of the file.
+	 * @param lastModified Modification time of the file in milliseconds.
+	 * @param encoding     Encoding of the sibling.
+	 * @return Path of the sibling or <code>null</code> if there is no up to date
+	 *         sibling.
+	 */
+	public Path precompressed(Path path, long lastModified, Encoding encoding) {
+		if (!enabled || encoding.extension == null)
+			return null;
+		Path sibling = Path.of(path.toString() + encoding.extension);
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(sibling, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+			if (attributes.isRegularFile() && attributes.lastModifiedTime().toMillis() >= lastModified)
+				return sibling;
+		} catch (IOException e) {
+			// no sibling
+		}
+		return null;
+	}
+
+	/**
+	 * Compressing the content.
+	 * 
+	 * @param content  Content to be compressed.
+	 * @param encoding Encoding to be used.
+	 * @return Compressed content.
+	 */
+	public static byte[] compress(byte[] content, Encoding encoding) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 3 + 64);
+		Deflater deflater = encoding == Encoding.GZIP ? null : new Deflater(Deflater.BEST_COMPRESSION);
+		// the content is only compressed once, so the best compression is worth it
+		try (OutputStream out = deflater == null ? new GZIPOutputStream(bytes) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		} : new DeflaterOutputStream(bytes, deflater)) {
+			out.write(content);
+		} catch (IOException e) {
+			throw new IllegalStateException("in-memory compression failed", e);
+		} finally {
+			if (deflater != null)
+				deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Supported content encodings.
+	 * <p>
+	 * "GZIP" with pre-compressed ".gz" files.
+	 * <p>
+	 * "DEFLATE" for clients without gzip support.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum Encoding {
+		GZIP("gzip", ".gz"), DEFLATE("deflate", null);
+
+		final String token;
+		final String extension;
+
+		/**
+		 * Constructor for setting up the encodings.
+		 * 
+		 * @param token     Token of the encoding in the Content-Encoding header.
+		 * @param extension Extension of pre-compressed files or <code>null</code>.
+		 */
+		private Encoding(String token, String extension) {
+			this.token = token;
+			this.extension = extension;
+		}
+
+		/**
+		 * Getter for the token of the encoding.
+		 * 
+		 * @return Token of the encoding in the Content-Encoding header.
+		 */
+		@Override
+		public String toString() {
+			return token;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+/**
+ * Limits for persistent connections and the deadlines protecting the server
+ * against slow clients. A connection waiting for a request is closed after the
+ * idle timeout, once the first byte of a request arrived its header must be
+ * complete within the header timeout, no matter how slowly it trickles in. A
+ * response must be written within the write timeout plus the time needed to
+ * send its body at the minimum rate. A HTTP/2 connection answers at most
+ * {@link #getMaxStreams()} requests at the same time.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.HandleConnection
+ * @see org.benjaminschmitz.tiger.NioConnection
+ * @version 2021-02-19
+ */
+public class ConnectionLimits {
+	private final int maxRequests;
+	private final int idleTimeout;
+	private final int headerTimeout;
+	private final int writeTimeout;
+	private final long minRate;
+	private final int maxStreams;
+
+	/**
+	 * Setting the limits with a header timeout and a write timeout of the idle
+	 * timeout and a minimum rate of 1 KiB/s.
+	 * 
+	 * @param maxRequests Maximum number of requests on one connection. 1 disables
+	 *                    persistent connections.
+	 * @param idleTimeout Milliseconds a connection may wait for the next request.
+	 */
+	public ConnectionLimits(int maxRequests, int idleTimeout) {
+		this(maxRequests, idleTimeout, idleTimeout, idleTimeout, 1024);
+	}
+
+	/**
+	 * Setting the limits with at most 100 concurrent HTTP/2 streams.
+	 * 
+	 * @param maxRequests   Maximum number of requests on one connection. 1
+	 *                      disables persistent connections.
+	 * @param idleTimeout   Milliseconds a connection may wait for the next
+	 *                      request.
+	 * @param headerTimeout Milliseconds from the first byte of a request to its
+	 *                      complete header.
+	 * @param writeTimeout  Milliseconds a response may take to be written, in
+	 *                      addition to the time for its body at the minimum
+	 *                      rate.
+	 * @param minRate       Minimum rate in bytes per second a response body is
+	 *                      sent with. 0 for no allowance for the body.
+	 */
+	public ConnectionLimits(int maxRequests, int idleTimeout, int headerTimeout, int writeTimeout, long minRate) {
+		this(maxRequests, idleTimeout, headerTimeout, writeTimeout, minRate, 100);
+	}
+
+	/**
+	 * Setting the limits.
+	 * 
+	 * @param maxRequests   Maximum number of requests on one connection. 1
+	 *                      disables persistent connections.
+	 * @param idleTimeout   Milliseconds a connection may wait for the next
+	 *                      request.
+	 * @param headerTimeout Milliseconds from the first byte of a request to its
+	 *                      complete header.
+	 * @param writeTimeout  Milliseconds a response may take to be written, in
+	 *                      addition to the time for its body at the minimum
+	 *                      rate.
+	 * @param minRate       Minimum rate in bytes per second a response body is
+	 *                      sent with. 0 for no allowance for the body.
+	 * @param maxStreams    Maximum number of concurrent streams of a HTTP/2
+	 *                      connection. 0 disables HTTP/2.
+	 */
+	public ConnectionLimits(int maxRequests, int idleTimeout, int headerTimeout, int writeTimeout, long minRate,
+			int maxStreams) {
+		if (maxRequests < 1 || idleTimeout < 1 || headerTimeout < 1 || writeTimeout < 1)
+			throw new IllegalArgumentException("limits must be positive");
+		if (minRate < 0 || maxStreams < 0)
+			throw new IllegalArgumentException("minimum rate and streams must not be negative");
+		this.maxRequests = maxRequests;
+		this.idleTimeout = idleTimeout;
+		this.headerTimeout = headerTimeout;
+		this.writeTimeout = writeTimeout;
+		this.minRate = minRate;
+		this.maxStreams = maxStreams;
+	}
+
+	/**
+	 * Getter for the maximum number of requests on one connection.
+	 * 
+	 * @return Maximum number of requests.
+	 */
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	/**
+	 * Getter for the idle timeout.
+	 * 
+	 * @return Milliseconds a connection may wait for the next request.
+	 */
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Getter for the header timeout.
+	 * 
+	 * @return Milliseconds from the first byte of a request to its complete
+	 *         header.
+	 */
+	public int getHeaderTimeout() {
+		return headerTimeout;
+	}
+
+	/**
+	 * Getter for the write timeout.
+	 * 
+	 * @return Milliseconds a response may take in addition to the time for its
+	 *         body at the minimum rate.
+	 */
+	public int getWriteTimeout() {
+		return writeTimeout;
+	}
+
+	/**
+	 * Getter for the minimum rate.
+	 * 
+	 * @return Minimum rate in bytes per second or 0.
+	 */
+	public long getMinRate() {
+		return minRate;
+	}
+
+	/**
+	 * Getter for the maximum number of concurrent HTTP/2 streams.
+	 * 
+	 * @return Maximum number of streams or 0 if HTTP/2 is disabled.
+	 */
+	public int getMaxStreams() {
+		return maxStreams;
+	}
+
+	/**
+	 * Returning the time a response may take to be written.
+	 * 
+	 * @param length Length of the response body.
+	 * @return Milliseconds to write the response.
+	 */
+	public long getWriteTimeout(long length) {
+		if (minRate == 0)
+			return writeTimeout;
+		return writeTimeout + length / minRate * 1000 + length % minRate * 1000 / minRate;
+	}
+
+	/**
+	 * Deadlines of a connection.
+	 * <p>
+	 * "IDLE" while waiting for the first byte of the next request.
+	 * <p>
+	 * "HEADER" while receiving the header of a request.
+	 * <p>
+	 * "WRITE" while writing a response.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum Deadline {
+		IDLE, HEADER, WRITE;
+
+		/**
+		 * Getter for the name used in the metrics.
+		 * 
+		 * @return Lower case name of the deadline.
+		 */
+		public String label() {
+			return name().toLowerCase();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+/**
+ * Current deadline of a connection on a {@link TimerWheel}. The connection
+ * moves the timer from deadline to deadline as it waits for a request,
+ * receives its header and writes the response. When a deadline passes the
+ * connection is closed and counted in the {@link Metrics} by the deadline it
+ * missed. When the server shuts down, the connections waiting for their next
+ * request are closed by their timers at once.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.ConnectionLimits
+ * @version 2021-02-19
+ */
+public class ConnectionTimer extends TimerWheel.Timeout {
+	private final TimerWheel wheel;
+	private final ConnectionLimits limits;
+	private final Metrics metrics;
+	private final Runnable close;
+	private volatile ConnectionLimits.Deadline deadline;
+	private volatile boolean expired;
+	private volatile boolean idle;
+	private volatile boolean draining;
+
+	/**
+	 * Making an unscheduled timer.
+	 * 
+	 * @param wheel   TimerWheel of the connection.
+	 * @param limits  ConnectionLimits with the timeouts.
+	 * @param metrics Metrics counting the missed deadlines.
+	 * @param close   Closing the connection, called by the thread advancing the
+	 *                wheel.
+	 */
+	public ConnectionTimer(TimerWheel wheel, ConnectionLimits limits, Metrics metrics, Runnable close) {
+		this.wheel = wheel;
+		this.limits = limits;
+		this.metrics = metrics;
+		this.close = close;
+	}
+
+	/**
+	 * Scheduling the deadline for the next request. The idle timeout applies
+	 * until the first byte of the request arrived, afterwards the header timeout
+	 * from the first byte on, so a client can't extend it by sending slowly.
+	 * 
+	 * @param started Boolean value weather bytes of the request were received.
+	 */
+	public void awaitRequest(boolean started) {
+		idle = !started;
+		if (!started)
+			schedule(ConnectionLimits.Deadline.IDLE, limits.getIdleTimeout());
+		else if (deadline != ConnectionLimits.Deadline.HEADER)
+			schedule(ConnectionLimits.Deadline.HEADER, limits.getHeaderTimeout());
+	}
+
+	/**
+	 * Marking the connection as busy with a received request, e.g. if its header
+	 * arrived at once. The current deadline stays until the response is written.
+	 */
+	public void received() {
+		idle = false;
+	}
+
+	/**
+	 * Scheduling the deadline for writing a response.
+	 * 
+	 * @param length Length of the response body.
+	 */
+	public void awaitWrite(long length) {
+		idle = false;
+		schedule(ConnectionLimits.Deadline.WRITE, limits.getWriteTimeout(length));
+	}
+
+	/**
+	 * Removing the timer from the wheel, e.g. when the connection is closed.
+	 */
+	public void cancel() {
+		wheel.cancel(this);
+		deadline = null;
+		idle = false;
+	}
+
+	/**
+	 * Telling the connection that the server shuts down. A connection waiting for
+	 * its next request is closed at once, a busy connection is closed after its
+	 * current response.
+	 */
+	public void drain() {
+		draining = true;
+		if (!idle)
+			return;
+		expired = true;
+		close.run();
+	}
+
+	/**
+	 * Draining the connections of all timers on the wheel.
+	 * 
+	 * @param wheel TimerWheel of the connections.
+	 */
+	public static void drainAll(TimerWheel wheel) {
+		for (TimerWheel.Timeout timeout : wheel.getScheduled())
+			if (timeout instanceof ConnectionTimer timer)
+				timer.drain();
+	}
+
+	/**
+	 * Aborting the connections of all timers on the wheel.
+	 * 
+	 * @param wheel TimerWheel of the connections.
+	 */
+	public static void abortAll(TimerWheel wheel) {
+		for (TimerWheel.Timeout timeout : wheel.getScheduled())
+			if (timeout instanceof ConnectionTimer timer)
+				timer.abort();
+	}
+
+	/**
+	 * Closing the connection, as the server doesn't wait for its response
+	 * anymore.
+	 */
+	public void abort() {
+		draining = true;
+		expired = true;
+		close.run();
+	}
+
+	/**
+	 * Checks weather the server shuts down, so the connection must not wait for
+	 * another request.
+	 * 
+	 * @return Boolean value weather the connection is drained.
+	 */
+	public boolean isDraining() {
+		return draining;
+	}
+
+	/**
+	 * Checks weather the connection was closed by the timer, as it missed a
+	 * deadline or the server shut down.
+	 * 
+	 * @return Boolean value weather the timer expired.
+	 */
+	public boolean hasExpired() {
+		return expired;
+	}
+
+	/**
+	 * Scheduling a deadline.
+	 * 
+	 * @param deadline Deadline of the connection.
+	 * @param timeout  Milliseconds from now.
+	 */
+	private void schedule(ConnectionLimits.Deadline deadline, long timeout) {
+		this.deadline = deadline;
+		wheel.schedule(this, TimerWheel.now() + timeout);
+	}
+
+	/**
+	 * Counting the missed deadline and closing the connection.
+	 */
+	@Override
+	protected void expired() {
+		ConnectionLimits.Deadline missed = deadline;
+		if (missed == null)
+			return;
+		expired = true;
+		metrics.connectionTimedOut(missed);
+		close.run();
+	}
+}
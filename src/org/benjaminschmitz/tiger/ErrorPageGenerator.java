@@ -19,9 +19,12 @@ package org.benjaminschmitz.tiger;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Generating the error page for tiger webserver.
+ * Generating the error page for tiger webserver. The pages of all statuses
+ * are generated and encoded once, so a failed request only copies the path
+ * into the encoded page of its status.
  * 
  * @author Benjamin Schmitz
  * @see org.benjaminschmitz.tiger.WebServer
@@ -32,9 +35,14 @@ public class ErrorPageGenerator {
 	private final int port;
 	private final String os;
 	private final String host;
+	private final String footer;
+	private final byte[] encodedFooter;
+	private final String[] pages = new String[HttpStatus.values().length];
+	private final byte[][] encodedPages = new byte[pages.length][];
+	private final byte[][] encodedHeadings = new byte[pages.length][];
 
 	/**
-	 * Setting all the needed values.
+	 * Setting all the needed values and generating the pages of all statuses.
 	 * 
 	 * @param version Version of the webserver.
 	 * @param port    Port of the application.
@@ -55,6 +63,16 @@ public class ErrorPageGenerator {
 			this.host = host;
 		}
 		os = System.getProperty("os.name");
+
+		footer = "</h1><hr><p>tiger/" + escape(this.version) + " (" + escape(os) + ") Server at " + escape(this.host)
+				+ " Port " + this.port + "<p></body></html>";
+		encodedFooter = footer.getBytes(StandardCharsets.UTF_8);
+		for (HttpStatus status : HttpStatus.values()) {
+			String heading = "<html><body><h1>" + status.code + ": " + status.toString();
+			pages[status.ordinal()] = heading + footer;
+			encodedPages[status.ordinal()] = pages[status.ordinal()].getBytes(StandardCharsets.UTF_8);
+			encodedHeadings[status.ordinal()] = (heading + " ").getBytes(StandardCharsets.UTF_8);
+		}
 	}
 
 	/**
@@ -64,8 +82,7 @@ public class ErrorPageGenerator {
 	 * @return HTML error page
 	 */
 	public String errorGenerator(String message) {
-		return "<html><body><h1>Error: " + message + "</h1><hr><p>tiger/" + version + " (" + os + ") Server at " + host
-				+ " Port " + port + "<p></body></html>";
+		return "<html><body><h1>Error: " + escape(message) + footer;
 	}
 
 	/**
@@ -75,8 +92,7 @@ public class ErrorPageGenerator {
 	 * @return HTML error page
 	 */
 	public String errorGenerator(HttpStatus status) {
-		return "<html><body><h1>" + status.code + ": " + status.toString() + "</h1><hr><p>tiger/" + version + " (" + os
-				+ ") Server at " + host + " Port " + port + "<p></body></html>";
+		return pages[status.ordinal()];
 	}
 
 	/**
@@ -87,7 +103,67 @@ public class ErrorPageGenerator {
 	 * @return HTML error page
 	 */
 	public String errorGenerator(HttpStatus status, String path) {
-		return "<html><body><h1>" + status.code + ": " + status.toString() + " " + path + "</h1><hr><p>tiger/" + version
-				+ " (" + os + ") Server at " + host + " Port " + port + "<p></body></html>";
+		return "<html><body><h1>" + status.code + ": " + status.toString() + " " + escape(path) + footer;
+	}
+
+	/**
+	 * Getter for the encoded HTML error page of the HttpStatus. The page is shared
+	 * by all responses and must not be changed.
+	 * 
+	 * @param status HttpStatus of the failed connection.
+	 * @return Encoded HTML error page.
+	 */
+	public byte[] errorPage(HttpStatus status) {
+		return encodedPages[status.ordinal()];
+	}
+
+	/**
+	 * Making the encoded HTML error page for the HttpStatus and the called path.
+	 * Only the escaped path is encoded, the rest of the page is copied.
+	 * 
+	 * @param status HttpStatus of the failed connection.
+	 * @param path   Path of the called file.
+	 * @return Encoded HTML error page.
+	 */
+	public byte[] errorPage(HttpStatus status, String path) {
+		byte[] heading = encodedHeadings[status.ordinal()];
+		byte[] encodedPath = escape(path).getBytes(StandardCharsets.UTF_8);
+		byte[] page = new byte[heading.length + encodedPath.length + encodedFooter.length];
+		System.arraycopy(heading, 0, page, 0, heading.length);
+		System.arraycopy(encodedPath, 0, page, heading.length, encodedPath.length);
+		System.arraycopy(encodedFooter, 0, page, heading.length + encodedPath.length, encodedFooter.length);
+		return page;
+	}
+
+	/**
+	 * Escaping the characters of a text which have a meaning in HTML, so a path
+	 * chosen by the client can't inject markup into the page.
+	 * 
+	 * @param text Text to be escaped.
+	 * @return Text which can be put into HTML.
+	 */
+	public static String escape(String text) {
+		if (text == null)
+			return "";
+		StringBuilder escaped = null;
+		for (int i = 0; i < text.length(); i++) {
+			String replacement = switch (text.charAt(i)) {
+			case '&' -> "&amp;";
+			case '<' -> "&lt;";
+			case '>' -> "&gt;";
+			case '"' -> "&quot;";
+			case '\'' -> "&#39;";
+			default -> null;
+			};
+			if (replacement == null) {
+				if (escaped != null)
+					escaped.append(text.charAt(i));
+				continue;
+			}
+			if (escaped == null)
+				escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+			escaped.append(replacement);
+		}
+		return escaped == null ? text : escaped.toString();
 	}
 }
@@ -0,0 +1,270 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Event loop of the non-blocking engine. Every loop runs on its own thread with
+ * its own {@link Selector} and handles all the connections registered to it,
+ * so a slow client only costs a selection key instead of a thread.
+ * <p>
+ * Requests which can't be answered from the caches are handed to a pool of
+ * workers, as reading a file or compressing it would stall all connections of
+ * the loop. The worker hands the response back to the loop, which writes it.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.NioConnection
+ * @see org.benjaminschmitz.tiger.WebServer
+ * @version 2021-02-19
+ */
+public class EventLoop implements Runnable {
+	private final Logger LOGGER;
+	private final RequestHandler HANDLER;
+	private final ConnectionLimits LIMITS;
+	private final BufferPool BUFFERS;
+	private final AccessLog ACCESS_LOG;
+	private final ExecutorService WORKERS;
+	private final Selector selector;
+	private final TimerWheel timers = new TimerWheel();
+	private final RingBuffer<Pending> pending;
+	private final ArrayDeque<RequestParser> parsers = new ArrayDeque<>();
+	private final ConcurrentLinkedQueue<Runnable> completed = new ConcurrentLinkedQueue<>();
+	private volatile boolean draining;
+
+	/**
+	 * Opening the selector of the loop.
+	 * 
+	 * @param logger    {@link Logger} instance.
+	 * @param handler   {@link RequestHandler} making the responses.
+	 * @param limits    {@link ConnectionLimits} of persistent connections.
+	 * @param buffers   {@link BufferPool} for the requests and responses.
+	 * @param queueSize Maximum number of accepted connections waiting to be
+	 *                  registered.
+	 * @param accessLog {@link AccessLog} of the requests or <code>null</code>.
+	 * @param workers   ExecutorService answering the requests which need the file
+	 *                  system.
+	 * @throws IOException Error opening the selector.
+	 */
+	public EventLoop(Logger logger, RequestHandler handler, ConnectionLimits limits, BufferPool buffers,
+			int queueSize, AccessLog accessLog, ExecutorService workers) throws IOException {
+		LOGGER = logger;
+		HANDLER = handler;
+		LIMITS = limits;
+		BUFFERS = buffers;
+		pending = new RingBuffer<>(queueSize);
+		ACCESS_LOG = accessLog;
+		WORKERS = workers;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Handing an accepted connection over to the loop. The connection is
+	 * registered by the thread of the loop.
+	 * 
+	 * @param channel Accepted connection.
+	 * @return Boolean value weather the connection was queued, <code>false</code>
+	 *         if too many connections are waiting for the loop.
+	 */
+	public boolean register(SocketChannel channel) {
+		HANDLER.getMetrics().queued();
+		if (!pending.offer(new Pending(channel, System.nanoTime()))) {
+			HANDLER.getMetrics().dequeued();
+			return false;
+		}
+		selector.wakeup();
+		return true;
+	}
+
+	/**
+	 * Draining the loop when the server shuts down. The loop closes its idle
+	 * connections, closes the others after their current response and ends when
+	 * all connections are closed.
+	 */
+	public void drain() {
+		draining = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Handing a task back to the loop, e.g. writing a response made by a worker.
+	 * Can be called by any thread.
+	 * 
+	 * @param task Task to be run by the thread of the loop.
+	 */
+	void complete(Runnable task) {
+		completed.offer(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Getter for the workers of the loop.
+	 * 
+	 * @return ExecutorService answering the requests which need the file system.
+	 */
+	ExecutorService getWorkers() {
+		return WORKERS;
+	}
+
+	/**
+	 * Lending a parser to a connection of the loop. The parsers of closed
+	 * connections are reused, so only the peak number of connections costs
+	 * buffers. The buffers of the parsers are taken from the {@link BufferPool},
+	 * so the requests are read into direct buffers.
+	 * 
+	 * @return Empty RequestParser.
+	 */
+	RequestParser takeParser() {
+		RequestParser parser = parsers.poll();
+		return parser != null ? parser : new RequestParser(BUFFERS.acquire(RequestParser.MAX_HEADER_SIZE));
+	}
+
+	/**
+	 * Getter for the timer wheel of the loop. It is advanced by the thread of the
+	 * loop, so the connections are closed by their own loop when they miss a
+	 * deadline.
+	 * 
+	 * @return TimerWheel for the deadlines of the connections.
+	 */
+	TimerWheel getTimers() {
+		return timers;
+	}
+
+	/**
+	 * Getter for the buffer pool of the loop.
+	 * 
+	 * @return BufferPool for the responses.
+	 */
+	BufferPool getBuffers() {
+		return BUFFERS;
+	}
+
+	/**
+	 * Returning the parser of a closed connection.
+	 * 
+	 * @param parser RequestParser which isn't used anymore.
+	 */
+	void releaseParser(RequestParser parser) {
+		parser.reset();
+		parsers.push(parser);
+	}
+
+	/**
+	 * Running the loop until the thread is interrupted or the drained loop has no
+	 * connections left.
+	 */
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				selector.select(timers.getTick());
+			} catch (IOException e) {
+				LOGGER.severe("Error selecting connections.");
+				break;
+			}
+			if (draining && selector.keys().isEmpty() && pending.isEmpty())
+				break;
+			Runnable task;
+			while ((task = completed.poll()) != null)
+				task.run();
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				NioConnection connection = (NioConnection) key.attachment();
+				try {
+					if (key.isReadable())
+						connection.read();
+					if (key.isValid() && key.isWritable())
+						connection.write();
+				} catch (IOException e) {
+					LOGGER.warning("Error handling connection with " + connection.getInetAddress());
+					connection.close();
+				}
+			}
+			// the selected connections read their requests before the idle ones are
+			// closed, and new connections are registered afterwards, so they are
+			// selected once before they are drained
+			if (draining)
+				ConnectionTimer.drainAll(timers);
+			registerPending();
+			timers.advance();
+		}
+
+		for (SelectionKey key : selector.keys())
+			((NioConnection) key.attachment()).close();
+		try {
+			selector.close();
+		} catch (IOException e) {
+			LOGGER.severe("Couldn't close selector.");
+		}
+	}
+
+	/**
+	 * Registering the connections handed over since the last selection.
+	 */
+	private void registerPending() {
+		Pending next;
+		while ((next = pending.poll()) != null) {
+			SocketChannel channel = next.channel;
+			HANDLER.getMetrics().dequeued(System.nanoTime() - next.queued);
+			try {
+				channel.configureBlocking(false);
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				key.attach(new NioConnection(LOGGER, HANDLER, LIMITS, ACCESS_LOG, this, channel, key));
+			} catch (IOException e) {
+				LOGGER.warning("Couldn't register connection.");
+				try {
+					channel.close();
+				} catch (IOException e1) {
+					LOGGER.warning("Couldn't close connection.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Connection waiting to be registered.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Pending {
+		final SocketChannel channel;
+		final long queued;
+
+		/**
+		 * Setting the values of the connection.
+		 * 
+		 * @param channel Accepted connection.
+		 * @param queued  {@link System#nanoTime()} when it was handed over.
+		 */
+		Pending(SocketChannel channel, long queued) {
+			this.channel = channel;
+			this.queued = queued;
+		}
+	}
+}
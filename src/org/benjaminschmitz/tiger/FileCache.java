@@ -0,0 +1,368 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared cache for the content of the files in the web root. The
+ * entries are revalidated against the modification time of the file and the
+ * least recently used entries are evicted if the cache exceeds its size. Next
+ * to the content an entry keeps its compressed variants, which count towards
+ * the size of the cache as well.
+ * <p>
+ * If the web root is watched by a {@link FolderWatcher}, the entries are
+ * trusted without looking at the file until the watcher invalidates them.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.HandleConnection
+ * @version 2021-02-19
+ */
+public class FileCache {
+	private final long maxBytes;
+	private final long maxEntryBytes;
+	private final LinkedHashMap<Path, Entry> entries;
+	private long size;
+	private volatile boolean watched;
+	private long generation;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Initialising the cache. A cache with {@code maxBytes} of 0 doesn't cache
+	 * anything.
+	 * 
+	 * @param maxBytes      Maximum number of bytes held by the cache.
+	 * @param maxEntryBytes Maximum size of a single file to be cached.
+	 */
+	public FileCache(long maxBytes, long maxEntryBytes) {
+		if (maxBytes < 0 || maxEntryBytes < 0)
+			throw new IllegalArgumentException("cache sizes must not be negative");
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+		entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returning the content of the file. The file is read from disk if it isn't
+	 * cached or if it was modified since it was cached. Files larger than the
+	 * maximum entry size aren't read at all, they should be transferred directly
+	 * from the file to the connection.
+	 * 
+	 * @param path Path of the file.
+	 * @return Entry of the file or <code>null</code> if the file is too large to be
+	 *         cached.
+	 * @throws IOException Error reading the file.
+	 */
+	public Entry get(Path path) throws IOException {
+		Entry entry;
+		long generation;
+		synchronized (this) {
+			entry = entries.get(path);
+			generation = this.generation;
+		}
+		if (entry != null && watched) {
+			hits.increment();
+			return entry;
+		}
+
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		if (!attributes.isRegularFile())
+			throw new IOException(path + " is not a file");
+		if (attributes.size() > maxEntryBytes)
+			return null;
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		if (entry != null && entry.lastModified == lastModified && entry.content.length == attributes.size()) {
+			hits.increment();
+			return entry;
+		}
+
+		misses.increment();
+		entry = new Entry(Files.readAllBytes(path), lastModified);
+		if (entry.content.length <= maxEntryBytes)
+			put(path, entry, generation);
+		return entry;
+	}
+
+	/**
+	 * Returning the cached content of the file if it can be trusted without
+	 * looking at the file, i.e. if the web root is watched.
+	 * 
+	 * @param path Path of the file.
+	 * @return Entry of the file or <code>null</code> if the file must be read or
+	 *         checked with {@link #get(Path)}.
+	 */
+	public Entry peek(Path path) {
+		if (!watched)
+			return null;
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+		}
+		if (entry != null)
+			hits.increment();
+		return entry;
+	}
+
+	/**
+	 * Adding a compressed variant to the entry of the file. The variant is only
+	 * kept if the entry is still cached.
+	 * 
+	 * @param path     Path of the file.
+	 * @param entry    Entry of the file.
+	 * @param encoding Encoding of the variant.
+	 * @param variant  Compressed content of the file.
+	 */
+	public synchronized void putVariant(Path path, Entry entry, Compression.Encoding encoding, byte[] variant) {
+		if (entries.get(path) != entry || entry.variants[encoding.ordinal()] != null)
+			return;
+		entry.variants[encoding.ordinal()] = variant;
+		if (variant != entry.content)
+			size += variant.length;
+		evict();
+	}
+
+	/**
+	 * Removing the entries of the file or of all files below the folder from the
+	 * cache. The change of a pre-compressed file like "style.css.gz" removes the
+	 * entry of "style.css", as its variant may come from that file.
+	 * 
+	 * @param path Path of the changed file or folder.
+	 */
+	public synchronized void invalidate(Path path) {
+		generation++;
+		Entry entry = entries.remove(path);
+		if (entry != null)
+			size -= entry.size();
+		String name = path.toString();
+		for (Compression.Encoding encoding : Compression.Encoding.values())
+			if (encoding.extension != null && name.endsWith(encoding.extension))
+				invalidate(Path.of(name.substring(0, name.length() - encoding.extension.length())));
+
+		Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, Entry> below = it.next();
+			if (below.getKey().startsWith(path)) {
+				it.remove();
+				size -= below.getValue().size();
+			}
+		}
+	}
+
+	/**
+	 * Setting weather the web root is watched. The entries of a watched web root
+	 * are returned without checking the modification time of the file, so the
+	 * watcher must {@link #invalidate(Path)} every changed file.
+	 * 
+	 * @param watched Boolean value weather a {@link FolderWatcher} invalidates the
+	 *                entries.
+	 */
+	public void setWatched(boolean watched) {
+		this.watched = watched;
+	}
+
+	/**
+	 * Adding the entry to the cache and evicting the least recently used entries
+	 * until the cache fits into its size. The entry isn't added if a file was
+	 * invalidated since it was read, as it may have been read before the change.
+	 * 
+	 * @param path       Path of the file.
+	 * @param entry      Entry to be added.
+	 * @param generation Number of invalidations before the file was read.
+	 */
+	private synchronized void put(Path path, Entry entry, long generation) {
+		if (watched && generation != this.generation)
+			return;
+		Entry old = entries.put(path, entry);
+		if (old != null)
+			size -= old.size();
+		size += entry.size();
+		evict();
+	}
+
+	/**
+	 * Evicting the least recently used entries until the cache fits into its
+	 * size.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+		while (size > maxBytes && it.hasNext()) {
+			Entry eldest = it.next().getValue();
+			it.remove();
+			size -= eldest.size();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Getter for the number of requests served from the cache.
+	 * 
+	 * @return Number of cache hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Getter for the number of requests read from disk.
+	 * 
+	 * @return Number of cache misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Getter for the number of entries evicted to make room for new entries.
+	 * 
+	 * @return Number of evictions.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Getter for the number of bytes held by the cache.
+	 * 
+	 * @return Size of the cache in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Getter for the number of cached files.
+	 * 
+	 * @return Number of entries.
+	 */
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * Making a string representation of the cache statistics.
+	 * 
+	 * @return String of the cache statistics.
+	 */
+	@Override
+	public String toString() {
+		return "File cache: " + getEntries() + " entries, " + getSize() + "/" + maxBytes + " bytes, " + getHits()
+				+ " hits, " + getMisses() + " misses, " + getEvictions() + " evictions";
+	}
+
+	/**
+	 * Cached content of a file.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public static final class Entry {
+		final byte[] content;
+		final long lastModified;
+		final byte[][] variants = new byte[Compression.Encoding.values().length][];
+		final String[] etags = new String[Compression.Encoding.values().length + 1];
+		final String date;
+
+		/**
+		 * Setting the content and the modification time of the file.
+		 * 
+		 * @param content      Content of the file.
+		 * @param lastModified Modification time of the file in milliseconds.
+		 */
+		Entry(byte[] content, long lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+			etags[0] = CacheControl.etag(content.length, lastModified, null);
+			for (Compression.Encoding encoding : Compression.Encoding.values())
+				etags[encoding.ordinal() + 1] = CacheControl.etag(content.length, lastModified, encoding);
+			date = CacheControl.formatDate(lastModified);
+		}
+
+		/**
+		 * Getter for the content.
+		 * 
+		 * @return Content of the file.
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		/**
+		 * Getter for the modification time.
+		 * 
+		 * @return Modification time of the file in milliseconds.
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Getter for the Last-Modified date.
+		 * 
+		 * @return Modification time of the file as HTTP date.
+		 */
+		public String getLastModifiedDate() {
+			return date;
+		}
+
+		/**
+		 * Getter for the ETag of the content or of a compressed variant.
+		 * 
+		 * @param encoding Encoding of the variant or <code>null</code> for the
+		 *                 content.
+		 * @return Quoted strong ETag.
+		 */
+		public String getETag(Compression.Encoding encoding) {
+			return etags[encoding == null ? 0 : encoding.ordinal() + 1];
+		}
+
+		/**
+		 * Getter for a compressed variant.
+		 * 
+		 * @param encoding Encoding of the variant.
+		 * @return Compressed content, the content itself if compressing doesn't make
+		 *         it smaller or <code>null</code> if it isn't compressed yet.
+		 */
+		public byte[] getVariant(Compression.Encoding encoding) {
+			return variants[encoding.ordinal()];
+		}
+
+		/**
+		 * Returning the number of bytes held by the entry.
+		 * 
+		 * @return Size of the content and the variants.
+		 */
+		long size() {
+			long size = content.length;
+			for (byte[] variant : variants)
+				if (variant != null && variant != content)
+					size += variant.length;
+			return size;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watching the web root for changes with a {@link WatchService}. All folders
+ * of the web root are registered, folders created later as well. A background
+ * thread publishes every created, modified or deleted file or folder to the
+ * listeners, so caches can trust their entries until they are told otherwise
+ * instead of checking the file on every request.
+ * <p>
+ * If the operating system lost events, the web root itself is published, i.e.
+ * everything may have changed. On systems without native file events the
+ * {@link WatchService} polls, so changes may be noticed some seconds later.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.FileCache
+ * @see org.benjaminschmitz.tiger.PathCache
+ * @version 2021-02-19
+ */
+public class FolderWatcher {
+	private final Logger LOGGER;
+	private final Path folder;
+	private final WatchService watcher;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final Thread thread;
+
+	/**
+	 * Registering all folders of the web root. The events are published after
+	 * {@link #start()}.
+	 * 
+	 * @param logger {@link Logger} instance.
+	 * @param folder Web root to be watched.
+	 * @throws IOException Error registering a folder.
+	 */
+	public FolderWatcher(Logger logger, Path folder) throws IOException {
+		LOGGER = logger;
+		this.folder = folder.toAbsolutePath().normalize();
+		watcher = this.folder.getFileSystem().newWatchService();
+		try {
+			registerAll(this.folder);
+		} catch (IOException e) {
+			watcher.close();
+			throw e;
+		}
+		thread = new Thread(this::watch, "tiger-watcher");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Adding a listener for the changes.
+	 * 
+	 * @param listener Listener to be called by the watcher thread.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Starting the watcher thread.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stopping the watcher thread.
+	 */
+	public void close() {
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't close the folder watcher.");
+		}
+	}
+
+	/**
+	 * Waiting for the events and publishing them until the watcher is closed.
+	 */
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = keys.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || dir == null) {
+					LOGGER.warning("Folder events lost, invalidating all cached files.");
+					publish(folder);
+					continue;
+				}
+				Path path = dir.resolve((Path) event.context());
+				if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					try {
+						registerAll(path);
+					} catch (IOException e) {
+						LOGGER.warning("Couldn't watch the new folder " + path);
+					}
+				}
+				publish(path);
+			}
+			if (!key.reset())
+				keys.remove(key);
+		}
+	}
+
+	/**
+	 * Calling the listeners for a change.
+	 * 
+	 * @param path Changed file or folder.
+	 */
+	private void publish(Path path) {
+		for (Listener listener : listeners) {
+			try {
+				listener.changed(path);
+			} catch (RuntimeException e) {
+				LOGGER.warning("Error handling the change of " + path + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Registering the folder and all folders below it.
+	 * 
+	 * @param start Folder to be registered.
+	 * @throws IOException Error registering a folder.
+	 */
+	private void registerAll(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+				keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Listener for the changes of the web root.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		/**
+		 * Handling a change. The file or folder may not exist anymore.
+		 * 
+		 * @param path Absolute path of the changed file or folder. Everything below
+		 *             it may have changed as well.
+		 */
+		void changed(Path path);
+	}
+}
@@ -17,15 +17,11 @@
 
 package org.benjaminschmitz.tiger;
 
-import java.io.BufferedReader;
-import java.io.File;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
 
 /**
@@ -36,118 +32,169 @@ import java.nio.file.Path;
  * @version 2021-02-19
  */
 public class HandleConnection {
-
 	/**
-	 * Handling the connection.
+	 * Handling the connection. The requests of a persistent connection are
+	 * answered in the order they were sent until the client closes the connection,
+	 * the connection misses a deadline or the maximum number of requests is
+	 * reached. The deadlines are kept by the timer wheel, which closes the socket
+	 * of a missed deadline and so ends a blocked read or write. A connection
+	 * starting with the HTTP/2 preface or upgraded with "Upgrade: h2c" is handed
+	 * to a {@link Http2Connection}. When the server shuts down, the current
+	 * response is the last one of the connection.
+	 * <p>
+	 * The requests are read into a buffer of the pool, which is returned when the
+	 * connection is closed, so a thread per connection doesn't cost a buffer per
+	 * thread.
 	 * 
 	 * @param LOGGER    Logger to write toe logs.
 	 * @param s         Socket for the connection.
-	 * @param generator ErrorPageGenerator for the error page.
-	 * @param FOLDER    Folder to see where the files should be.
+	 * @param handler   RequestHandler making the responses.
+	 * @param limits    ConnectionLimits of persistent connections.
+	 * @param buffers   BufferPool for the requests and the responses.
+	 * @param timers    TimerWheel for the deadlines of the connection.
+	 * @param accessLog AccessLog of the requests or <code>null</code>.
 	 */
-	public static void handleConnection(Logger LOGGER, Socket s, ErrorPageGenerator generator, String FOLDER) {
+	public static void handleConnection(Logger LOGGER, Socket s, RequestHandler handler, ConnectionLimits limits,
+			BufferPool buffers, TimerWheel timers, AccessLog accessLog) {
 		LOGGER.info("Incomming connection from " + s.getInetAddress() + " port " + s.getPort());
+		Metrics metrics = handler.getMetrics();
+		long opened = System.nanoTime();
+		metrics.connectionOpened();
 
-		// In-/Outputstream
-		BufferedReader in = null;
-		PrintWriter out = null;
-		try {
-			in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
-			out = new PrintWriter(s.getOutputStream(), true, StandardCharsets.UTF_8);
-		} catch (IOException e) {
-			LOGGER.warning("Couldn't make In-/Outputstream with " + s.getInetAddress());
-			return;
-		}
-
-		// first line of the request
-		String line;
-		try {
-			line = in.readLine();
-		} catch (IOException e) {
-			LOGGER.warning("Error getting input from " + s.getInetAddress());
-			return;
-		}
-
-		final int indexOfFirstSpace;
-		final int indexOfSecondSpace;
-		try {
-			indexOfFirstSpace = line.indexOf(" ");
-			indexOfSecondSpace = line.substring(indexOfFirstSpace + 1, line.length()).indexOf(" ") + 1
-					+ indexOfFirstSpace;
-		} catch (IndexOutOfBoundsException e) {
-			LOGGER.warning("Invalid format from " + s.getInetAddress() + ": " + line);
-			out.println(generator.errorGenerator(HttpStatus.FORBIDDEN));
+		// the requests are read into and the responses are written from pooled
+		// buffers
+		SocketChannel channel = s.getChannel();
+		ConnectionTimer timer = new ConnectionTimer(timers, limits, metrics, () -> close(LOGGER, s));
+		RequestParser parser = new RequestParser(buffers.acquire(RequestParser.MAX_HEADER_SIZE));
+		for (int requests = 1;; requests++) {
+			// header of the next request
+			RequestParser.State state;
 			try {
-				in.close();
-			} catch (IOException e1) {
-				LOGGER.warning("Couldn't close input stream with " + s.getInetAddress());
+				state = readRequest(channel, parser, timer);
+			} catch (IOException e) {
+				if (!timer.hasExpired())
+					LOGGER.warning("Error getting input from " + s.getInetAddress());
+				break;
 			}
-			out.close();
-			return;
-		}
-		String p;
-		try {
-			p = line.substring(indexOfFirstSpace + 2, indexOfSecondSpace);
-		} catch (IndexOutOfBoundsException e) {
-			LOGGER.warning("Invalid format from " + s.getInetAddress() + ": " + line);
-			out.println(generator.errorGenerator(HttpStatus.FORBIDDEN));
-			try {
-				in.close();
-			} catch (IOException e1) {
-				LOGGER.warning("Couldn't close input stream with " + s.getInetAddress());
+			if (state == null)
+				break;
+			if (state == RequestParser.State.INVALID && requests == 1 && limits.getMaxStreams() > 0
+					&& parser.isPreface()) {
+				new Http2Connection(LOGGER, s, handler, limits, buffers, timer, accessLog, opened, parser).run();
+				break;
 			}
-			out.close();
-			return;
-		}
+			timer.received();
+			long parsed = System.nanoTime();
+			if (requests == 1)
+				metrics.parsed(parsed - opened);
 
-		if (p.endsWith(File.separator))
-			p = p + "index.html";
+			HttpResponse response;
+			AccessLog.Record record = null;
+			boolean keepAlive;
+			byte[] upgrade = null;
+			if (state == RequestParser.State.COMPLETE) {
+				HttpRequest request = parser.getRequest();
+				if (limits.getMaxStreams() > 0 && !timer.isDraining())
+					upgrade = Http2Connection.upgradeSettings(request);
+				if (accessLog != null)
+					record = accessLog.start(request, s.getInetAddress());
+				keepAlive = request.isKeepAlive() && requests < limits.getMaxRequests() && !timer.isDraining();
+				response = handler.handle(request, s.getInetAddress());
+				if (keepAlive && request.getVersion().equals(HttpRequest.HTTP_1_0))
+					response.addHeader(HttpResponse.KEEP_ALIVE);
+			} else {
+				if (state == RequestParser.State.TOO_LARGE)
+					LOGGER.warning("Request header too large from " + s.getInetAddress());
+				else
+					LOGGER.warning("Invalid format from " + s.getInetAddress() + ": " + parser.getRequestLine());
+				if (accessLog != null)
+					record = accessLog.start(null, s.getInetAddress());
+				keepAlive = false;
+				response = handler.error(state);
+			}
+			parser.next();
+			if (upgrade != null) {
+				new Http2Connection(LOGGER, s, handler, limits, buffers, timer, accessLog, opened, parser)
+						.upgrade(upgrade, response, record, parsed);
+				break;
+			}
+			if (!keepAlive)
+				response.addHeader(HttpResponse.CLOSE);
+			long ready = System.nanoTime();
 
-		Path path;
-		try {
-			path = relativeUriToPath(Path.of(FOLDER), p);
-		} catch (IllegalArgumentException e) {
-			LOGGER.warning("Invalid format from " + s.getInetAddress() + ": " + line);
-			out.println(generator.errorGenerator(HttpStatus.FORBIDDEN));
 			try {
-				in.close();
-			} catch (IOException e1) {
-				LOGGER.warning("Couldn't close input stream with " + s.getInetAddress());
+				timer.awaitWrite(response.isBodyOmitted() ? 0 : response.getContentLength());
+				response.writeTo(channel, buffers);
+			} catch (IOException e) {
+				if (!timer.hasExpired())
+					LOGGER.warning("Error sending response to " + s.getInetAddress());
+				metrics.requestAborted();
+				break;
 			}
-			out.close();
-			return;
+			metrics.request(response, ready - parsed, System.nanoTime() - parsed);
+			if (record != null)
+				accessLog.log(record, response);
+			if (!keepAlive || timer.isDraining())
+				break;
 		}
 
-		if (Files.isDirectory(path))
-			path = Path.of(path.toString() + File.separator + "index.html");
+		timer.cancel();
+		close(LOGGER, s);
+		buffers.release(parser.getBuffer());
+		metrics.connectionClosed();
+	}
 
-		try {
-			HttpResponse response = new HttpResponse(HttpStatus.OK, Files.readString(path));
-			out.println(response);
-		} catch (Exception e) {
-			LOGGER.warning("Error getting path " + path + " with " + s.getInetAddress());
-			HttpResponse response = new HttpResponse(HttpStatus.OK, generator.errorGenerator(HttpStatus.NOT_FOUND, p));
-			out.println(response);
+	/**
+	 * Reading from the connection until the header of the next request is
+	 * complete. Bytes of pipelined requests stay in the buffer of the parser.
+	 * 
+	 * @param channel SocketChannel of the connection.
+	 * @param parser  RequestParser of the connection.
+	 * @param timer   ConnectionTimer of the connection.
+	 * @return State of the request or <code>null</code> if the client closed the
+	 *         connection.
+	 * @throws IOException Error reading the request.
+	 */
+	private static RequestParser.State readRequest(SocketChannel channel, RequestParser parser,
+			ConnectionTimer timer) throws IOException {
+		RequestParser.State state;
+		while ((state = parser.parse()) == RequestParser.State.INCOMPLETE) {
+			timer.awaitRequest(!parser.isEmpty());
+			if (channel.read(parser.getBuffer()) < 0) {
+				if (parser.isEmpty())
+					return null;
+				throw new EOFException("connection closed within header");
+			}
 		}
+		return state;
+	}
 
+	/**
+	 * Closing the connection.
+	 * 
+	 * @param LOGGER Logger to write the logs.
+	 * @param s      Socket for the connection.
+	 */
+	private static void close(Logger LOGGER, Socket s) {
 		try {
-			in.close();
+			s.close();
 		} catch (IOException e1) {
-			LOGGER.warning("Couldn't close input stream with " + s.getInetAddress());
+			LOGGER.warning("Couldn't close connection with " + s.getInetAddress());
 		}
-		out.close();
 	}
 
 	/**
-	 * Converts relative URI String using the given folder into the file path.
-	 *
+	 * Converts relative URI String using the given folder into the file path. The
+	 * path is normalized before it is checked, so decoded dot segments like
+	 * "%2e%2e" can't leave the folder.
+	 * 
 	 * @param folder                  Path of the 'root' folder.
 	 * @param fileInFolderRelativeUri Relative path from the 'root' folder.
 	 * @return Absolute path of the path.
 	 */
 	public static Path relativeUriToPath(Path folder, String fileInFolderRelativeUri) {
-		Path folderAbs = folder.toAbsolutePath();
-		Path newPath = Path.of(folderAbs.toUri().resolve(URI.create(fileInFolderRelativeUri)));
+		Path folderAbs = folder.toAbsolutePath().normalize();
+		Path newPath = Path.of(folderAbs.toUri().resolve(URI.create(fileInFolderRelativeUri))).normalize();
 		if (!newPath.startsWith(folderAbs))
 			throw new IllegalArgumentException(
 					"file " + fileInFolderRelativeUri + " is not localed in the folder " + folderAbs);
@@ -0,0 +1,581 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Header compression of HTTP/2 (HPACK, RFC 7541). A header field is sent as an
+ * index into the static table, which is shared by all connections, or into the
+ * dynamic table of the connection, which holds the recently sent fields. The
+ * fields which aren't in a table are sent as literals, optionally Huffman coded
+ * and added to the dynamic table, so repeated header fields of the many
+ * responses of a connection only cost a byte or two.
+ * <p>
+ * The names and values are held as ISO-8859-1 strings, so every byte of a field
+ * is one character and the fields reach the request parser unchanged.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.Http2Connection
+ * @version 2021-02-19
+ */
+public final class Hpack {
+	public static final int DEFAULT_TABLE_SIZE = 4096;
+	private static final int ENTRY_OVERHEAD = 32;
+	private static final int EOS = 256;
+
+	private static final String[] STATIC_NAMES = { ":authority", ":method", ":method", ":path", ":path", ":scheme",
+			":scheme", ":status", ":status", ":status", ":status", ":status", ":status", ":status", "accept-charset",
+			"accept-encoding", "accept-language", "accept-ranges", "accept", "access-control-allow-origin", "age",
+			"allow", "authorization", "cache-control", "content-disposition", "content-encoding", "content-language",
+			"content-length", "content-location", "content-range", "content-type", "cookie", "date", "etag", "expect",
+			"expires", "from", "host", "if-match", "if-modified-since", "if-none-match", "if-range",
+			"if-unmodified-since", "last-modified", "link", "location", "max-forwards", "proxy-authenticate",
+			"proxy-authorization", "range", "referer", "refresh", "retry-after", "server", "set-cookie",
+			"strict-transport-security", "transfer-encoding", "user-agent", "vary", "via", "www-authenticate" };
+	private static final String[] STATIC_VALUES = { "", "GET", "POST", "/", "/index.html", "http", "https", "200",
+			"204", "206", "304", "400", "404", "500", "", "gzip, deflate", "", "", "", "", "", "", "", "", "", "", "",
+			"", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "", "",
+			"", "", "", "", "", "", "" };
+	private static final int[] CODES = { 0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6,
+			0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+			0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3, 0xffffff4,
+			0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa,
+			0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18, 0x0, 0x1, 0x2, 0x19, 0x1a,
+			0x1b, 0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60,
+			0x61, 0x62, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+			0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22, 0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+			0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78, 0x79, 0x7a,
+			0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4,
+			0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+			0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc,
+			0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc,
+			0x7fffe8, 0x7fffe9, 0x1fffde, 0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb,
+			0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+			0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1, 0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1,
+			0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5,
+			0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+			0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3,
+			0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef,
+			0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4, 0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+			0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0,
+			0x3ffffee, 0x3fffffff };
+	private static final byte[] LENGTHS = { 13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28,
+			28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5,
+			6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24,
+			24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24,
+			21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26, 26, 20, 19, 22, 23, 22,
+			25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27, 20, 24,
+			20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27,
+			27, 27, 26, 30 };
+	private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+	private static final Map<String, Integer> STATIC_NAMES_INDEX = new HashMap<>();
+	private static final int[] TREE = new int[2 * 256];
+
+	static {
+		for (int i = STATIC_NAMES.length - 1; i >= 0; i--) {
+			STATIC_NAMES_INDEX.put(STATIC_NAMES[i], i + 1);
+			if (!STATIC_VALUES[i].isEmpty())
+				STATIC_FIELDS.put(STATIC_NAMES[i] + '\0' + STATIC_VALUES[i], i + 1);
+		}
+
+		// every node has two children, a positive child is the index of the next
+		// node, a negative child the complement of a symbol and 0 no child yet
+		int nodes = 1;
+		for (int symbol = 0; symbol < CODES.length; symbol++) {
+			int node = 0;
+			for (int bit = LENGTHS[symbol] - 1; bit > 0; bit--) {
+				int child = 2 * node + (CODES[symbol] >>> bit & 1);
+				if (TREE[child] == 0)
+					TREE[child] = nodes++;
+				node = TREE[child];
+			}
+			TREE[2 * node + (CODES[symbol] & 1)] = ~symbol;
+		}
+	}
+
+	/**
+	 * Only static members.
+	 */
+	private Hpack() {
+	}
+
+	/**
+	 * Decoding a Huffman coded string. The last byte must be padded with the
+	 * most significant bits of the end of string code, i.e. with ones.
+	 * 
+	 * @param bytes  Bytes of the header block.
+	 * @param offset Index of the string.
+	 * @param length Length of the coded string.
+	 * @return Decoded string.
+	 * @throws IOException Invalid code or padding.
+	 */
+	static String decodeHuffman(byte[] bytes, int offset, int length) throws IOException {
+		StringBuilder out = new StringBuilder(length * 8 / 5 + 1);
+		int node = 0;
+		int bits = 0;
+		boolean ones = true;
+		for (int i = offset; i < offset + length; i++) {
+			for (int shift = 7; shift >= 0; shift--) {
+				int bit = bytes[i] >>> shift & 1;
+				int next = TREE[2 * node + bit];
+				bits++;
+				ones &= bit == 1;
+				if (next > 0) {
+					node = next;
+					continue;
+				}
+				if (next == 0 || ~next == EOS)
+					throw new IOException("invalid Huffman code");
+				out.append((char) ~next);
+				node = 0;
+				bits = 0;
+				ones = true;
+			}
+		}
+		if (bits > 7 || !ones)
+			throw new IOException("invalid Huffman padding");
+		return out.toString();
+	}
+
+	/**
+	 * Returning the length of a string after Huffman coding.
+	 * 
+	 * @param s String with characters up to 255.
+	 * @return Number of bytes of the coded string.
+	 */
+	static int huffmanLength(String s) {
+		long bits = 0;
+		for (int i = 0; i < s.length(); i++)
+			bits += LENGTHS[s.charAt(i) & 0xff];
+		return (int) ((bits + 7) / 8);
+	}
+
+	/**
+	 * Huffman coding a string. The last byte is padded with ones.
+	 * 
+	 * @param s   String with characters up to 255.
+	 * @param out Stream of the header block.
+	 */
+	static void encodeHuffman(String s, ByteArrayOutputStream out) {
+		long current = 0;
+		int bits = 0;
+		for (int i = 0; i < s.length(); i++) {
+			int symbol = s.charAt(i) & 0xff;
+			current = current << LENGTHS[symbol] | CODES[symbol];
+			bits += LENGTHS[symbol];
+			while (bits >= 8) {
+				bits -= 8;
+				out.write((int) (current >>> bits));
+			}
+		}
+		if (bits > 0)
+			out.write((int) (current << 8 - bits) | 0xff >>> bits);
+	}
+
+	/**
+	 * Writing an integer with a prefix of the given number of bits in the first
+	 * byte. Larger values continue in the following bytes, seven bits each.
+	 * 
+	 * @param out    Stream of the header block.
+	 * @param flags  Bits of the first byte above the prefix.
+	 * @param prefix Number of bits of the prefix.
+	 * @param value  Integer to be written, not negative.
+	 */
+	static void writeInteger(ByteArrayOutputStream out, int flags, int prefix, int value) {
+		int max = (1 << prefix) - 1;
+		if (value < max) {
+			out.write(flags | value);
+			return;
+		}
+		out.write(flags | max);
+		value -= max;
+		while (value >= 0x80) {
+			out.write(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Dynamic table of a connection. The newest field has the index 0, the
+	 * oldest fields are evicted when the size of the table would exceed its
+	 * maximum size. The size of a field is the length of its name and value plus
+	 * 32.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Table {
+		private String[] names = new String[16];
+		private String[] values = new String[16];
+		private int next;
+		private int count;
+		private int size;
+		private int maxSize;
+
+		/**
+		 * Making an empty table.
+		 * 
+		 * @param maxSize Maximum size of the table.
+		 */
+		Table(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		/**
+		 * Adding a field as the newest field. A field larger than the table only
+		 * empties it.
+		 * 
+		 * @param name  Name of the field.
+		 * @param value Value of the field.
+		 */
+		void add(String name, String value) {
+			int entry = name.length() + value.length() + ENTRY_OVERHEAD;
+			evict(maxSize - entry);
+			if (entry > maxSize)
+				return;
+			if (count == names.length)
+				grow();
+			names[next] = name;
+			values[next] = value;
+			next = next + 1 & names.length - 1;
+			count++;
+			size += entry;
+		}
+
+		/**
+		 * Getter for the name of a field.
+		 * 
+		 * @param i Index of the field, 0 for the newest field.
+		 * @return Name of the field.
+		 */
+		String name(int i) {
+			return names[next - 1 - i & names.length - 1];
+		}
+
+		/**
+		 * Getter for the value of a field.
+		 * 
+		 * @param i Index of the field, 0 for the newest field.
+		 * @return Value of the field.
+		 */
+		String value(int i) {
+			return values[next - 1 - i & values.length - 1];
+		}
+
+		/**
+		 * Getter for the number of fields.
+		 * 
+		 * @return Number of fields in the table.
+		 */
+		int count() {
+			return count;
+		}
+
+		/**
+		 * Changing the maximum size of the table, evicting the oldest fields if it
+		 * is exceeded.
+		 * 
+		 * @param maxSize New maximum size.
+		 */
+		void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+			evict(maxSize);
+		}
+
+		/**
+		 * Evicting the oldest fields until the table fits into the given size.
+		 * 
+		 * @param limit Maximum size after the eviction, may be negative.
+		 */
+		private void evict(int limit) {
+			while (count > 0 && size > limit) {
+				int oldest = next - count & names.length - 1;
+				size -= names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD;
+				names[oldest] = null;
+				values[oldest] = null;
+				count--;
+			}
+		}
+
+		/**
+		 * Doubling the capacity of the arrays, keeping the order of the fields.
+		 */
+		private void grow() {
+			String[] n = new String[names.length * 2];
+			String[] v = new String[values.length * 2];
+			for (int i = 0; i < count; i++) {
+				n[count - 1 - i] = name(i);
+				v[count - 1 - i] = value(i);
+			}
+			names = n;
+			values = v;
+			next = count;
+		}
+	}
+
+	/**
+	 * Decoder of the header blocks received on a connection.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public static final class Decoder {
+		private final Table table;
+		private final int maxTableSize;
+		private byte[] block;
+		private int position;
+		private int end;
+
+		/**
+		 * Making a decoder with an empty dynamic table.
+		 * 
+		 * @param maxTableSize Maximum size of the dynamic table the peer may use,
+		 *                     as announced in the settings.
+		 */
+		public Decoder(int maxTableSize) {
+			this.maxTableSize = maxTableSize;
+			table = new Table(maxTableSize);
+		}
+
+		/**
+		 * Decoding a complete header block.
+		 * 
+		 * @param bytes  Bytes of the header block.
+		 * @param offset Index of the header block.
+		 * @param length Length of the header block.
+		 * @param fields Consumer of the name and the value of every field.
+		 * @throws IOException Invalid header block. The dynamic table is broken
+		 *                     afterwards, so the connection must be closed.
+		 */
+		public void decode(byte[] bytes, int offset, int length, BiConsumer<String, String> fields)
+				throws IOException {
+			block = bytes;
+			position = offset;
+			end = offset + length;
+			while (position < end) {
+				int b = block[position] & 0xff;
+				if ((b & 0x80) != 0) {
+					int index = readInteger(7);
+					fields.accept(name(index), value(index));
+				} else if ((b & 0x40) != 0) {
+					int index = readInteger(6);
+					String name = index == 0 ? readString() : name(index);
+					String value = readString();
+					table.add(name, value);
+					fields.accept(name, value);
+				} else if ((b & 0x20) != 0) {
+					int size = readInteger(5);
+					if (size > maxTableSize)
+						throw new IOException("table size exceeds the settings");
+					table.setMaxSize(size);
+				} else {
+					int index = readInteger(4);
+					String name = index == 0 ? readString() : name(index);
+					fields.accept(name, readString());
+				}
+			}
+			block = null;
+		}
+
+		/**
+		 * Reading an integer with a prefix of the given number of bits.
+		 * 
+		 * @param prefix Number of bits of the prefix in the first byte.
+		 * @return Integer up to 2^28.
+		 * @throws IOException The integer is truncated or too large.
+		 */
+		private int readInteger(int prefix) throws IOException {
+			int max = (1 << prefix) - 1;
+			int value = block[position++] & max;
+			if (value < max)
+				return value;
+			for (int shift = 0; shift <= 21; shift += 7) {
+				if (position >= end)
+					break;
+				int b = block[position++] & 0xff;
+				value += (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IOException("invalid integer");
+		}
+
+		/**
+		 * Reading a string literal, which is Huffman coded if the first bit is set.
+		 * 
+		 * @return String of the literal.
+		 * @throws IOException The literal is truncated or invalid.
+		 */
+		private String readString() throws IOException {
+			if (position >= end)
+				throw new IOException("missing string");
+			boolean huffman = (block[position] & 0x80) != 0;
+			int length = readInteger(7);
+			if (length > end - position)
+				throw new IOException("truncated string");
+			String s = huffman ? decodeHuffman(block, position, length)
+					: new String(block, position, length, StandardCharsets.ISO_8859_1);
+			position += length;
+			return s;
+		}
+
+		/**
+		 * Getter for the name of an indexed field.
+		 * 
+		 * @param index Index of the field, 1 to 61 for the static table.
+		 * @return Name of the field.
+		 * @throws IOException The index isn't in a table.
+		 */
+		private String name(int index) throws IOException {
+			if (index >= 1 && index <= STATIC_NAMES.length)
+				return STATIC_NAMES[index - 1];
+			return table.name(dynamic(index));
+		}
+
+		/**
+		 * Getter for the value of an indexed field.
+		 * 
+		 * @param index Index of the field, 1 to 61 for the static table.
+		 * @return Value of the field.
+		 * @throws IOException The index isn't in a table.
+		 */
+		private String value(int index) throws IOException {
+			if (index >= 1 && index <= STATIC_VALUES.length)
+				return STATIC_VALUES[index - 1];
+			return table.value(dynamic(index));
+		}
+
+		/**
+		 * Converting an index to an index of the dynamic table.
+		 * 
+		 * @param index Index after the static table.
+		 * @return Index of the dynamic table.
+		 * @throws IOException The index isn't in the dynamic table.
+		 */
+		private int dynamic(int index) throws IOException {
+			int i = index - STATIC_NAMES.length - 1;
+			if (index == 0 || i >= table.count())
+				throw new IOException("invalid index " + index);
+			return i;
+		}
+	}
+
+	/**
+	 * Encoder of the header blocks sent on a connection. Fields are added to the
+	 * dynamic table if the caller expects them to be repeated, values like the
+	 * length of a body are sent without indexing, so they don't evict the
+	 * repeated fields. Literals are Huffman coded if it makes them shorter.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public static final class Encoder {
+		private final Table table = new Table(DEFAULT_TABLE_SIZE);
+		private int maxTableSize = DEFAULT_TABLE_SIZE;
+		private int update = -1;
+
+		/**
+		 * Limiting the dynamic table to the size announced in the settings of the
+		 * peer. The change is signalled at the start of the next header block.
+		 * 
+		 * @param size Maximum size of the dynamic table of the peer.
+		 */
+		public void setMaxTableSize(int size) {
+			size = Math.min(size, DEFAULT_TABLE_SIZE);
+			if (size == maxTableSize)
+				return;
+			maxTableSize = size;
+			table.setMaxSize(size);
+			update = size;
+		}
+
+		/**
+		 * Starting a header block.
+		 * 
+		 * @param out Stream of the header block.
+		 */
+		public void begin(ByteArrayOutputStream out) {
+			if (update < 0)
+				return;
+			writeInteger(out, 0x20, 5, update);
+			update = -1;
+		}
+
+		/**
+		 * Encoding a header field.
+		 * 
+		 * @param out   Stream of the header block.
+		 * @param name  Lower case name of the field.
+		 * @param value Value of the field.
+		 * @param index Weather the field is added to the dynamic table.
+		 */
+		public void encode(ByteArrayOutputStream out, String name, String value, boolean index) {
+			Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+			Integer named = STATIC_NAMES_INDEX.get(name);
+			int nameIndex = named == null ? 0 : named;
+			for (int i = 0; exact == null && i < table.count(); i++) {
+				if (!table.name(i).equals(name))
+					continue;
+				if (table.value(i).equals(value))
+					exact = STATIC_NAMES.length + 1 + i;
+				else if (nameIndex == 0)
+					nameIndex = STATIC_NAMES.length + 1 + i;
+			}
+			if (exact != null) {
+				writeInteger(out, 0x80, 7, exact);
+				return;
+			}
+
+			if (index)
+				writeInteger(out, 0x40, 6, nameIndex);
+			else
+				writeInteger(out, 0x00, 4, nameIndex);
+			if (nameIndex == 0)
+				writeString(out, name);
+			writeString(out, value);
+			if (index)
+				table.add(name, value);
+		}
+
+		/**
+		 * Writing a string literal, Huffman coded if it is shorter.
+		 * 
+		 * @param out Stream of the header block.
+		 * @param s   String with characters up to 255.
+		 */
+		private static void writeString(ByteArrayOutputStream out, String s) {
+			int huffman = huffmanLength(s);
+			if (huffman < s.length()) {
+				writeInteger(out, 0x80, 7, huffman);
+				encodeHuffman(s, out);
+			} else {
+				writeInteger(out, 0x00, 7, s.length());
+				out.writeBytes(s.getBytes(StandardCharsets.ISO_8859_1));
+			}
+		}
+	}
+}
@@ -0,0 +1,1147 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HTTP/2 connection without TLS, started by a client which knows that the
+ * server speaks HTTP/2 or by a HTTP/1.1 request with "Upgrade: h2c". The
+ * requests of many streams are answered over the one connection at the same
+ * time: the header of a response is sent as soon as its request is complete
+ * and the bodies are sent in DATA frames of the streams in turn, as far as the
+ * flow control windows of the client allow.
+ * <p>
+ * The connection is handled by a single thread, which reads the next frame
+ * while the client sends frames or while no body can be sent and sends the
+ * next DATA frame otherwise, so nothing is shared between threads. A request is
+ * given to the parser as a HTTP/1.1 header and answered by the
+ * {@link RequestHandler} like any other request. Bodies of requests are
+ * discarded, as in HTTP/1.1. When the server shuts down, a GOAWAY frame ends
+ * the connection after the open streams.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.Hpack
+ * @version 2021-02-19
+ */
+public class Http2Connection {
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\n"
+			+ "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	private static final int FRAME_HEADER = 9;
+	private static final int MAX_FRAME_SIZE = 16384;
+	private static final int MAX_HEADER_BLOCK = 65536;
+	private static final int DEFAULT_WINDOW = 65535;
+	// header fields which only concern a HTTP/1.1 connection
+	private static final Set<String> CONNECTION_FIELDS = Set.of("connection", "keep-alive", "proxy-connection",
+			"transfer-encoding", "upgrade");
+	// header fields which differ for every response and would only evict others
+	private static final Set<String> UNINDEXED_FIELDS = Set.of("content-length", "content-range", "etag",
+			"last-modified", "location");
+
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int PRIORITY = 0x2;
+	private static final int RST_STREAM = 0x3;
+	private static final int SETTINGS = 0x4;
+	private static final int PUSH_PROMISE = 0x5;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION = 0x9;
+
+	private static final int END_STREAM = 0x1;
+	private static final int ACK = 0x1;
+	private static final int END_HEADERS = 0x4;
+	private static final int PADDED = 0x8;
+	private static final int PRIORITY_FLAG = 0x20;
+
+	private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	private static final int SETTINGS_ENABLE_PUSH = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	private static final int NO_ERROR = 0x0;
+	private static final int PROTOCOL_ERROR = 0x1;
+	private static final int FLOW_CONTROL_ERROR = 0x3;
+	private static final int STREAM_CLOSED = 0x5;
+	private static final int FRAME_SIZE_ERROR = 0x6;
+	private static final int REFUSED_STREAM = 0x7;
+	private static final int COMPRESSION_ERROR = 0x9;
+	private static final int ENHANCE_YOUR_CALM = 0xb;
+
+	private final Logger LOGGER;
+	private final Socket s;
+	private final InetAddress address;
+	private final RequestHandler HANDLER;
+	private final ConnectionLimits LIMITS;
+	private final BufferPool BUFFERS;
+	private final AccessLog ACCESS_LOG;
+	private final ConnectionTimer timer;
+	private final RequestParser parser;
+	private final Metrics metrics;
+	private final long opened;
+	private InputStream in;
+	private SocketChannel channel;
+
+	// received bytes, a whole frame fits in
+	private final byte[] input = new byte[FRAME_HEADER + MAX_FRAME_SIZE];
+	private int start;
+	private int end;
+	private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER);
+	private final ByteBuffer[] frame = { frameHeader, null };
+
+	private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+	private final Hpack.Encoder encoder = new Hpack.Encoder();
+	private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream(256);
+	private final List<String> fields = new ArrayList<>();
+	private byte[] block = new byte[1024];
+	private int blockLength;
+	private int blockStream;
+	private boolean blockEndStream;
+
+	// streams with a body left to send and the streams of them whose window is open
+	private final Map<Integer, Stream> streams = new HashMap<>();
+	private final ArrayDeque<Stream> sending = new ArrayDeque<>();
+	// recently closed streams and weather the server reset them
+	private final Map<Integer, Boolean> closed;
+	private int lastStream;
+	private int requests;
+	private boolean goingAway;
+	private long window = DEFAULT_WINDOW;
+	private int initialWindow = DEFAULT_WINDOW;
+	private int maxFrameSize = MAX_FRAME_SIZE;
+
+	/**
+	 * Taking over the connection. The bytes received after the last HTTP/1.1
+	 * request are taken from the buffer of the parser.
+	 * 
+	 * @param LOGGER    Logger to write the logs.
+	 * @param s         Socket for the connection.
+	 * @param handler   RequestHandler making the responses.
+	 * @param limits    ConnectionLimits of the connection.
+	 * @param buffers   BufferPool for reading the bodies from files.
+	 * @param timer     ConnectionTimer of the connection.
+	 * @param accessLog AccessLog of the requests or <code>null</code>.
+	 * @param opened    Nanoseconds when the connection was accepted.
+	 * @param parser    RequestParser of the connection, which is used for the
+	 *                  requests of the streams from now on.
+	 */
+	public Http2Connection(Logger LOGGER, Socket s, RequestHandler handler, ConnectionLimits limits,
+			BufferPool buffers, ConnectionTimer timer, AccessLog accessLog, long opened, RequestParser parser) {
+		this.LOGGER = LOGGER;
+		this.s = s;
+		address = s.getInetAddress();
+		HANDLER = handler;
+		LIMITS = limits;
+		BUFFERS = buffers;
+		ACCESS_LOG = accessLog;
+		this.timer = timer;
+		this.parser = parser;
+		metrics = handler.getMetrics();
+		this.opened = opened;
+		int remembered = Math.max(limits.getMaxStreams(), 1);
+		closed = new LinkedHashMap<>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+				return size() > remembered;
+			}
+		};
+
+		ByteBuffer received = parser.getBuffer();
+		end = received.position();
+		received.get(0, input, 0, end);
+		parser.reset();
+	}
+
+	/**
+	 * Returning the settings of a HTTP/1.1 request asking to upgrade the
+	 * connection to HTTP/2. A request with a body isn't upgraded, as the body
+	 * would have to be read first.
+	 * 
+	 * @param request HttpRequest of the client.
+	 * @return Payload of the SETTINGS frame in the HTTP2-Settings header or
+	 *         <code>null</code> if the connection isn't upgraded.
+	 */
+	public static byte[] upgradeSettings(HttpRequest request) {
+		String settings = request.getHeader("HTTP2-Settings");
+		if (settings == null || !request.getVersion().equals(HttpRequest.HTTP_1_1)
+				|| !request.hasToken("Upgrade", "h2c") || request.hasBody())
+			return null;
+		try {
+			byte[] payload = Base64.getUrlDecoder().decode(settings.trim());
+			return payload.length % 6 == 0 ? payload : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Serving a connection which started with the connection preface.
+	 */
+	public void run() {
+		serve(null, null);
+	}
+
+	/**
+	 * Switching a HTTP/1.1 connection to HTTP/2. The response to the upgraded
+	 * request is sent on stream 1.
+	 * 
+	 * @param settings Payload of the SETTINGS frame in the HTTP2-Settings header.
+	 * @param response HttpResponse of the upgraded request.
+	 * @param record   Record of the upgraded request in the access log or
+	 *                 <code>null</code>.
+	 * @param parsed   Nanoseconds when the header of the request was parsed.
+	 */
+	public void upgrade(byte[] settings, HttpResponse response, AccessLog.Record record, long parsed) {
+		Stream stream = new Stream(1, response, record, parsed, DEFAULT_WINDOW);
+		stream.remoteClosed = true;
+		lastStream = 1;
+		requests = 1;
+		serve(settings, stream);
+	}
+
+	/**
+	 * Exchanging the frames until the connection is closed or all streams are
+	 * done after a GOAWAY frame. A connection error is answered with a GOAWAY
+	 * frame.
+	 * 
+	 * @param settings Settings of an upgraded connection or <code>null</code>.
+	 * @param upgraded Stream of the upgraded request or <code>null</code>.
+	 */
+	private void serve(byte[] settings, Stream upgraded) {
+		try {
+			in = s.getInputStream();
+			channel = s.getChannel();
+			if (settings != null) {
+				write(ByteBuffer.wrap(SWITCHING_PROTOCOLS));
+				applySettings(settings, 0, settings.length);
+			}
+			writeSettings();
+			if (upgraded != null) {
+				upgraded.window = initialWindow;
+				respond(upgraded);
+			}
+			readPreface();
+
+			while (!goingAway || !streams.isEmpty()) {
+				if (!goingAway && timer.isDraining())
+					writeGoAway(NO_ERROR);
+				boolean send = window > 0 && !sending.isEmpty();
+				if (!send || available() > 0) {
+					if (!send && end - start < FRAME_HEADER) {
+						if (streams.isEmpty())
+							timer.awaitRequest(false);
+						else
+							timer.awaitWrite(0);
+					}
+					if (!readFrame())
+						break;
+				} else {
+					Stream stream = sending.poll();
+					stream.queued = false;
+					if (stream.window > 0)
+						sendData(stream);
+				}
+			}
+		} catch (Http2Exception e) {
+			LOGGER.warning("HTTP/2 error from " + address + ": " + e.getMessage());
+			try {
+				writeGoAway(e.error);
+			} catch (IOException e1) {
+				// the connection is closed anyway
+			}
+		} catch (IOException e) {
+			if (!timer.hasExpired())
+				LOGGER.warning("Error on HTTP/2 connection with " + address);
+		} finally {
+			for (Stream stream : streams.values()) {
+				release(stream);
+				metrics.requestAborted();
+			}
+			streams.clear();
+		}
+	}
+
+	/**
+	 * Reading the connection preface of the client.
+	 * 
+	 * @throws IOException Error reading or an invalid preface.
+	 */
+	private void readPreface() throws IOException {
+		timer.awaitRequest(end > 0);
+		if (!fill(PREFACE.length))
+			throw new EOFException("connection closed before the preface");
+		for (int i = 0; i < PREFACE.length; i++)
+			if (input[start + i] != PREFACE[i])
+				throw new Http2Exception(PROTOCOL_ERROR, "invalid connection preface");
+		start += PREFACE.length;
+	}
+
+	/**
+	 * Returning the number of bytes which can be read without blocking.
+	 * 
+	 * @return Number of received bytes.
+	 * @throws IOException Error of the socket.
+	 */
+	private int available() throws IOException {
+		return end - start + in.available();
+	}
+
+	/**
+	 * Reading until the given number of bytes is in the buffer.
+	 * 
+	 * @param n Number of bytes from the start of the buffer.
+	 * @return Boolean value weather the bytes were read, <code>false</code> if
+	 *         the client closed the connection before sending anything.
+	 * @throws IOException Error reading or the connection was closed within the
+	 *                     bytes.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (start + n > input.length) {
+			System.arraycopy(input, start, input, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		while (end - start < n) {
+			int read = in.read(input, end, input.length - end);
+			if (read < 0) {
+				if (end == start)
+					return false;
+				throw new EOFException("connection closed within a frame");
+			}
+			end += read;
+		}
+		return true;
+	}
+
+	/**
+	 * Reading an int in network byte order from the buffer.
+	 * 
+	 * @param bytes  Bytes of the int.
+	 * @param offset Index of the int.
+	 * @return Value of the int.
+	 */
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+				| bytes[offset + 3] & 0xff;
+	}
+
+	/**
+	 * Reading and handling the next frame.
+	 * 
+	 * @return Boolean value weather a frame was read, <code>false</code> if the
+	 *         client closed the connection.
+	 * @throws IOException Error reading or writing or a connection error.
+	 */
+	private boolean readFrame() throws IOException {
+		if (!fill(FRAME_HEADER))
+			return false;
+		int length = (input[start] & 0xff) << 16 | (input[start + 1] & 0xff) << 8 | input[start + 2] & 0xff;
+		int type = input[start + 3] & 0xff;
+		int flags = input[start + 4] & 0xff;
+		int id = readInt(input, start + 5) & 0x7fffffff;
+		if (length > MAX_FRAME_SIZE)
+			throw new Http2Exception(FRAME_SIZE_ERROR, "frame of " + length + " bytes");
+		if (!fill(FRAME_HEADER + length))
+			throw new EOFException("connection closed within a frame");
+		int payload = start + FRAME_HEADER;
+		start = payload + length;
+		if (blockStream != 0 && type != CONTINUATION)
+			throw new Http2Exception(PROTOCOL_ERROR, "header block interrupted");
+
+		switch (type) {
+		case DATA -> data(id, flags, length);
+		case HEADERS -> headers(id, flags, payload, length);
+		case CONTINUATION -> continuation(id, flags, payload, length);
+		case PRIORITY -> {
+			if (length != 5)
+				throw new Http2Exception(FRAME_SIZE_ERROR, "PRIORITY frame of " + length + " bytes");
+		}
+		case RST_STREAM -> {
+			if (length != 4)
+				throw new Http2Exception(FRAME_SIZE_ERROR, "RST_STREAM frame of " + length + " bytes");
+			Stream stream = streams.remove(id);
+			if (stream != null) {
+				sending.remove(stream);
+				release(stream);
+				metrics.requestAborted();
+				closed.put(id, false);
+			}
+		}
+		case SETTINGS -> {
+			if (id != 0)
+				throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS frame on a stream");
+			if ((flags & ACK) != 0)
+				break;
+			if (length % 6 != 0)
+				throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS frame of " + length + " bytes");
+			applySettings(input, payload, length);
+			writeFrame(SETTINGS, ACK, 0, null);
+		}
+		case PING -> {
+			if (length != 8)
+				throw new Http2Exception(FRAME_SIZE_ERROR, "PING frame of " + length + " bytes");
+			if ((flags & ACK) == 0)
+				writeFrame(PING, ACK, 0, ByteBuffer.wrap(input, payload, length));
+		}
+		case GOAWAY -> goingAway = true;
+		case WINDOW_UPDATE -> {
+			if (length != 4)
+				throw new Http2Exception(FRAME_SIZE_ERROR, "WINDOW_UPDATE frame of " + length + " bytes");
+			windowUpdate(id, readInt(input, payload) & 0x7fffffff);
+		}
+		case PUSH_PROMISE -> throw new Http2Exception(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+		default -> {
+			// unknown frames are ignored
+		}
+		}
+		return true;
+	}
+
+	/**
+	 * Discarding the body of a request and giving the flow control window back to
+	 * the client.
+	 * 
+	 * @param id     Identifier of the stream.
+	 * @param flags  Flags of the frame.
+	 * @param length Length of the frame.
+	 * @throws IOException Error writing or a DATA frame of an idle stream.
+	 */
+	private void data(int id, int flags, int length) throws IOException {
+		if (id == 0 || id > lastStream)
+			throw new Http2Exception(PROTOCOL_ERROR, "DATA frame of an idle stream");
+		if (length > 0)
+			writeWindowUpdate(0, length);
+		Stream stream = streams.get(id);
+		if (stream == null)
+			return;
+		if ((flags & END_STREAM) != 0)
+			stream.remoteClosed = true;
+		else if (length > 0)
+			writeWindowUpdate(id, length);
+	}
+
+	/**
+	 * Starting a header block with a HEADERS frame.
+	 * 
+	 * @param id      Identifier of the stream.
+	 * @param flags   Flags of the frame.
+	 * @param payload Index of the payload.
+	 * @param length  Length of the payload.
+	 * @throws IOException Error writing or an invalid frame.
+	 */
+	private void headers(int id, int flags, int payload, int length) throws IOException {
+		if (id == 0 || id % 2 == 0)
+			throw new Http2Exception(PROTOCOL_ERROR, "HEADERS frame of stream " + id);
+		int offset = payload;
+		int fragment = length;
+		if ((flags & PADDED) != 0 && length > 0) {
+			offset++;
+			fragment -= 1 + (input[payload] & 0xff);
+		}
+		if ((flags & PRIORITY_FLAG) != 0) {
+			offset += 5;
+			fragment -= 5;
+		}
+		if (fragment < 0)
+			throw new Http2Exception(PROTOCOL_ERROR, "HEADERS frame with too much padding");
+		blockLength = 0;
+		blockStream = id;
+		blockEndStream = (flags & END_STREAM) != 0;
+		appendBlock(offset, fragment);
+		if ((flags & END_HEADERS) != 0)
+			endHeaders();
+	}
+
+	/**
+	 * Continuing a header block with a CONTINUATION frame.
+	 * 
+	 * @param id      Identifier of the stream.
+	 * @param flags   Flags of the frame.
+	 * @param payload Index of the payload.
+	 * @param length  Length of the payload.
+	 * @throws IOException Error writing or an invalid frame.
+	 */
+	private void continuation(int id, int flags, int payload, int length) throws IOException {
+		if (blockStream == 0 || id != blockStream)
+			throw new Http2Exception(PROTOCOL_ERROR, "unexpected CONTINUATION frame");
+		appendBlock(payload, length);
+		if ((flags & END_HEADERS) != 0)
+			endHeaders();
+	}
+
+	/**
+	 * Appending a fragment of a frame to the header block.
+	 * 
+	 * @param offset Index of the fragment.
+	 * @param length Length of the fragment.
+	 * @throws Http2Exception The header block is larger than
+	 *                        {@link #MAX_HEADER_BLOCK}.
+	 */
+	private void appendBlock(int offset, int length) throws Http2Exception {
+		if (blockLength + length > MAX_HEADER_BLOCK)
+			throw new Http2Exception(ENHANCE_YOUR_CALM, "header block too large");
+		if (blockLength + length > block.length)
+			block = Arrays.copyOf(block, Math.max(2 * block.length, blockLength + length));
+		System.arraycopy(input, offset, block, blockLength, length);
+		blockLength += length;
+	}
+
+	/**
+	 * Handling a complete header block. The block is always decoded, as it may
+	 * change the dynamic table. A new stream is answered unless too many streams
+	 * are open. The trailers of a request are only taken on an open stream with
+	 * END_STREAM, a block of a stream which isn't new is a connection error,
+	 * unless the server reset the stream and the block was sent before the reset.
+	 * 
+	 * @throws IOException Error writing or a connection error.
+	 */
+	private void endHeaders() throws IOException {
+		int id = blockStream;
+		blockStream = 0;
+		fields.clear();
+		try {
+			decoder.decode(block, 0, blockLength, (name, value) -> {
+				fields.add(name);
+				fields.add(value);
+			});
+		} catch (IOException e) {
+			throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+		}
+
+		if (id <= lastStream) {
+			Stream stream = streams.get(id);
+			if (stream == null) {
+				Boolean reset = closed.get(id);
+				if (reset == null)
+					throw new Http2Exception(PROTOCOL_ERROR, "HEADERS frame of stream " + id + " which isn't new");
+				if (!reset)
+					throw new Http2Exception(STREAM_CLOSED, "HEADERS frame of closed stream " + id);
+			} else if (stream.remoteClosed) {
+				reset(stream, STREAM_CLOSED);
+			} else if (!blockEndStream) {
+				reset(stream, PROTOCOL_ERROR);
+			} else {
+				stream.remoteClosed = true;
+			}
+			return;
+		}
+		lastStream = id;
+		if (goingAway) {
+			closed.put(id, true);
+			return;
+		}
+		if (streams.size() >= LIMITS.getMaxStreams()) {
+			closed.put(id, true);
+			writeReset(id, REFUSED_STREAM);
+			return;
+		}
+
+		RequestParser.State state = putRequest();
+		if (state == null) {
+			LOGGER.warning("Malformed HTTP/2 request from " + address);
+			closed.put(id, true);
+			writeReset(id, PROTOCOL_ERROR);
+			return;
+		}
+		requests++;
+		timer.received();
+		long parsed = System.nanoTime();
+		if (requests == 1)
+			metrics.parsed(parsed - opened);
+
+		HttpResponse response;
+		AccessLog.Record record = null;
+		if (state == RequestParser.State.COMPLETE) {
+			HttpRequest request = parser.getRequest();
+			request.setHttp2();
+			if (ACCESS_LOG != null)
+				record = ACCESS_LOG.start(request, address);
+			response = HANDLER.handle(request, address);
+		} else {
+			if (state == RequestParser.State.TOO_LARGE)
+				LOGGER.warning("Request header too large from " + address);
+			else
+				LOGGER.warning("Invalid format from " + address + ": " + parser.getRequestLine());
+			if (ACCESS_LOG != null)
+				record = ACCESS_LOG.start(null, address);
+			response = HANDLER.error(state);
+		}
+		parser.reset();
+
+		Stream stream = new Stream(id, response, record, parsed, initialWindow);
+		stream.remoteClosed = blockEndStream;
+		if (requests >= LIMITS.getMaxRequests())
+			writeGoAway(NO_ERROR);
+		respond(stream);
+	}
+
+	/**
+	 * Putting the decoded fields as a HTTP/1.1 header into the buffer of the
+	 * parser and parsing it. The pseudo-header fields make up the request line
+	 * and the Host field, header fields of a HTTP/1.1 connection are dropped.
+	 * 
+	 * @return State of the parsed request or <code>null</code> if the fields
+	 *         don't make up a valid request.
+	 */
+	private RequestParser.State putRequest() {
+		String method = null;
+		String path = null;
+		String authority = null;
+		boolean host = false;
+		for (int i = 0; i < fields.size(); i += 2) {
+			String name = fields.get(i);
+			String value = fields.get(i + 1);
+			if (!isValid(name) || !isValid(value))
+				return null;
+			if (name.equals(":method"))
+				method = value;
+			else if (name.equals(":path"))
+				path = value;
+			else if (name.equals(":authority"))
+				authority = value;
+			else if (name.equals("host"))
+				host = true;
+			else if (name.startsWith(":") && !name.equals(":scheme"))
+				return null;
+		}
+		if (method == null || path == null || path.isEmpty())
+			return null;
+
+		ByteBuffer buffer = parser.getBuffer();
+		parser.reset();
+		boolean fits = put(buffer, method) && put(buffer, " ") && put(buffer, path) && put(buffer, " HTTP/1.1\r\n");
+		if (!host && authority != null)
+			fits = fits && put(buffer, "host: ") && put(buffer, authority) && put(buffer, "\r\n");
+		for (int i = 0; fits && i < fields.size(); i += 2) {
+			String name = fields.get(i);
+			if (name.startsWith(":") || CONNECTION_FIELDS.contains(name))
+				continue;
+			fits = put(buffer, name) && put(buffer, ": ") && put(buffer, fields.get(i + 1)) && put(buffer, "\r\n");
+		}
+		if (!fits || !put(buffer, "\r\n"))
+			return RequestParser.State.TOO_LARGE;
+		return parser.parse();
+	}
+
+	/**
+	 * Checks weather a name or value of a field can be put into a HTTP/1.1
+	 * header.
+	 * 
+	 * @param s Name or value of the field.
+	 * @return Boolean value weather there is no line break or NUL in it.
+	 */
+	private static boolean isValid(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\r' || c == '\n' || c == '\0')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Putting an ISO-8859-1 string into a buffer.
+	 * 
+	 * @param buffer Buffer of the parser.
+	 * @param s      String to be put.
+	 * @return Boolean value weather the string fitted into the buffer.
+	 */
+	private static boolean put(ByteBuffer buffer, String s) {
+		if (buffer.remaining() < s.length())
+			return false;
+		for (int i = 0; i < s.length(); i++)
+			buffer.put((byte) s.charAt(i));
+		return true;
+	}
+
+	/**
+	 * Applying the settings of the client.
+	 * 
+	 * @param bytes  Bytes of the settings.
+	 * @param offset Index of the settings.
+	 * @param length Length of the settings, a multiple of 6.
+	 * @throws Http2Exception Invalid setting.
+	 */
+	private void applySettings(byte[] bytes, int offset, int length) throws Http2Exception {
+		for (int i = offset; i < offset + length; i += 6) {
+			int setting = (bytes[i] & 0xff) << 8 | bytes[i + 1] & 0xff;
+			int value = readInt(bytes, i + 2);
+			switch (setting) {
+			case SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+			case SETTINGS_ENABLE_PUSH -> {
+				if (value != 0 && value != 1)
+					throw new Http2Exception(PROTOCOL_ERROR, "invalid SETTINGS_ENABLE_PUSH");
+			}
+			case SETTINGS_INITIAL_WINDOW_SIZE -> {
+				if (value < 0)
+					throw new Http2Exception(FLOW_CONTROL_ERROR, "invalid SETTINGS_INITIAL_WINDOW_SIZE");
+				int delta = value - initialWindow;
+				initialWindow = value;
+				for (Stream stream : streams.values()) {
+					stream.window += delta;
+					if (stream.window > Integer.MAX_VALUE)
+						throw new Http2Exception(FLOW_CONTROL_ERROR, "window of stream " + stream.id + " too large");
+					schedule(stream);
+				}
+			}
+			case SETTINGS_MAX_FRAME_SIZE -> {
+				if (value < MAX_FRAME_SIZE || value > 0xffffff)
+					throw new Http2Exception(PROTOCOL_ERROR, "invalid SETTINGS_MAX_FRAME_SIZE");
+				maxFrameSize = value;
+			}
+			default -> {
+				// unknown settings are ignored
+			}
+			}
+		}
+	}
+
+	/**
+	 * Widening a flow control window.
+	 * 
+	 * @param id        Identifier of the stream or 0 for the connection.
+	 * @param increment Number of bytes the client can receive in addition.
+	 * @throws IOException Error writing or an invalid window of the connection.
+	 */
+	private void windowUpdate(int id, int increment) throws IOException {
+		if (id == 0) {
+			if (increment == 0)
+				throw new Http2Exception(PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+			window += increment;
+			if (window > Integer.MAX_VALUE)
+				throw new Http2Exception(FLOW_CONTROL_ERROR, "window of the connection too large");
+			return;
+		}
+		Stream stream = streams.get(id);
+		if (stream == null)
+			return;
+		stream.window += increment;
+		if (increment == 0 || stream.window > Integer.MAX_VALUE) {
+			reset(stream, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+			return;
+		}
+		schedule(stream);
+	}
+
+	/**
+	 * Sending the header of a response. A response with a body waits for its
+	 * turn in {@link #sending}, other responses are done.
+	 * 
+	 * @param stream Stream of the response.
+	 * @throws IOException Error writing.
+	 */
+	private void respond(Stream stream) throws IOException {
+		HttpResponse response = stream.response;
+		stream.ready = System.nanoTime();
+		boolean body = !response.isBodyOmitted() && response.getContentLength() > 0
+				&& response.getStatus() != HttpStatus.NOT_MODIFIED;
+		timer.awaitWrite(0);
+		writeHeaders(stream.id, response, !body);
+		if (!body) {
+			finish(stream);
+			return;
+		}
+		stream.prepare();
+		streams.put(stream.id, stream);
+		schedule(stream);
+	}
+
+	/**
+	 * Encoding the header of a response and sending it in a HEADERS frame and as
+	 * many CONTINUATION frames as needed.
+	 * 
+	 * @param id        Identifier of the stream.
+	 * @param response  HttpResponse of the stream.
+	 * @param endStream Weather the response has no body.
+	 * @throws IOException Error writing.
+	 */
+	private void writeHeaders(int id, HttpResponse response, boolean endStream) throws IOException {
+		headerBlock.reset();
+		encoder.begin(headerBlock);
+		encoder.encode(headerBlock, ":status", Integer.toString(response.getStatus().errorCode()), true);
+		if (response.getLocation() != null)
+			encoder.encode(headerBlock, "location",
+					new String(response.getLocation().getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1),
+					false);
+		if (response.getStatus() != HttpStatus.NOT_MODIFIED)
+			encoder.encode(headerBlock, "content-length", Long.toString(response.getContentLength()), false);
+		for (byte[] field : response.getHeaders()) {
+			String line = new String(field, StandardCharsets.ISO_8859_1);
+			int colon = line.indexOf(':');
+			String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			if (!CONNECTION_FIELDS.contains(name))
+				encoder.encode(headerBlock, name, line.substring(colon + 1).trim(), !UNINDEXED_FIELDS.contains(name));
+		}
+
+		byte[] bytes = headerBlock.toByteArray();
+		int offset = 0;
+		int type = HEADERS;
+		int flags = endStream ? END_STREAM : 0;
+		do {
+			int length = Math.min(bytes.length - offset, maxFrameSize);
+			if (offset + length == bytes.length)
+				flags |= END_HEADERS;
+			writeFrame(type, flags, id, ByteBuffer.wrap(bytes, offset, length));
+			offset += length;
+			type = CONTINUATION;
+			flags = 0;
+		} while (offset < bytes.length);
+	}
+
+	/**
+	 * Adding a stream to the streams whose turn to send comes, unless it is
+	 * already waiting, its window is closed or its body is sent.
+	 * 
+	 * @param stream Stream with a body.
+	 */
+	private void schedule(Stream stream) {
+		if (stream.queued || stream.window <= 0 || stream.segments.isEmpty())
+			return;
+		stream.queued = true;
+		sending.add(stream);
+	}
+
+	/**
+	 * Sending the next DATA frame of a stream, as large as the windows and the
+	 * maximum frame size of the client allow. The stream is put back at the end
+	 * of {@link #sending}, so the streams take turns.
+	 * 
+	 * @param stream Stream with an open window.
+	 * @throws IOException Error reading the file or writing.
+	 */
+	private void sendData(Stream stream) throws IOException {
+		Segment segment = stream.segments.peek();
+		long remaining = segment.remaining();
+		int length = (int) Math.min(Math.min(remaining, Math.min(maxFrameSize, BufferPool.MAX_SIZE)),
+				Math.min(stream.window, window));
+		boolean last = length == remaining && stream.segments.size() == 1;
+		int flags = last ? END_STREAM : 0;
+
+		timer.awaitWrite(length);
+		if (segment.buffer != null) {
+			ByteBuffer data = segment.buffer.slice(segment.buffer.position(), length);
+			writeFrame(DATA, flags, stream.id, data);
+			segment.buffer.position(segment.buffer.position() + length);
+		} else {
+			ByteBuffer data = BUFFERS.acquire(length);
+			try {
+				data.limit(length);
+				FileChannel file = stream.response.getFile();
+				while (data.hasRemaining())
+					if (file.read(data, segment.position + data.position()) < 0)
+						throw new EOFException("file shorter than its response");
+				data.flip();
+				writeFrame(DATA, flags, stream.id, data);
+			} finally {
+				BUFFERS.release(data);
+			}
+			segment.position += length;
+		}
+		stream.window -= length;
+		window -= length;
+
+		if (segment.remaining() == 0)
+			stream.segments.poll();
+		if (stream.segments.isEmpty()) {
+			streams.remove(stream.id);
+			finish(stream);
+		} else {
+			schedule(stream);
+		}
+	}
+
+	/**
+	 * Finishing a stream whose response is sent. A client still sending the body
+	 * of its request is told to stop.
+	 * 
+	 * @param stream Stream of the response.
+	 * @throws IOException Error writing.
+	 */
+	private void finish(Stream stream) throws IOException {
+		release(stream);
+		metrics.request(stream.response, stream.ready - stream.parsed, System.nanoTime() - stream.parsed);
+		if (stream.record != null)
+			ACCESS_LOG.log(stream.record, stream.response);
+		closed.put(stream.id, !stream.remoteClosed);
+		if (!stream.remoteClosed)
+			writeReset(stream.id, NO_ERROR);
+	}
+
+	/**
+	 * Closing a stream with a stream error. Its response isn't sent any further.
+	 * 
+	 * @param stream Stream of the response.
+	 * @param error  Error code of the reset.
+	 * @throws IOException Error writing.
+	 */
+	private void reset(Stream stream, int error) throws IOException {
+		streams.remove(stream.id);
+		sending.remove(stream);
+		release(stream);
+		metrics.requestAborted();
+		closed.put(stream.id, true);
+		writeReset(stream.id, error);
+	}
+
+	/**
+	 * Closing the file or releasing the mapped file of a response.
+	 * 
+	 * @param stream Stream of the response.
+	 */
+	private void release(Stream stream) {
+		FileChannel file = stream.response.getFile();
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				LOGGER.warning("Couldn't close file for " + address);
+			}
+		}
+		stream.response.release();
+	}
+
+	/**
+	 * Sending the settings of the server, which start the connection.
+	 * 
+	 * @throws IOException Error writing.
+	 */
+	private void writeSettings() throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(6);
+		payload.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(LIMITS.getMaxStreams()).flip();
+		writeFrame(SETTINGS, 0, 0, payload);
+	}
+
+	/**
+	 * Sending a WINDOW_UPDATE frame.
+	 * 
+	 * @param id        Identifier of the stream or 0 for the connection.
+	 * @param increment Number of bytes the client can send in addition.
+	 * @throws IOException Error writing.
+	 */
+	private void writeWindowUpdate(int id, int increment) throws IOException {
+		writeFrame(WINDOW_UPDATE, 0, id, ByteBuffer.allocate(4).putInt(0, increment));
+	}
+
+	/**
+	 * Sending a RST_STREAM frame.
+	 * 
+	 * @param id    Identifier of the stream.
+	 * @param error Error code of the reset.
+	 * @throws IOException Error writing.
+	 */
+	private void writeReset(int id, int error) throws IOException {
+		writeFrame(RST_STREAM, 0, id, ByteBuffer.allocate(4).putInt(0, error));
+	}
+
+	/**
+	 * Sending a GOAWAY frame. The streams up to the last stream are still
+	 * answered, later streams are ignored.
+	 * 
+	 * @param error Error code of the GOAWAY frame.
+	 * @throws IOException Error writing.
+	 */
+	private void writeGoAway(int error) throws IOException {
+		goingAway = true;
+		writeFrame(GOAWAY, 0, 0, ByteBuffer.allocate(8).putInt(0, lastStream).putInt(4, error));
+	}
+
+	/**
+	 * Sending a frame.
+	 * 
+	 * @param type    Type of the frame.
+	 * @param flags   Flags of the frame.
+	 * @param id      Identifier of the stream or 0.
+	 * @param payload Payload of the frame or <code>null</code>.
+	 * @throws IOException Error writing.
+	 */
+	private void writeFrame(int type, int flags, int id, ByteBuffer payload) throws IOException {
+		int length = payload == null ? 0 : payload.remaining();
+		frameHeader.clear();
+		frameHeader.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length).put((byte) type)
+				.put((byte) flags).putInt(id).flip();
+		if (payload == null) {
+			write(frameHeader);
+			return;
+		}
+		frame[1] = payload;
+		while (payload.hasRemaining())
+			channel.write(frame);
+		frame[1] = null;
+	}
+
+	/**
+	 * Writing all bytes of a buffer.
+	 * 
+	 * @param buffer Buffer to be written.
+	 * @throws IOException Error writing.
+	 */
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Stream answering a request. The body is sent in segments, which are parts of
+	 * the body in memory or ranges of the file.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Stream {
+		final int id;
+		final HttpResponse response;
+		final AccessLog.Record record;
+		final long parsed;
+		final ArrayDeque<Segment> segments = new ArrayDeque<>();
+		long ready;
+		long window;
+		boolean remoteClosed;
+		boolean queued;
+
+		/**
+		 * Setting the values of the stream.
+		 * 
+		 * @param id       Identifier of the stream.
+		 * @param response HttpResponse of the request.
+		 * @param record   Record of the request in the access log or
+		 *                 <code>null</code>.
+		 * @param parsed   Nanoseconds when the request was parsed.
+		 * @param window   Initial flow control window of the stream.
+		 */
+		Stream(int id, HttpResponse response, AccessLog.Record record, long parsed, long window) {
+			this.id = id;
+			this.response = response;
+			this.record = record;
+			this.parsed = parsed;
+			this.window = window;
+		}
+
+		/**
+		 * Making the segments of the body.
+		 */
+		void prepare() {
+			if (response.isMapped()) {
+				for (ByteBuffer buffer : response.getBodyBuffers())
+					add(new Segment(buffer, 0, 0));
+			} else if (response.getFile() == null) {
+				add(new Segment(ByteBuffer.wrap(response.getBodyBytes()), 0, 0));
+			} else {
+				long[] ranges = response.getRanges();
+				byte[][] separators = response.getSeparators();
+				for (int i = 0; i < ranges.length; i += 2) {
+					if (separators != null)
+						add(new Segment(ByteBuffer.wrap(separators[i / 2]), 0, 0));
+					add(new Segment(null, ranges[i], ranges[i] + ranges[i + 1]));
+				}
+				if (separators != null)
+					add(new Segment(ByteBuffer.wrap(separators[separators.length - 1]), 0, 0));
+			}
+		}
+
+		/**
+		 * Adding a segment unless it is empty.
+		 * 
+		 * @param segment Segment of the body.
+		 */
+		private void add(Segment segment) {
+			if (segment.remaining() > 0)
+				segments.add(segment);
+		}
+	}
+
+	/**
+	 * Part of a body, either bytes in memory or a range of the file.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Segment {
+		final ByteBuffer buffer;
+		long position;
+		final long end;
+
+		/**
+		 * Setting the part of the body.
+		 * 
+		 * @param buffer   Bytes in memory or <code>null</code> for a range of the
+		 *                 file.
+		 * @param position Position of the range in the file.
+		 * @param end      Position after the range in the file.
+		 */
+		Segment(ByteBuffer buffer, long position, long end) {
+			this.buffer = buffer;
+			this.position = position;
+			this.end = end;
+		}
+
+		/**
+		 * Returning the number of bytes left to send.
+		 * 
+		 * @return Number of bytes.
+		 */
+		long remaining() {
+			return buffer != null ? buffer.remaining() : end - position;
+		}
+	}
+
+	/**
+	 * Connection error, which is answered with a GOAWAY frame.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Http2Exception extends IOException {
+		private static final long serialVersionUID = 1L;
+		final int error;
+
+		/**
+		 * Setting the error.
+		 * 
+		 * @param error   Error code of the GOAWAY frame.
+		 * @param message Description of the error.
+		 */
+		Http2Exception(int error, String message) {
+			super(message);
+			this.error = error;
+		}
+	}
+}
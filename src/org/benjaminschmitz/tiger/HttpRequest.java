@@ -0,0 +1,385 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class for an HTTPRequest. The request doesn't copy anything, it only points
+ * to the request line and the header fields in the buffer of the
+ * {@link RequestParser} that parsed it. It is reused for the next request of
+ * the parser, so it must not be kept after the response was made.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RequestParser
+ * @version 2021-02-19
+ */
+public final class HttpRequest {
+	public static final String HTTP_1_0 = "HTTP/1.0";
+	public static final String HTTP_1_1 = "HTTP/1.1";
+	public static final String HTTP_2 = "HTTP/2.0";
+
+	private static final String[] METHODS = { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "TRACE", "PATCH",
+			"CONNECT" };
+
+	private ByteBuffer buffer;
+	private int methodStart;
+	private int methodEnd;
+	private int targetStart;
+	private int targetEnd;
+	private boolean http10;
+	private boolean http2;
+	private String target;
+
+	private final int[] nameStart;
+	private final int[] nameEnd;
+	private final int[] valueStart;
+	private final int[] valueEnd;
+	private int fields;
+
+	/**
+	 * Creates an empty request with room for the header fields.
+	 * 
+	 * @param maxFields Maximum number of header fields.
+	 */
+	HttpRequest(int maxFields) {
+		nameStart = new int[maxFields];
+		nameEnd = new int[maxFields];
+		valueStart = new int[maxFields];
+		valueEnd = new int[maxFields];
+	}
+
+	/**
+	 * Setting the request line of the request and removing the header fields of
+	 * the previous request.
+	 * 
+	 * @param buffer      Buffer holding the request.
+	 * @param methodStart Index of the method.
+	 * @param methodEnd   Index after the method.
+	 * @param targetStart Index of the target.
+	 * @param targetEnd   Index after the target.
+	 * @param http10      Weather the request is a HTTP/1.0 request.
+	 */
+	void set(ByteBuffer buffer, int methodStart, int methodEnd, int targetStart, int targetEnd, boolean http10) {
+		this.buffer = buffer;
+		this.methodStart = methodStart;
+		this.methodEnd = methodEnd;
+		this.targetStart = targetStart;
+		this.targetEnd = targetEnd;
+		this.http10 = http10;
+		http2 = false;
+		target = null;
+		fields = 0;
+	}
+
+	/**
+	 * Adding a header field to the request.
+	 * 
+	 * @param nameStart  Index of the name.
+	 * @param nameEnd    Index after the name.
+	 * @param valueStart Index of the value.
+	 * @param valueEnd   Index after the value.
+	 * @return Boolean value weather there was room for the header field.
+	 */
+	boolean addField(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		if (fields == this.nameStart.length)
+			return false;
+		this.nameStart[fields] = nameStart;
+		this.nameEnd[fields] = nameEnd;
+		this.valueStart[fields] = valueStart;
+		this.valueEnd[fields] = valueEnd;
+		fields++;
+		return true;
+	}
+
+	/**
+	 * Getter for the method.
+	 * 
+	 * @return Method of the request, e.g. "GET".
+	 */
+	public String getMethod() {
+		for (String method : METHODS)
+			if (equals(methodStart, methodEnd, method, false))
+				return method;
+		return decode(methodStart, methodEnd);
+	}
+
+	/**
+	 * Getter for the request target. The string is only made on the first call.
+	 * 
+	 * @return Target of the request, e.g. "/index.html".
+	 */
+	public String getTarget() {
+		if (target == null)
+			target = decode(targetStart, targetEnd);
+		return target;
+	}
+
+	/**
+	 * Getter for the HTTP version.
+	 * 
+	 * @return Version of the request, {@link #HTTP_1_0}, {@link #HTTP_1_1} or
+	 *         {@link #HTTP_2}.
+	 */
+	public String getVersion() {
+		if (http2)
+			return HTTP_2;
+		return http10 ? HTTP_1_0 : HTTP_1_1;
+	}
+
+	/**
+	 * Marking the request as a request of a HTTP/2 stream. The stream is given to
+	 * the parser as a HTTP/1.1 header, so only the version differs.
+	 */
+	void setHttp2() {
+		http2 = true;
+	}
+
+	/**
+	 * Getter for a header field. If the field is sent more than once, the first
+	 * value is returned.
+	 * 
+	 * @param name Name of the header field, not case sensitive.
+	 * @return Value of the header field or <code>null</code> if it isn't set.
+	 */
+	public String getHeader(String name) {
+		for (int i = 0; i < fields; i++)
+			if (equals(nameStart[i], nameEnd[i], name, true))
+				return decode(valueStart[i], valueEnd[i]);
+		return null;
+	}
+
+	/**
+	 * Checks weather a header field is set.
+	 * 
+	 * @param name Name of the header field, not case sensitive.
+	 * @return Boolean value weather the header field is set.
+	 */
+	public boolean hasHeader(String name) {
+		for (int i = 0; i < fields; i++)
+			if (equals(nameStart[i], nameEnd[i], name, true))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Checks weather one of the comma separated values of a header field is the
+	 * token, e.g. "close" in "Connection: close".
+	 * 
+	 * @param name  Name of the header field, not case sensitive.
+	 * @param token Token to be searched, not case sensitive.
+	 * @return Boolean value weather the token is set.
+	 */
+	public boolean hasToken(String name, String token) {
+		for (int i = 0; i < fields; i++) {
+			if (!equals(nameStart[i], nameEnd[i], name, true))
+				continue;
+			int start = valueStart[i];
+			while (start < valueEnd[i]) {
+				int end = start;
+				while (end < valueEnd[i] && buffer.get(end) != ',')
+					end++;
+				int s = start;
+				int e = end;
+				while (s < e && isWhitespace(buffer.get(s)))
+					s++;
+				while (e > s && isWhitespace(buffer.get(e - 1)))
+					e--;
+				if (equals(s, e, token, true))
+					return true;
+				start = end + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returning the quality of a token in a header field with weighted values,
+	 * e.g. 500 for "gzip" in "Accept-Encoding: gzip;q=0.5, br".
+	 * 
+	 * @param name  Name of the header field, not case sensitive.
+	 * @param token Token to be searched, not case sensitive.
+	 * @return Quality of the token in thousandths or -1 if the token isn't listed.
+	 */
+	public int getQuality(String name, String token) {
+		for (int i = 0; i < fields; i++) {
+			if (!equals(nameStart[i], nameEnd[i], name, true))
+				continue;
+			int start = valueStart[i];
+			while (start < valueEnd[i]) {
+				int end = start;
+				while (end < valueEnd[i] && buffer.get(end) != ',')
+					end++;
+				int s = start;
+				while (s < end && isWhitespace(buffer.get(s)))
+					s++;
+				int e = s;
+				while (e < end && buffer.get(e) != ';' && !isWhitespace(buffer.get(e)))
+					e++;
+				if (equals(s, e, token, true))
+					return parseQuality(e, end);
+				start = end + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks weather the request is a HEAD request, which is answered without a
+	 * body.
+	 * 
+	 * @return Boolean value weather the request is a HEAD request.
+	 */
+	public boolean isHead() {
+		return equals(methodStart, methodEnd, "HEAD", false);
+	}
+
+	/**
+	 * Checks weather the request has a body. The server doesn't read request
+	 * bodies, so the connection can't be reused after such a request.
+	 * 
+	 * @return Boolean value weather the request has a body.
+	 */
+	public boolean hasBody() {
+		if (hasHeader("Transfer-Encoding"))
+			return true;
+		for (int i = 0; i < fields; i++)
+			if (equals(nameStart[i], nameEnd[i], "Content-Length", true)
+					&& !equals(valueStart[i], valueEnd[i], "0", false))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Checks weather the client wants to keep the connection open after the
+	 * response. HTTP/1.1 connections are persistent unless the client closes them,
+	 * HTTP/1.0 connections only if the client asks for it.
+	 * 
+	 * @return Boolean value weather the connection may be reused.
+	 */
+	public boolean isKeepAlive() {
+		if (hasBody() || hasToken("Connection", "close"))
+			return false;
+		if (http10)
+			return hasToken("Connection", "keep-alive");
+		return true;
+	}
+
+	/**
+	 * Making a string representation of the request.
+	 * 
+	 * @return Request line of the request.
+	 */
+	@Override
+	public String toString() {
+		return getMethod() + " " + getTarget() + " " + getVersion();
+	}
+
+	/**
+	 * Parsing the "q" parameter of a weighted value, e.g. ";q=0.5".
+	 * 
+	 * @param start Index after the token.
+	 * @param end   Index after the value.
+	 * @return Quality in thousandths, 1000 if there is no "q" parameter.
+	 */
+	private int parseQuality(int start, int end) {
+		int i = start;
+		while (i < end) {
+			while (i < end && (isWhitespace(buffer.get(i)) || buffer.get(i) == ';'))
+				i++;
+			if (i + 1 < end && toLowerCase(buffer.get(i)) == 'q' && buffer.get(i + 1) == '=') {
+				i += 2;
+				int quality = 0;
+				int digits = 0;
+				boolean fraction = false;
+				for (; i < end && digits < 4; i++) {
+					byte b = buffer.get(i);
+					if (b == '.' && !fraction)
+						fraction = true;
+					else if (b >= '0' && b <= '9') {
+						quality = quality * 10 + (b - '0');
+						if (fraction || digits == 0)
+							digits++;
+					} else
+						break;
+				}
+				while (digits++ < 4)
+					quality *= 10;
+				return Math.min(quality, 1000);
+			}
+			while (i < end && buffer.get(i) != ';')
+				i++;
+		}
+		return 1000;
+	}
+
+	/**
+	 * Comparing the bytes of the buffer with the ASCII string.
+	 * 
+	 * @param start      Index of the first byte.
+	 * @param end        Index after the last byte.
+	 * @param str        String to be compared with.
+	 * @param ignoreCase Weather upper and lower case letters are equal.
+	 * @return Boolean value weather the bytes are equal to the string.
+	 */
+	private boolean equals(int start, int end, String str, boolean ignoreCase) {
+		if (end - start != str.length())
+			return false;
+		for (int i = 0; i < str.length(); i++) {
+			int a = buffer.get(start + i);
+			int b = str.charAt(i);
+			if (a != b && (!ignoreCase || toLowerCase(a) != toLowerCase(b)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decoding the bytes of the buffer.
+	 * 
+	 * @param start Index of the first byte.
+	 * @param end   Index after the last byte.
+	 * @return String of the bytes.
+	 */
+	private String decode(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buffer.get(start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Converting an ASCII upper case letter to lower case.
+	 * 
+	 * @param c ASCII character.
+	 * @return Lower case character.
+	 */
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * Checks weather the byte is a space or a tab.
+	 * 
+	 * @param b Byte to be checked.
+	 * @return Boolean value weather the byte is whitespace.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+}
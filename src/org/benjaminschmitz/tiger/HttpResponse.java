@@ -17,6 +17,16 @@
 
 package org.benjaminschmitz.tiger;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -26,30 +36,145 @@ import java.util.Objects;
  * @version 2021-02-19
  */
 public final class HttpResponse {
+	static final byte[] KEEP_ALIVE = field("Connection", "keep-alive");
+	static final byte[] CLOSE = field("Connection", "close");
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LOCATION = "\r\nLocation: ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CONTENT_LENGTH = "\r\nContent-Length: ".getBytes(StandardCharsets.US_ASCII);
 
 	private final HttpStatus status;
-	private final String body;
+	private final byte[] body;
+	private final FileChannel file;
+	private final MappedFileCache.Mapping mapping;
+	private final long[] ranges;
+	private final byte[][] separators;
+	private final long length;
 	private final String location;
+	private final List<byte[]> headers = new ArrayList<>();
+	private boolean bodyOmitted;
 
 	/**
 	 * Creates a HTTP response with no headers and the given body. This is for
 	 * example for {@link HttpStatus#OK} where the body is the HTML of the page.
-	 *
+	 * 
 	 * @param status the HTTP status, must not be <code>null</code>
 	 * @param body   the response body, may be <code>null</code> or empty (in case
 	 *               of <code>null</code>, an empty string is used)
 	 */
 	public HttpResponse(HttpStatus status, String body) {
+		this(status, Objects.requireNonNullElse(body, "").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a HTTP response with no headers and the given encoded body. This is
+	 * for example for {@link HttpStatus#OK} where the body is the content of a
+	 * cached file.
+	 * 
+	 * @param status the HTTP status, must not be <code>null</code>
+	 * @param body   the encoded response body, may be <code>null</code> or empty
+	 *               (in case of <code>null</code>, an empty body is used)
+	 */
+	public HttpResponse(HttpStatus status, byte[] body) {
+		this.status = Objects.requireNonNull(status);
+		this.body = Objects.requireNonNullElse(body, new byte[0]);
+		this.file = null;
+		this.mapping = null;
+		this.ranges = null;
+		this.separators = null;
+		this.length = this.body.length;
+		this.location = null;
+	}
+
+	/**
+	 * Creates a HTTP response with no headers whose body is the content of the
+	 * file. The file is transferred directly to the connection without copying it
+	 * into memory and it is closed after it was written.
+	 * 
+	 * @param status the HTTP status, must not be <code>null</code>
+	 * @param file   the opened file of the response body, must not be
+	 *               <code>null</code>
+	 * @param length the number of bytes of the file to be sent
+	 */
+	public HttpResponse(HttpStatus status, FileChannel file, long length) {
+		this(status, file, new long[] { 0, length }, null);
+	}
+
+	/**
+	 * Creates a HTTP response with no headers whose body are ranges of the file,
+	 * e.g. for {@link HttpStatus#PARTIAL_CONTENT}. The ranges are read at their
+	 * position from the file, so the file is never loaded into memory. With more
+	 * than one range, the separators are written before, between and after the
+	 * ranges.
+	 * 
+	 * @param status     the HTTP status, must not be <code>null</code>
+	 * @param file       the opened file of the response body, must not be
+	 *                   <code>null</code>
+	 * @param ranges     the position and the length of every range, one after
+	 *                   another
+	 * @param separators the bytes written before every range and after the last
+	 *                   range, may be <code>null</code> for a single range
+	 */
+	public HttpResponse(HttpStatus status, FileChannel file, long[] ranges, byte[][] separators) {
 		this.status = Objects.requireNonNull(status);
-		this.body = Objects.requireNonNullElse(body, "");
+		this.body = new byte[0];
+		this.file = Objects.requireNonNull(file);
+		this.mapping = null;
+		this.ranges = ranges;
+		this.separators = separators;
+		this.length = length(ranges, separators);
 		this.location = null;
 	}
 
+	/**
+	 * Creates a HTTP response with no headers whose body are ranges of a memory
+	 * mapped file. The ranges are written from the mapping shared with other
+	 * responses of the file. The reference to the mapping is released after the
+	 * response was written or with {@link #release()}.
+	 * 
+	 * @param status     the HTTP status, must not be <code>null</code>
+	 * @param mapping    the mapping of the file with a reference for this
+	 *                   response, must not be <code>null</code>
+	 * @param ranges     the position and the length of every range, one after
+	 *                   another
+	 * @param separators the bytes written before every range and after the last
+	 *                   range, may be <code>null</code> for a single range
+	 */
+	public HttpResponse(HttpStatus status, MappedFileCache.Mapping mapping, long[] ranges, byte[][] separators) {
+		this.status = Objects.requireNonNull(status);
+		this.body = new byte[0];
+		this.file = null;
+		this.mapping = Objects.requireNonNull(mapping);
+		this.ranges = ranges;
+		this.separators = separators;
+		this.length = length(ranges, separators);
+		this.location = null;
+	}
+
+	/**
+	 * Summing up the length of the ranges and the separators.
+	 * 
+	 * @param ranges     Position and length of every range, one after another.
+	 * @param separators Bytes before every range and after the last range or
+	 *                   <code>null</code>.
+	 * @return Length of the body.
+	 */
+	private static long length(long[] ranges, byte[][] separators) {
+		if (separators != null && separators.length != ranges.length / 2 + 1)
+			throw new IllegalArgumentException("one separator per range and a closing separator needed");
+		long length = 0;
+		for (int i = 1; i < ranges.length; i += 2)
+			length += ranges[i];
+		if (separators != null)
+			for (byte[] separator : separators)
+				length += separator.length;
+		return length;
+	}
+
 	/**
 	 * Creates a HTTP response that includes a location in the response header. This
 	 * is used for example for {@link org.benjaminschmitz.tiger.HttpStatus} which
 	 * then redirects to the location.
-	 *
+	 * 
 	 * @param status      the HTTP status, must not be <code>null</code>
 	 * @param body        the response body, may be <code>null</code> or empty (in
 	 *                    case of <code>null</code>, an empty string is used)
@@ -57,7 +182,12 @@ public final class HttpResponse {
 	 */
 	public HttpResponse(HttpStatus status, String body, String locationUrl) {
 		this.status = Objects.requireNonNull(status);
-		this.body = Objects.requireNonNullElse(body, "");
+		this.body = Objects.requireNonNullElse(body, "").getBytes(StandardCharsets.UTF_8);
+		this.file = null;
+		this.mapping = null;
+		this.ranges = null;
+		this.separators = null;
+		this.length = this.body.length;
 		this.location = Objects.requireNonNull(locationUrl);
 		if (location.isBlank())
 			throw new IllegalArgumentException("location must not be blank");
@@ -78,9 +208,158 @@ public final class HttpResponse {
 	 * @return String representation of the called file.
 	 */
 	public String getBody() {
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Getter for the encoded body.
+	 * 
+	 * @return Encoded content of the called file.
+	 */
+	public byte[] getBodyBytes() {
 		return body;
 	}
 
+	/**
+	 * Getter for the file of the body.
+	 * 
+	 * @return FileChannel of the body or <code>null</code> if the body is held in
+	 *         memory.
+	 */
+	public FileChannel getFile() {
+		return file;
+	}
+
+	/**
+	 * Checks weather the body is written from a memory mapped file.
+	 * 
+	 * @return Boolean value weather the body is in {@link #getBodyBuffers()}.
+	 */
+	public boolean isMapped() {
+		return mapping != null;
+	}
+
+	/**
+	 * Making the buffers of a body from a memory mapped file, the separators and
+	 * the ranges one after another. Every call makes new buffers sharing the
+	 * mapped memory.
+	 * 
+	 * @return Buffers of the body or <code>null</code> if the body isn't mapped.
+	 */
+	public ByteBuffer[] getBodyBuffers() {
+		if (mapping == null)
+			return null;
+		List<ByteBuffer> buffers = new ArrayList<>();
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (separators != null)
+				buffers.add(ByteBuffer.wrap(separators[i / 2]));
+			for (ByteBuffer slice : mapping.slice(ranges[i], ranges[i + 1]))
+				buffers.add(slice);
+		}
+		if (separators != null)
+			buffers.add(ByteBuffer.wrap(separators[separators.length - 1]));
+		return buffers.toArray(new ByteBuffer[0]);
+	}
+
+	/**
+	 * Releasing the memory mapped file of the body. Must be called once if the
+	 * response isn't written with {@link #writeTo(OutputStream)}, the body can't
+	 * be written afterwards.
+	 */
+	public void release() {
+		if (mapping != null)
+			mapping.release();
+	}
+
+	/**
+	 * Getter for the ranges of the file.
+	 * 
+	 * @return Position and length of every range of the file, one after another,
+	 *         or <code>null</code> if the body is held in memory.
+	 */
+	public long[] getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Getter for the separators of the ranges.
+	 * 
+	 * @return Bytes written before every range and after the last range or
+	 *         <code>null</code> if there aren't any.
+	 */
+	public byte[][] getSeparators() {
+		return separators;
+	}
+
+	/**
+	 * Getter for the length of the body.
+	 * 
+	 * @return Number of bytes of the body, even if the body is omitted.
+	 */
+	public long getContentLength() {
+		return length;
+	}
+
+	/**
+	 * Adding a header field to the response.
+	 * 
+	 * @param name  Name of the header field.
+	 * @param value Value of the header field.
+	 */
+	public void addHeader(String name, String value) {
+		headers.add(field(name, value));
+	}
+
+	/**
+	 * Adding an encoded header field to the response. Header fields which are the
+	 * same for many responses are encoded once with {@link #field(String, String)}
+	 * and added with this method.
+	 * 
+	 * @param field Encoded header field, e.g. "Accept-Ranges: bytes". It must not
+	 *              be changed afterwards.
+	 */
+	public void addHeader(byte[] field) {
+		headers.add(field);
+	}
+
+	/**
+	 * Getter for the added header fields.
+	 * 
+	 * @return Encoded header fields without line breaks, they must not be
+	 *         changed.
+	 */
+	public List<byte[]> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Encoding a header field.
+	 * 
+	 * @param name  Name of the header field.
+	 * @param value Value of the header field.
+	 * @return Encoded header field without line break.
+	 */
+	public static byte[] field(String name, String value) {
+		return (name + ": " + value).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Omitting the body of the response, e.g. for a HEAD request. The header still
+	 * announces the length of the body.
+	 */
+	public void omitBody() {
+		bodyOmitted = true;
+	}
+
+	/**
+	 * Checks weather the body is omitted.
+	 * 
+	 * @return Boolean value weather only the header is sent.
+	 */
+	public boolean isBodyOmitted() {
+		return bodyOmitted;
+	}
+
 	/**
 	 * Getter for the location to be redirected.
 	 * 
@@ -98,17 +377,251 @@ public final class HttpResponse {
 	 */
 	@Override
 	public String toString() {
-		StringBuilder response = new StringBuilder();
-		response.append("HTTP/1.1 ");
-		response.append(status.errorCode());
-		response.append(" ");
-		response.append(status.toString());
+		return new String(getHeaderBytes(), StandardCharsets.UTF_8) + getBody();
+	}
+
+	/**
+	 * Writing the response to the output stream. The header is written as text and
+	 * the body is written as it is, without decoding and encoding it again.
+	 * 
+	 * @param out OutputStream of the connection.
+	 * @throws IOException Error writing to the stream.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeTo(out, null);
+	}
+
+	/**
+	 * Writing the response to the connection. The header is written to the output
+	 * stream. The ranges of a file body are transferred directly from the file to
+	 * the channel of the connection, so the operating system can send them without
+	 * copying them through the heap. A memory mapped body is written with a single
+	 * gathering write of its buffers.
+	 * 
+	 * @param out     OutputStream of the connection.
+	 * @param channel Channel of the connection. If <code>null</code> the file is
+	 *                transferred to the output stream.
+	 * @throws IOException Error writing to the connection.
+	 */
+	public void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+		out.write(getHeaderBytes());
+		if (mapping != null) {
+			try {
+				if (bodyOmitted)
+					return;
+				out.flush();
+				ByteBuffer[] buffers = getBodyBuffers();
+				if (channel instanceof GatheringByteChannel) {
+					GatheringByteChannel target = (GatheringByteChannel) channel;
+					int first = 0;
+					while (first < buffers.length) {
+						target.write(buffers, first, buffers.length - first);
+						while (first < buffers.length && !buffers[first].hasRemaining())
+							first++;
+					}
+				} else {
+					WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+					for (ByteBuffer buffer : buffers)
+						while (buffer.hasRemaining())
+							target.write(buffer);
+				}
+			} finally {
+				mapping.release();
+			}
+			return;
+		}
+		if (file == null) {
+			if (!bodyOmitted)
+				out.write(body);
+			return;
+		}
+
+		try (FileChannel f = file) {
+			if (bodyOmitted)
+				return;
+			WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (separators != null)
+					out.write(separators[i / 2]);
+				out.flush();
+				long position = ranges[i];
+				long end = position + ranges[i + 1];
+				while (position < end) {
+					long transferred = f.transferTo(position, end - position, target);
+					if (transferred <= 0 && position >= f.size())
+						throw new IOException("file is shorter than announced");
+					position += transferred;
+				}
+			}
+			if (separators != null)
+				out.write(separators[separators.length - 1]);
+		}
+	}
+
+	/**
+	 * Writing the response to a blocking channel of the connection. The header
+	 * and a body in memory are written from a buffer of the pool, so writing the
+	 * response doesn't allocate a buffer. The ranges of a file body are
+	 * transferred directly from the file afterwards.
+	 * 
+	 * @param channel Blocking channel of the connection.
+	 * @param pool    BufferPool for the header.
+	 * @throws IOException Error writing to the connection.
+	 */
+	public void writeTo(GatheringByteChannel channel, BufferPool pool) throws IOException {
+		try {
+			ByteBuffer[] buffers = getBuffers(pool);
+			try {
+				int first = 0;
+				while (first < buffers.length) {
+					channel.write(buffers, first, buffers.length - first);
+					while (first < buffers.length && !buffers[first].hasRemaining())
+						first++;
+				}
+			} finally {
+				pool.release(buffers[0]);
+			}
+			if (file == null || bodyOmitted)
+				return;
+
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (separators != null)
+					write(channel, separators[i / 2]);
+				long position = ranges[i];
+				long end = position + ranges[i + 1];
+				while (position < end) {
+					long transferred = file.transferTo(position, end - position, channel);
+					if (transferred <= 0 && position >= file.size())
+						throw new IOException("file is shorter than announced");
+					position += transferred;
+				}
+			}
+			if (separators != null)
+				write(channel, separators[separators.length - 1]);
+		} finally {
+			if (file != null)
+				file.close();
+			release();
+		}
+	}
+
+	/**
+	 * Writing bytes completely to a blocking channel.
+	 * 
+	 * @param channel Blocking channel of the connection.
+	 * @param bytes   Bytes to be written.
+	 * @throws IOException Error writing to the connection.
+	 */
+	private static void write(WritableByteChannel channel, byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Making the buffers of the response for a gathering write. The first buffer
+	 * is taken from the pool and holds the header, followed by the body in memory
+	 * if it fits into a buffer of the pool. A larger body in memory and the
+	 * ranges of a memory mapped file follow in their own buffers. The ranges of a
+	 * file body aren't included.
+	 * 
+	 * @param pool BufferPool for the header.
+	 * @return Buffers ready to be written. The first buffer must be released to
+	 *         the pool after it was written.
+	 */
+	public ByteBuffer[] getBuffers(BufferPool pool) {
+		int headerLength = getHeaderLength();
+		boolean inline = !bodyOmitted && file == null && mapping == null;
+		boolean together = inline && headerLength + body.length <= BufferPool.MAX_SIZE;
+		ByteBuffer header = pool.acquire(together ? headerLength + body.length : headerLength);
+		putHeader(header);
+		if (together)
+			header.put(body);
+		header.flip();
+
+		if (inline && !together)
+			return new ByteBuffer[] { header, ByteBuffer.wrap(body) };
+		if (mapping == null || bodyOmitted)
+			return new ByteBuffer[] { header };
+		ByteBuffer[] slices = getBodyBuffers();
+		ByteBuffer[] buffers = new ByteBuffer[slices.length + 1];
+		buffers[0] = header;
+		System.arraycopy(slices, 0, buffers, 1, slices.length);
+		return buffers;
+	}
+
+	/**
+	 * Making the encoded header of the response. See
+	 * {@link #putHeader(ByteBuffer)}.
+	 * 
+	 * @return Encoded header of the response, ending with an empty line.
+	 */
+	public byte[] getHeaderBytes() {
+		byte[] header = new byte[getHeaderLength()];
+		putHeader(ByteBuffer.wrap(header));
+		return header;
+	}
+
+	/**
+	 * Getter for the length of the encoded header.
+	 * 
+	 * @return Number of bytes of the header, including the empty line.
+	 */
+	public int getHeaderLength() {
+		int size = status.statusLine.length + 4;
+		if (location != null)
+			size += LOCATION.length + location.getBytes(StandardCharsets.UTF_8).length;
+		if (status != HttpStatus.NOT_MODIFIED)
+			size += CONTENT_LENGTH.length + digits(length);
+		for (byte[] header : headers)
+			size += CRLF.length + header.length;
+		return size;
+	}
+
+	/**
+	 * Putting the encoded header of the response with the status line, the
+	 * location, the length of the body and the added header fields into the
+	 * buffer. The status line and the header fields are already encoded, so they
+	 * are only copied. A {@link HttpStatus#NOT_MODIFIED} response doesn't
+	 * announce a length, as it never has a body.
+	 * 
+	 * @param buffer Buffer with room for {@link #getHeaderLength()} bytes.
+	 */
+	public void putHeader(ByteBuffer buffer) {
+		buffer.put(status.statusLine);
 		if (location != null) {
-			response.append("\r\nLocation: ");
-			response.append(location);
+			buffer.put(LOCATION);
+			buffer.put(location.getBytes(StandardCharsets.UTF_8));
+		}
+		if (status != HttpStatus.NOT_MODIFIED) {
+			buffer.put(CONTENT_LENGTH);
+			int position = buffer.position();
+			int digits = digits(length);
+			long l = length;
+			for (int i = position + digits - 1; i >= position; i--, l /= 10)
+				buffer.put(i, (byte) ('0' + l % 10));
+			buffer.position(position + digits);
+		}
+		for (byte[] field : headers) {
+			buffer.put(CRLF);
+			buffer.put(field);
+		}
+		buffer.put(CRLF);
+		buffer.put(CRLF);
+	}
+
+	/**
+	 * Counting the decimal digits of a length.
+	 * 
+	 * @param value Length, not negative.
+	 * @return Number of digits.
+	 */
+	private static int digits(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
 		}
-		response.append("\r\n\r\n");
-		response.append(body);
-		return response.toString();
+		return digits;
 	}
 }
@@ -17,6 +17,8 @@
 
 package org.benjaminschmitz.tiger;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Enum for all the different statuses.
  * <p>
@@ -25,12 +27,28 @@ package org.benjaminschmitz.tiger;
  * "FORBIDDEN" for errors while reading the file(wrong permissions, image, ...).
  * <p>
  * "OK" for an normal request and everything went well.
+ * <p>
+ * "NOT_MODIFIED" if the client already has the current version of the file.
+ * <p>
+ * "PARTIAL_CONTENT" for the requested ranges of a file.
+ * <p>
+ * "RANGE_NOT_SATISFIABLE" if none of the requested ranges is within the file.
+ * <p>
+ * "SERVICE_UNAVAILABLE" if the server is overloaded and sheds the connection.
+ * <p>
+ * "BAD_REQUEST" if the header of the request isn't a valid HTTP/1.x header.
+ * <p>
+ * "REQUEST_HEADER_FIELDS_TOO_LARGE" if the header of the request is too large
+ * or has too many fields.
  * 
  * @author Benjamin Schmitz
  * @version 2021-02-19
  */
 public enum HttpStatus {
-	NOT_FOUND("NOT_FOUND", 404), FORBIDDEN("FORBIDDEN", 403), OK("OK", 200);
+	NOT_FOUND("NOT_FOUND", 404), FORBIDDEN("FORBIDDEN", 403), OK("OK", 200),
+	NOT_MODIFIED("NOT_MODIFIED", 304), PARTIAL_CONTENT("PARTIAL_CONTENT", 206),
+	RANGE_NOT_SATISFIABLE("RANGE_NOT_SATISFIABLE", 416), SERVICE_UNAVAILABLE("SERVICE_UNAVAILABLE", 503),
+	BAD_REQUEST("BAD_REQUEST", 400), REQUEST_HEADER_FIELDS_TOO_LARGE("REQUEST_HEADER_FIELDS_TOO_LARGE", 431);
 
 	/**
 	 * Constructor for setting up the status types.
@@ -41,10 +59,13 @@ public enum HttpStatus {
 	private HttpStatus(String message, int code) {
 		this.message = message;
 		this.code = code;
+		statusLine = ("HTTP/1.1 " + code + " " + message).getBytes(StandardCharsets.US_ASCII);
 	}
 
 	String message;
 	int code;
+	// encoded once, as it starts every response
+	final byte[] statusLine;
 
 	/**
 	 * Getter for the string of status type.
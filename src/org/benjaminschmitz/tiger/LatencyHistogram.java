@@ -0,0 +1,146 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with logarithmic buckets. Every power
+ * of two is split into {@link #SUB_BUCKETS} linear buckets, so the relative
+ * error of a recorded value is at most 12.5% over the whole range, like a
+ * HdrHistogram with one significant digit. Every bucket is a
+ * {@link LongAdder}, so recording never blocks.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.Metrics
+ * @version 2021-02-19
+ */
+public class LatencyHistogram {
+	public static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS = 3;
+	private static final int MAX_EXPONENT = 40;
+
+	private final LongAdder[] buckets = new LongAdder[(MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Making an empty histogram.
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	/**
+	 * Recording a duration. Durations above 2^40 ns, about 18 minutes, are
+	 * counted in the last bucket.
+	 * 
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets[Math.min(index(nanos), buckets.length - 1)].increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Getter for the number of recorded durations.
+	 * 
+	 * @return Number of durations.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets)
+			count += bucket.sum();
+		return count;
+	}
+
+	/**
+	 * Getter for the sum of the recorded durations.
+	 * 
+	 * @return Sum in nanoseconds.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Getter for the number of durations in every bucket.
+	 * 
+	 * @return Count of every bucket, the bucket i holds the durations from
+	 *         {@link #lowerBound(int)} to the lower bound of bucket i + 1.
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[buckets.length];
+		for (int i = 0; i < buckets.length; i++)
+			counts[i] = buckets[i].sum();
+		return counts;
+	}
+
+	/**
+	 * Returning a quantile of the durations in the bucket counts.
+	 * 
+	 * @param counts   Count of every bucket, see {@link #getCounts()}.
+	 * @param quantile Quantile between 0 and 1, e.g. 0.99.
+	 * @return Upper bound of the bucket holding the quantile in nanoseconds or 0
+	 *         if nothing was recorded.
+	 */
+	public static long quantile(long[] counts, double quantile) {
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return lowerBound(i + 1) - 1;
+		}
+		return lowerBound(counts.length) - 1;
+	}
+
+	/**
+	 * Returning the smallest duration of a bucket.
+	 * 
+	 * @param i Index of the bucket.
+	 * @return Lower bound in nanoseconds.
+	 */
+	public static long lowerBound(int i) {
+		if (i < SUB_BUCKETS)
+			return i;
+		int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+		return (long) (SUB_BUCKETS + i % SUB_BUCKETS) << (exponent - SUB_BITS);
+	}
+
+	/**
+	 * Returning the bucket of a duration.
+	 * 
+	 * @param nanos Duration in nanoseconds, not negative.
+	 * @return Index of the bucket.
+	 */
+	static int index(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) nanos;
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+}
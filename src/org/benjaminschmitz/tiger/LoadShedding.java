@@ -0,0 +1,103 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Limits of the connections waiting for the server and the response to the
+ * connections exceeding them. Connections which can't be queued anymore are
+ * shed by the accepting thread right away with a
+ * {@link HttpStatus#SERVICE_UNAVAILABLE} response announcing when to retry, so
+ * an overloaded server answers quickly instead of queueing connections
+ * without bound.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.WebServer
+ * @version 2021-02-19
+ */
+public class LoadShedding {
+	private final int queueSize;
+	private final int backlog;
+	private final int retryAfter;
+
+	/**
+	 * Setting the limits.
+	 * 
+	 * @param queueSize  Maximum number of accepted connections waiting for a
+	 *                   thread or an event loop.
+	 * @param backlog    Maximum number of connections waiting to be accepted by
+	 *                   the server socket. 0 for the default of the system.
+	 * @param retryAfter Seconds after which a shed client may retry.
+	 */
+	public LoadShedding(int queueSize, int backlog, int retryAfter) {
+		if (queueSize < 1)
+			throw new IllegalArgumentException("queue size must be positive");
+		if (backlog < 0 || retryAfter < 0)
+			throw new IllegalArgumentException("backlog and retry delay must not be negative");
+		this.queueSize = queueSize;
+		this.backlog = backlog;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Getter for the size of the queue.
+	 * 
+	 * @return Maximum number of accepted connections waiting.
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Getter for the backlog of the server socket.
+	 * 
+	 * @return Maximum number of connections waiting to be accepted or 0.
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Getter for the delay announced to shed clients.
+	 * 
+	 * @return Seconds after which a shed client may retry.
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Encoding the response to shed connections once, so shedding a connection
+	 * only writes the prepared bytes.
+	 * 
+	 * @param handler RequestHandler making the error page.
+	 * @return Read-only buffer with the encoded response, to be duplicated for
+	 *         every connection.
+	 */
+	public ByteBuffer encodeResponse(RequestHandler handler) {
+		HttpResponse response = handler.error(HttpStatus.SERVICE_UNAVAILABLE);
+		response.addHeader("Retry-After", Integer.toString(retryAfter));
+		response.addHeader(HttpResponse.CLOSE);
+		byte[] header = response.getHeaderBytes();
+		byte[] body = response.getBodyBytes();
+		ByteBuffer encoded = ByteBuffer.allocateDirect(header.length + body.length);
+		encoded.put(header).put(body).flip();
+		return encoded.asReadOnlyBuffer();
+	}
+}
@@ -19,23 +19,62 @@ package org.benjaminschmitz.tiger;
 
 import static java.time.temporal.ChronoUnit.MILLIS;
 import static java.time.Instant.now;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
-import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Logger-Class
+ * <p>
+ * Logging doesn't block the connections. The messages are put into a
+ * {@link RingBuffer} together with the time and a single writer thread formats
+ * them and writes them in batches to a buffered writer, which is flushed
+ * whenever the queue is empty. If the queue is full, the messages are dropped or
+ * the logging thread waits, depending on the {@link Overflow} policy.
  * 
  * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RingBuffer
  * @version 2021-02-19
  */
 public class Logger {
+	public static final int DEFAULT_QUEUE_SIZE = 8192;
+	private static final long MAX_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
 	private Instant start;
 	private LogLevel level;
 	private final DateTimeFormatter dtf;
 
+	private final RingBuffer<Message> queue;
+	private final Overflow overflow;
+	private final Writer out;
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private volatile boolean waiting;
+	private volatile boolean closed;
+	private final LongAdder dropped = new LongAdder();
+	private long reportedDropped;
+
+	// cached date of the writer thread
+	private long second = Long.MIN_VALUE;
+	private String secondDate;
+
 	/**
-	 * Initialising the logger variables.
+	 * Initialising the logger variables. The messages are written to System.err
+	 * and dropped if more than {@link #DEFAULT_QUEUE_SIZE} messages are waiting.
 	 * 
 	 * @param version    Version of the server.
 	 * @param logLevelId ID of the log level. 0 for INFO/RUNTIME and above. 1 for
@@ -43,6 +82,23 @@ public class Logger {
 	 * @throws InvalidConfigException Invalid log level id.
 	 */
 	public Logger(String version, int logLevelId) throws InvalidConfigException {
+		this(version, logLevelId, DEFAULT_QUEUE_SIZE, Overflow.DROP, null);
+	}
+
+	/**
+	 * Initialising the logger variables and starting the writer thread.
+	 * 
+	 * @param version    Version of the server.
+	 * @param logLevelId ID of the log level. 0 for INFO/RUNTIME and above. 1 for
+	 *                   WARNING and above. 2 for SEVERE.
+	 * @param queueSize  Number of messages waiting to be written.
+	 * @param overflow   {@link Overflow} policy for a full queue.
+	 * @param file       File the messages are appended to or <code>null</code>
+	 *                   for System.err.
+	 * @throws InvalidConfigException Invalid log level id, queue size or file.
+	 */
+	public Logger(String version, int logLevelId, int queueSize, Overflow overflow, Path file)
+			throws InvalidConfigException {
 		switch (logLevelId) {
 		case 0 -> level = LogLevel.INFO;
 		case 1 -> level = LogLevel.WARNING;
@@ -59,8 +115,27 @@ public class Logger {
 
 				""", version, level.toString());
 
-		dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:SSS");
+		dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:").withZone(ZoneId.systemDefault());
 		start = now();
+
+		if (queueSize < 1 || queueSize > 1 << 30)
+			throw new InvalidConfigException("Invalid log queue size: " + queueSize);
+		queue = new RingBuffer<>(queueSize);
+		this.overflow = overflow;
+		OutputStream stream;
+		try {
+			stream = file == null ? new FileOutputStream(FileDescriptor.err)
+					: Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new InvalidConfigException("Couldn't open log file " + file + ".");
+		}
+		out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+
+		writer = new Thread(this::write, "tiger-logger");
+		writer.setDaemon(true);
+		writer.start();
+		shutdownHook = new Thread(this::close, "tiger-logger-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
 	}
 
 	/**
@@ -83,7 +158,7 @@ public class Logger {
 	 */
 	public void info(String msg) {
 		if (isToLog(LogLevel.INFO))
-			err("[" + getDate() + "] [" + LogLevel.INFO.toString() + "] " + msg);
+			log(LogLevel.INFO, msg);
 	}
 
 	/**
@@ -93,7 +168,7 @@ public class Logger {
 	 */
 	public void warning(String msg) {
 		if (isToLog(LogLevel.WARNING))
-			err("[" + getDate() + "] [" + LogLevel.WARNING.toString() + "] " + msg);
+			log(LogLevel.WARNING, msg);
 	}
 
 	/**
@@ -103,7 +178,7 @@ public class Logger {
 	 */
 	public void severe(String msg) {
 		if (isToLog(LogLevel.SEVERE))
-			err("[" + getDate() + "] [" + LogLevel.SEVERE.toString() + "] " + msg);
+			log(LogLevel.SEVERE, msg);
 	}
 
 	/**
@@ -111,8 +186,17 @@ public class Logger {
 	 */
 	public void runtime() {
 		if (isToLog(LogLevel.RUNTIME))
-			err("[" + getDate() + "] [" + LogLevel.RUNTIME.toString() + "] " + "Running " + start.until(now(), MILLIS)
-					+ " ms");
+			log(LogLevel.RUNTIME, "Running " + start.until(now(), MILLIS) + " ms");
+	}
+
+	/**
+	 * Runtime-Log
+	 * 
+	 * @param msg Log message.
+	 */
+	public void runtime(String msg) {
+		if (isToLog(LogLevel.RUNTIME))
+			log(LogLevel.RUNTIME, msg);
 	}
 
 	/**
@@ -123,22 +207,171 @@ public class Logger {
 	}
 
 	/**
-	 * Writing the log to System.err. Writing to the default error output.
+	 * Getter for the number of dropped messages.
 	 * 
-	 * @param str String to be printed.
+	 * @return Number of messages dropped because the queue was full.
 	 */
-	private static void err(String str) {
-		System.err.println(str);
+	public long getDropped() {
+		return dropped.sum();
 	}
 
 	/**
-	 * Returning the date in the format 'yyyy-MM-dd HH:mm:ss:SSS'.
+	 * Removing the shutdown hook closing the logger, so a shutdown hook which
+	 * still logs, e.g. while the server drains its connections, can call
+	 * {@link #close()} afterwards.
+	 */
+	public void removeShutdownHook() {
+		Runtime.getRuntime().removeShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Writing the waiting messages and stopping the writer thread. Messages logged
+	 * afterwards are dropped.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Putting the message into the queue. Only the time is taken here, the message
+	 * is formatted by the writer thread.
 	 * 
+	 * @param l   LogLevel of the message.
+	 * @param msg Log message.
+	 */
+	private void log(LogLevel l, String msg) {
+		Message message = new Message(System.currentTimeMillis(), l, msg);
+		while (!queue.offer(message)) {
+			if (overflow == Overflow.DROP || closed) {
+				dropped.increment();
+				return;
+			}
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+		if (waiting)
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Loop of the writer thread. The messages are written as long as the queue
+	 * isn't empty and flushed together afterwards.
+	 */
+	private void write() {
+		while (true) {
+			boolean wrote = false;
+			Message message;
+			try {
+				while ((message = queue.poll()) != null) {
+					format(message);
+					wrote = true;
+				}
+				long lost = dropped.sum();
+				if (lost != reportedDropped) {
+					format(new Message(System.currentTimeMillis(), LogLevel.WARNING,
+							(lost - reportedDropped) + " log messages dropped"));
+					reportedDropped = lost;
+					wrote = true;
+				}
+				if (wrote)
+					out.flush();
+			} catch (IOException e) {
+				System.err.println("Couldn't write log: " + e);
+			}
+
+			if (closed && queue.isEmpty())
+				return;
+			if (!wrote) {
+				waiting = true;
+				if (queue.isEmpty() && !closed)
+					LockSupport.parkNanos(MAX_WAIT);
+				waiting = false;
+			}
+		}
+	}
+
+	/**
+	 * Writing the message in the format '[yyyy-MM-dd HH:mm:ss:SSS] [LEVEL] msg'.
+	 * The date is only formatted once per second.
+	 * 
+	 * @param message Message to be written.
+	 * @throws IOException Error writing the message.
+	 */
+	private void format(Message message) throws IOException {
+		out.write('[');
+		out.write(getDate(message.time));
+		int millis = (int) Math.floorMod(message.time, 1000L);
+		out.write('0' + millis / 100);
+		out.write('0' + millis / 10 % 10);
+		out.write('0' + millis % 10);
+		out.write("] [");
+		out.write(message.level.toString());
+		out.write("] ");
+		out.write(message.msg);
+		out.write(System.lineSeparator());
+	}
+
+	/**
+	 * Returning the date in the format 'yyyy-MM-dd HH:mm:ss:' without the
+	 * milliseconds. Only called by the writer thread.
+	 * 
+	 * @param time Time in milliseconds.
 	 * @return String representation of the date.
 	 */
-	private String getDate() {
-		LocalDateTime now = LocalDateTime.now();
-		return dtf.format(now);
+	private String getDate(long time) {
+		long s = Math.floorDiv(time, 1000L);
+		if (s != second) {
+			secondDate = dtf.format(Instant.ofEpochSecond(s));
+			second = s;
+		}
+		return secondDate;
+	}
+
+	/**
+	 * Message waiting to be written.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Message {
+		final long time;
+		final LogLevel level;
+		final String msg;
+
+		/**
+		 * Setting the values of the message.
+		 * 
+		 * @param time  Time of the message in milliseconds.
+		 * @param level LogLevel of the message.
+		 * @param msg   Log message.
+		 */
+		Message(long time, LogLevel level, String msg) {
+			this.time = time;
+			this.level = level;
+			this.msg = msg;
+		}
+	}
+
+	/**
+	 * Policies for a full queue.
+	 * <p>
+	 * "DROP" drops the message and counts it, so logging never waits.
+	 * <p>
+	 * "BLOCK" waits until the writer thread made room for the message.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum Overflow {
+		DROP, BLOCK
 	}
 
 	/**
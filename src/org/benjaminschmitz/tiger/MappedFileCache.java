@@ -0,0 +1,324 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared cache of memory mapped large files. All responses of a file are
+ * written from the same mapping, so concurrent downloads share the pages of
+ * the operating system without opening the file or copying it into the heap.
+ * <p>
+ * Every response holds a reference to its {@link Mapping} and releases it
+ * after the body was written, the cache holds one reference as well. A
+ * mapping which is evicted or whose file changed is removed from the cache and
+ * unmapped as soon as the last response released it.
+ * <p>
+ * Files should be replaced by renaming a new file over them, as a mapped file
+ * which is truncated in place fails the responses reading beyond its new end.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.FileCache
+ * @version 2021-02-19
+ */
+public class MappedFileCache {
+	private static final int CHUNK_SIZE = 1 << 30;
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// the mappings are unmapped by the garbage collector
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final long minBytes;
+	private final long maxBytes;
+	private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+	private volatile boolean watched;
+	private long generation;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Initialising the cache. A cache with {@code minBytes} of 0 doesn't map any
+	 * file.
+	 * 
+	 * @param minBytes Minimum size of a file to be mapped.
+	 * @param maxBytes Maximum number of bytes mapped at the same time by the
+	 *                 cache.
+	 */
+	public MappedFileCache(long minBytes, long maxBytes) {
+		if (minBytes < 0 || maxBytes < 0)
+			throw new IllegalArgumentException("mapping sizes must not be negative");
+		this.minBytes = minBytes;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returning the mapping of the file with a reference for the caller, who must
+	 * {@link Mapping#release()} it. The file is mapped if it isn't mapped yet or
+	 * if it changed since it was mapped.
+	 * 
+	 * @param path Path of the file.
+	 * @return Mapping of the file or <code>null</code> if the file is too small or
+	 *         too large to be mapped.
+	 * @throws IOException Error reading the file.
+	 */
+	public Mapping acquire(Path path) throws IOException {
+		if (minBytes == 0)
+			return null;
+		Mapping mapping;
+		long generation;
+		synchronized (this) {
+			mapping = mappings.get(path);
+			generation = this.generation;
+		}
+		if (mapping != null && watched && mapping.retain()) {
+			hits.increment();
+			return mapping;
+		}
+
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		if (!attributes.isRegularFile())
+			throw new IOException(path + " is not a file");
+		if (attributes.size() < minBytes || attributes.size() > maxBytes)
+			return null;
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		if (mapping != null && mapping.lastModified == lastModified && mapping.size == attributes.size()
+				&& mapping.retain()) {
+			hits.increment();
+			return mapping;
+		}
+
+		misses.increment();
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+			mapping = new Mapping(file, attributes.size(), lastModified);
+		}
+		mapping.retain();
+		put(path, mapping, generation);
+		return mapping;
+	}
+
+	/**
+	 * Removing the mappings of the file or of all files below the folder from the
+	 * cache. They are unmapped after their last response.
+	 * 
+	 * @param path Path of the changed file or folder.
+	 */
+	public synchronized void invalidate(Path path) {
+		generation++;
+		Iterator<Map.Entry<Path, Mapping>> it = mappings.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, Mapping> entry = it.next();
+			if (entry.getKey().startsWith(path)) {
+				it.remove();
+				size -= entry.getValue().size;
+				entry.getValue().release();
+			}
+		}
+	}
+
+	/**
+	 * Setting weather the web root is watched. The mappings of a watched web root
+	 * are used without checking the modification time of the file.
+	 * 
+	 * @param watched Boolean value weather a {@link FolderWatcher} invalidates the
+	 *                mappings.
+	 */
+	public void setWatched(boolean watched) {
+		this.watched = watched;
+	}
+
+	/**
+	 * Adding the mapping to the cache and evicting the least recently used
+	 * mappings until the cache fits into its size. The mapping isn't added if a
+	 * file was invalidated since it was mapped, as it may have been mapped before
+	 * the change. Its reference for the cache is released then, so it is unmapped
+	 * after the response of the caller.
+	 * 
+	 * @param path       Path of the file.
+	 * @param mapping    Mapping to be added.
+	 * @param generation Number of invalidations before the file was mapped.
+	 */
+	private synchronized void put(Path path, Mapping mapping, long generation) {
+		if (watched && generation != this.generation) {
+			mapping.release();
+			return;
+		}
+		Mapping old = mappings.put(path, mapping);
+		if (old != null) {
+			size -= old.size;
+			old.release();
+		}
+		size += mapping.size;
+		Iterator<Mapping> it = mappings.values().iterator();
+		while (size > maxBytes && it.hasNext()) {
+			Mapping eldest = it.next();
+			it.remove();
+			size -= eldest.size;
+			eldest.release();
+		}
+	}
+
+	/**
+	 * Getter for the number of responses written from an existing mapping.
+	 * 
+	 * @return Number of cache hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Getter for the number of files mapped.
+	 * 
+	 * @return Number of cache misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Getter for the number of bytes mapped by the cache.
+	 * 
+	 * @return Size of the mapped files in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Memory mapped file with a reference count. The file is mapped in chunks of
+	 * at most 1 GiB, as a single buffer can't hold more than 2 GiB.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public static final class Mapping {
+		final ByteBuffer[] chunks;
+		final long size;
+		final long lastModified;
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		/**
+		 * Mapping the file with a reference for the cache.
+		 * 
+		 * @param file         Opened file.
+		 * @param size         Size of the file.
+		 * @param lastModified Modification time of the file in milliseconds.
+		 * @throws IOException Error mapping the file.
+		 */
+		Mapping(FileChannel file, long size, long lastModified) throws IOException {
+			chunks = new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i < chunks.length; i++) {
+				long position = (long) i * CHUNK_SIZE;
+				chunks[i] = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+			}
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Adding a reference, unless the mapping was released by everyone.
+		 * 
+		 * @return Boolean value weather the mapping can be used.
+		 */
+		boolean retain() {
+			while (true) {
+				int current = references.get();
+				if (current == 0)
+					return false;
+				if (references.compareAndSet(current, current + 1))
+					return true;
+			}
+		}
+
+		/**
+		 * Releasing a reference. The file is unmapped after the last reference.
+		 */
+		public void release() {
+			if (references.decrementAndGet() != 0 || INVOKE_CLEANER == null)
+				return;
+			for (ByteBuffer chunk : chunks) {
+				try {
+					INVOKE_CLEANER.invoke(UNSAFE, chunk);
+				} catch (ReflectiveOperationException e) {
+					// unmapped by the garbage collector
+				}
+			}
+		}
+
+		/**
+		 * Getter for the size of the file.
+		 * 
+		 * @return Size of the mapped file.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Making buffers of a range of the file. The buffers share the mapped
+		 * memory, every response gets its own buffers.
+		 * 
+		 * @param position Position of the range.
+		 * @param length   Length of the range.
+		 * @return Buffers of the range, one per chunk.
+		 */
+		ByteBuffer[] slice(long position, long length) {
+			int first = (int) (position / CHUNK_SIZE);
+			int last = length == 0 ? first : (int) ((position + length - 1) / CHUNK_SIZE);
+			ByteBuffer[] slices = new ByteBuffer[last - first + 1];
+			for (int i = first; i <= last; i++) {
+				long chunkStart = (long) i * CHUNK_SIZE;
+				int from = (int) Math.max(position - chunkStart, 0);
+				int to = (int) Math.min(position + length - chunkStart, chunks[i].capacity());
+				ByteBuffer slice = chunks[i].duplicate();
+				slice.limit(to).position(from);
+				slices[i - first] = slice;
+			}
+			return slices;
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms of the server, exposed in the Prometheus
+ * text format. The counters are {@link LongAdder}s, so the connections never
+ * wait for each other when counting. Values kept by other parts of the server,
+ * e.g. the hits of the {@link FileCache}, are registered as functions and read
+ * when the metrics are requested.
+ * <p>
+ * The latency of a request is recorded in four stages: "queue" from accepting
+ * the connection to a thread or an event loop taking it, "parse" from taking
+ * the connection to the parsed header of its first request, "handle" from the
+ * parsed header to the response being ready for its first byte and "total"
+ * from the parsed header to the written response.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.LatencyHistogram
+ * @version 2021-02-19
+ */
+public class Metrics {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder aborted = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder[] statuses = new LongAdder[HttpStatus.values().length];
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder active = new LongAdder();
+	private final LongAdder shed = new LongAdder();
+	private final LongAdder[] timedOut = new LongAdder[ConnectionLimits.Deadline.values().length];
+	private final LongAdder queued = new LongAdder();
+	private final LatencyHistogram queue = new LatencyHistogram();
+	private final LatencyHistogram parse = new LatencyHistogram();
+	private final LatencyHistogram handle = new LatencyHistogram();
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final List<Registered> registered = new ArrayList<>();
+
+	/**
+	 * Making the metrics with all counters at 0.
+	 */
+	public Metrics() {
+		for (int i = 0; i < statuses.length; i++)
+			statuses[i] = new LongAdder();
+		for (int i = 0; i < timedOut.length; i++)
+			timedOut[i] = new LongAdder();
+	}
+
+	/**
+	 * Counting an accepted connection, which is active until
+	 * {@link #connectionClosed()}.
+	 */
+	public void connectionOpened() {
+		accepted.increment();
+		active.increment();
+	}
+
+	/**
+	 * Counting a closed connection.
+	 */
+	public void connectionClosed() {
+		active.decrement();
+	}
+
+	/**
+	 * Counting a connection which was answered with
+	 * {@link HttpStatus#SERVICE_UNAVAILABLE} and closed, as the server was
+	 * overloaded.
+	 */
+	public void connectionShed() {
+		shed.increment();
+	}
+
+	/**
+	 * Counting a connection which was closed as it missed a deadline.
+	 * 
+	 * @param deadline Deadline the connection missed.
+	 */
+	public void connectionTimedOut(ConnectionLimits.Deadline deadline) {
+		timedOut[deadline.ordinal()].increment();
+	}
+
+	/**
+	 * Counting a connection waiting for a thread or an event loop.
+	 */
+	public void queued() {
+		queued.increment();
+	}
+
+	/**
+	 * Counting a connection which doesn't wait anymore.
+	 */
+	public void dequeued() {
+		queued.decrement();
+	}
+
+	/**
+	 * Counting a connection taken by a thread or an event loop and recording how
+	 * long it waited.
+	 * 
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public void dequeued(long nanos) {
+		queued.decrement();
+		queue.record(nanos);
+	}
+
+	/**
+	 * Recording the time from accepting the connection to the parsed header of its
+	 * first request.
+	 * 
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public void parsed(long nanos) {
+		parse.record(nanos);
+	}
+
+	/**
+	 * Recording a written response.
+	 * 
+	 * @param response    HttpResponse sent to the client.
+	 * @param handleNanos Nanoseconds from the parsed header to the response being
+	 *                    ready.
+	 * @param totalNanos  Nanoseconds from the parsed header to the written
+	 *                    response.
+	 */
+	public void request(HttpResponse response, long handleNanos, long totalNanos) {
+		requests.increment();
+		statuses[response.getStatus().ordinal()].increment();
+		if (!response.isBodyOmitted())
+			bytes.add(response.getContentLength());
+		handle.record(handleNanos);
+		total.record(totalNanos);
+	}
+
+	/**
+	 * Counting a request whose response couldn't be written completely, as the
+	 * connection was closed by the client, missed a deadline or was closed when
+	 * the server shut down.
+	 */
+	public void requestAborted() {
+		aborted.increment();
+	}
+
+	/**
+	 * Registering a counter kept by another part of the server.
+	 * 
+	 * @param name  Name of the metric, e.g. "tiger_cache_hits_total".
+	 * @param help  Description of the metric.
+	 * @param value Function returning the current value.
+	 */
+	public synchronized void addCounter(String name, String help, LongSupplier value) {
+		registered.add(new Registered(name, help, "counter", value));
+	}
+
+	/**
+	 * Registering a gauge kept by another part of the server.
+	 * 
+	 * @param name  Name of the metric, e.g. "tiger_cache_bytes".
+	 * @param help  Description of the metric.
+	 * @param value Function returning the current value.
+	 */
+	public synchronized void addGauge(String name, String help, LongSupplier value) {
+		registered.add(new Registered(name, help, "gauge", value));
+	}
+
+	/**
+	 * Getter for the number of answered requests.
+	 * 
+	 * @return Number of written responses.
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Getter for the number of aborted requests.
+	 * 
+	 * @return Number of responses which couldn't be written completely.
+	 */
+	public long getAborted() {
+		return aborted.sum();
+	}
+
+	/**
+	 * Getter for the number of connections waiting for a thread or an event loop.
+	 * 
+	 * @return Number of waiting connections.
+	 */
+	public long getQueued() {
+		return queued.sum();
+	}
+
+	/**
+	 * Making the Prometheus text format of all metrics.
+	 * 
+	 * @return Metrics in the Prometheus text format.
+	 */
+	public synchronized String format() {
+		StringBuilder out = new StringBuilder(8192);
+		metric(out, "tiger_requests_total", "Answered requests.", "counter", requests.sum());
+		metric(out, "tiger_requests_aborted_total", "Requests whose response couldn't be written completely.",
+				"counter", aborted.sum());
+		metric(out, "tiger_response_bytes_total", "Bytes of the response bodies.", "counter", bytes.sum());
+		out.append("# HELP tiger_responses_total Answered requests by status code.\n");
+		out.append("# TYPE tiger_responses_total counter\n");
+		for (HttpStatus status : HttpStatus.values())
+			out.append("tiger_responses_total{status=\"").append(status.errorCode()).append("\"} ")
+					.append(statuses[status.ordinal()].sum()).append('\n');
+		metric(out, "tiger_connections_accepted_total", "Accepted connections.", "counter", accepted.sum());
+		metric(out, "tiger_connections_active", "Open connections.", "gauge", active.sum());
+		metric(out, "tiger_connections_shed_total", "Connections shed as the server was overloaded.", "counter",
+				shed.sum());
+		out.append("# HELP tiger_connections_timed_out_total Connections closed as they missed a deadline.\n");
+		out.append("# TYPE tiger_connections_timed_out_total counter\n");
+		for (ConnectionLimits.Deadline deadline : ConnectionLimits.Deadline.values())
+			out.append("tiger_connections_timed_out_total{reason=\"").append(deadline.label()).append("\"} ")
+					.append(timedOut[deadline.ordinal()].sum()).append('\n');
+		metric(out, "tiger_executor_queue_depth", "Connections waiting for a thread or an event loop.", "gauge",
+				queued.sum());
+		for (Registered r : registered)
+			metric(out, r.name, r.help, r.type, r.value.getAsLong());
+
+		out.append("# HELP tiger_request_duration_seconds Latency of the requests by stage.\n");
+		out.append("# TYPE tiger_request_duration_seconds histogram\n");
+		long[][] counts = { queue.getCounts(), parse.getCounts(), handle.getCounts(), total.getCounts() };
+		String[] stages = { "queue", "parse", "handle", "total" };
+		long[] sums = { queue.getSum(), parse.getSum(), handle.getSum(), total.getSum() };
+		for (int s = 0; s < stages.length; s++)
+			histogram(out, stages[s], counts[s], sums[s]);
+
+		out.append("# HELP tiger_request_duration_quantile_seconds Quantiles of the latency by stage.\n");
+		out.append("# TYPE tiger_request_duration_quantile_seconds gauge\n");
+		for (int s = 0; s < stages.length; s++)
+			for (double q : QUANTILES)
+				out.append("tiger_request_duration_quantile_seconds{stage=\"").append(stages[s])
+						.append("\",quantile=\"").append(q).append("\"} ")
+						.append(seconds(LatencyHistogram.quantile(counts[s], q))).append('\n');
+		return out.toString();
+	}
+
+	/**
+	 * Appending a metric with a single value.
+	 * 
+	 * @param out   StringBuilder of the metrics.
+	 * @param name  Name of the metric.
+	 * @param help  Description of the metric.
+	 * @param type  Prometheus type of the metric.
+	 * @param value Value of the metric.
+	 */
+	private static void metric(StringBuilder out, String name, String help, String type, long value) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Appending the cumulative buckets of a histogram. The fine buckets are summed
+	 * up to powers of two from 1 microsecond on, to keep the output short.
+	 * 
+	 * @param out    StringBuilder of the metrics.
+	 * @param stage  Stage of the histogram.
+	 * @param counts Count of every bucket.
+	 * @param sum    Sum of the durations in nanoseconds.
+	 */
+	private static void histogram(StringBuilder out, String stage, long[] counts, long sum) {
+		long cumulative = 0;
+		int bucket = 0;
+		for (long le = 1024; bucket < counts.length; le <<= 1) {
+			while (bucket < counts.length && LatencyHistogram.lowerBound(bucket + 1) <= le)
+				cumulative += counts[bucket++];
+			if (bucket == counts.length)
+				break;
+			out.append("tiger_request_duration_seconds_bucket{stage=\"").append(stage).append("\",le=\"")
+					.append(seconds(le)).append("\"} ").append(cumulative).append('\n');
+		}
+		out.append("tiger_request_duration_seconds_bucket{stage=\"").append(stage).append("\",le=\"+Inf\"} ")
+				.append(cumulative).append('\n');
+		out.append("tiger_request_duration_seconds_sum{stage=\"").append(stage).append("\"} ").append(seconds(sum))
+				.append('\n');
+		out.append("tiger_request_duration_seconds_count{stage=\"").append(stage).append("\"} ").append(cumulative)
+				.append('\n');
+	}
+
+	/**
+	 * Converting nanoseconds to seconds.
+	 * 
+	 * @param nanos Duration in nanoseconds.
+	 * @return Duration in seconds.
+	 */
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	/**
+	 * Metric kept by another part of the server.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private static final class Registered {
+		final String name;
+		final String help;
+		final String type;
+		final LongSupplier value;
+
+		/**
+		 * Setting the values of the metric.
+		 * 
+		 * @param name  Name of the metric.
+		 * @param help  Description of the metric.
+		 * @param type  Prometheus type of the metric.
+		 * @param value Function returning the current value.
+		 */
+		Registered(String name, String help, String type, LongSupplier value) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content types of the files by their extension. Text files are read as UTF-8,
+ * so they are announced as UTF-8.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RequestHandler
+ * @version 2021-02-19
+ */
+public class MimeTypes {
+	public static final String DEFAULT = "application/octet-stream";
+	public static final String HTML = "text/html; charset=utf-8";
+
+	private static final Map<String, String> TYPES = Map.ofEntries(Map.entry("html", HTML), Map.entry("htm", HTML),
+			Map.entry("css", "text/css; charset=utf-8"), Map.entry("js", "text/javascript; charset=utf-8"),
+			Map.entry("mjs", "text/javascript; charset=utf-8"), Map.entry("json", "application/json"),
+			Map.entry("xml", "application/xml"), Map.entry("txt", "text/plain; charset=utf-8"),
+			Map.entry("csv", "text/csv; charset=utf-8"), Map.entry("md", "text/markdown; charset=utf-8"),
+			Map.entry("svg", "image/svg+xml"), Map.entry("png", "image/png"), Map.entry("jpg", "image/jpeg"),
+			Map.entry("jpeg", "image/jpeg"), Map.entry("gif", "image/gif"), Map.entry("webp", "image/webp"),
+			Map.entry("ico", "image/x-icon"), Map.entry("avif", "image/avif"), Map.entry("woff", "font/woff"),
+			Map.entry("woff2", "font/woff2"), Map.entry("ttf", "font/ttf"), Map.entry("otf", "font/otf"),
+			Map.entry("mp4", "video/mp4"), Map.entry("webm", "video/webm"), Map.entry("mp3", "audio/mpeg"),
+			Map.entry("ogg", "audio/ogg"), Map.entry("wav", "audio/wav"), Map.entry("pdf", "application/pdf"),
+			Map.entry("zip", "application/zip"), Map.entry("gz", "application/gzip"),
+			Map.entry("wasm", "application/wasm"));
+
+	/**
+	 * Returning the content type of the file.
+	 * 
+	 * @param path Path of the file.
+	 * @return Content type of the file or {@link #DEFAULT} for unknown
+	 *         extensions.
+	 */
+	public static String of(Path path) {
+		String name = path.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot < 0)
+			return DEFAULT;
+		return TYPES.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), DEFAULT);
+	}
+
+	/**
+	 * Removing the parameters of the content type, e.g. "; charset=utf-8".
+	 * 
+	 * @param contentType Content type with parameters.
+	 * @return Content type without parameters.
+	 */
+	public static String withoutParameters(String contentType) {
+		int semicolon = contentType.indexOf(';');
+		return semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of a connection handled by an {@link EventLoop}. The request is read
+ * and the response is written without blocking, whenever the selector reports
+ * the channel as ready. A request which can't be answered from the caches is
+ * answered by a worker of the loop, meanwhile the connection isn't read, so
+ * pipelined requests stay in the buffer until the response is written.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.EventLoop
+ * @version 2021-02-19
+ */
+public class NioConnection {
+	private static final ByteBuffer[] NO_SEPARATOR = { ByteBuffer.allocate(0) };
+
+	private final Logger LOGGER;
+	private final RequestHandler HANDLER;
+	private final ConnectionLimits LIMITS;
+	private final AccessLog ACCESS_LOG;
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final InetAddress address;
+
+	private final EventLoop loop;
+	private RequestParser parser;
+	private int requests;
+	private final ConnectionTimer timer;
+	private final long opened = System.nanoTime();
+
+	// response in progress
+	private ByteBuffer[] out;
+	private ByteBuffer header;
+	private HttpResponse response;
+	private AccessLog.Record record;
+	private long parsed;
+	private long ready;
+	private FileChannel file;
+	private HttpResponse mapped;
+	private long[] ranges;
+	private byte[][] separators;
+	private int part;
+	private long position;
+	private long end;
+	private boolean keepAlive;
+	private boolean handling;
+
+	/**
+	 * Setting up the connection.
+	 * 
+	 * @param logger    {@link Logger} instance.
+	 * @param handler   {@link RequestHandler} making the responses.
+	 * @param limits    {@link ConnectionLimits} of persistent connections.
+	 * @param accessLog {@link AccessLog} of the requests or <code>null</code>.
+	 * @param loop      {@link EventLoop} of the connection, lending the parser.
+	 * @param channel   Non-blocking channel of the connection.
+	 * @param key       SelectionKey of the channel.
+	 */
+	public NioConnection(Logger logger, RequestHandler handler, ConnectionLimits limits, AccessLog accessLog,
+			EventLoop loop, SocketChannel channel, SelectionKey key) {
+		LOGGER = logger;
+		HANDLER = handler;
+		LIMITS = limits;
+		ACCESS_LOG = accessLog;
+		this.loop = loop;
+		this.channel = channel;
+		this.key = key;
+		parser = loop.takeParser();
+		address = channel.socket().getInetAddress();
+		timer = new ConnectionTimer(loop.getTimers(), limits, handler.getMetrics(), this::close);
+		timer.awaitRequest(false);
+		LOGGER.info("Incomming connection from " + address + " port " + channel.socket().getPort());
+		HANDLER.getMetrics().connectionOpened();
+	}
+
+	/**
+	 * Reading the available bytes of the requests. The responses are made as soon
+	 * as the header of a request is complete.
+	 * 
+	 * @throws IOException Error reading from the connection.
+	 */
+	public void read() throws IOException {
+		if (out != null || handling)
+			return;
+		if (channel.read(parser.getBuffer()) < 0) {
+			close();
+			return;
+		}
+		process();
+	}
+
+	/**
+	 * Writing as much of the response as the connection accepts. Requests which
+	 * were sent while the response was written are answered afterwards.
+	 * 
+	 * @throws IOException Error writing to the connection.
+	 */
+	public void write() throws IOException {
+		if (flush())
+			process();
+	}
+
+	/**
+	 * Closing the connection and the file of the response. A response which isn't
+	 * written completely is counted as aborted, a response still being made by a
+	 * worker when it is handed back. The parser is returned to the loop after the
+	 * worker is done with the request.
+	 */
+	public void close() {
+		timer.cancel();
+		if (response != null) {
+			HANDLER.getMetrics().requestAborted();
+			response = null;
+		}
+		closeFile();
+		releaseHeader();
+		if (parser != null) {
+			// a worker still reads the request from the buffer of the parser
+			if (!handling)
+				loop.releaseParser(parser);
+			parser = null;
+			HANDLER.getMetrics().connectionClosed();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't close connection with " + address);
+		}
+	}
+
+	/**
+	 * Getter for the address of the client.
+	 * 
+	 * @return InetAddress of the client.
+	 */
+	public InetAddress getInetAddress() {
+		return address;
+	}
+
+	/**
+	 * Answering the complete requests in the buffer one after another, as long as
+	 * the responses can be written without blocking.
+	 * 
+	 * @throws IOException Error writing to the connection.
+	 */
+	private void process() throws IOException {
+		while (out == null && !handling && channel.isOpen()) {
+			RequestParser.State state = parser.parse();
+			if (state == RequestParser.State.INCOMPLETE) {
+				timer.awaitRequest(!parser.isEmpty());
+				return;
+			}
+
+			requests++;
+			parsed = System.nanoTime();
+			if (requests == 1)
+				HANDLER.getMetrics().parsed(parsed - opened);
+			HttpRequest request = null;
+			if (state == RequestParser.State.COMPLETE) {
+				request = parser.getRequest();
+				if (ACCESS_LOG != null)
+					record = ACCESS_LOG.start(request, address);
+				keepAlive = request.isKeepAlive() && requests < LIMITS.getMaxRequests() && !timer.isDraining();
+				response = HANDLER.handleCached(request, address);
+				if (response == null) {
+					handOver(request);
+					return;
+				}
+			} else {
+				if (state == RequestParser.State.TOO_LARGE)
+					LOGGER.warning("Request header too large from " + address);
+				else
+					LOGGER.warning("Invalid format from " + address + ": " + parser.getRequestLine());
+				if (ACCESS_LOG != null)
+					record = ACCESS_LOG.start(null, address);
+				keepAlive = false;
+				response = HANDLER.error(state);
+			}
+			respond(request);
+		}
+	}
+
+	/**
+	 * Handing the request to a worker of the loop. The connection isn't read
+	 * until the worker handed the response back. If the workers are overloaded,
+	 * the request is answered with {@link HttpStatus#SERVICE_UNAVAILABLE} and the
+	 * connection is closed.
+	 * 
+	 * @param request HttpRequest of the client, which stays in the buffer of the
+	 *                parser.
+	 * @throws IOException Error writing to the connection.
+	 */
+	private void handOver(HttpRequest request) throws IOException {
+		handling = true;
+		key.interestOps(0);
+		timer.received();
+		RequestParser lent = parser;
+		try {
+			loop.getWorkers().execute(() -> {
+				HttpResponse made = HANDLER.handle(request, address);
+				loop.complete(() -> handed(lent, request, made));
+			});
+		} catch (RejectedExecutionException e) {
+			handling = false;
+			keepAlive = false;
+			response = HANDLER.error(HttpStatus.SERVICE_UNAVAILABLE);
+			respond(request);
+		}
+	}
+
+	/**
+	 * Writing the response made by a worker, called by the thread of the loop.
+	 * The requests sent meanwhile are answered afterwards. If the connection was
+	 * closed meanwhile, the file of the response is closed and the parser is
+	 * returned to the loop.
+	 * 
+	 * @param lent    RequestParser holding the request.
+	 * @param request HttpRequest of the client.
+	 * @param made    HttpResponse made by the worker.
+	 */
+	private void handed(RequestParser lent, HttpRequest request, HttpResponse made) {
+		handling = false;
+		if (parser == null) {
+			loop.releaseParser(lent);
+			HANDLER.getMetrics().requestAborted();
+			made.release();
+			try {
+				if (made.getFile() != null)
+					made.getFile().close();
+			} catch (IOException e) {
+				LOGGER.warning("Couldn't close file for " + address);
+			}
+			return;
+		}
+		response = made;
+		try {
+			respond(request);
+			process();
+		} catch (IOException e) {
+			LOGGER.warning("Error handling connection with " + address);
+			close();
+		}
+	}
+
+	/**
+	 * Starting to write the response of the current request. The request is
+	 * removed from the buffer of the parser.
+	 * 
+	 * @param request HttpRequest of the client or <code>null</code> if the
+	 *                request is invalid.
+	 * @throws IOException Error writing to the connection.
+	 */
+	private void respond(HttpRequest request) throws IOException {
+		if (keepAlive && request != null && request.getVersion().equals(HttpRequest.HTTP_1_0))
+			response.addHeader(HttpResponse.KEEP_ALIVE);
+		if (!keepAlive)
+			response.addHeader(HttpResponse.CLOSE);
+		parser.next();
+		ready = System.nanoTime();
+
+		out = response.getBuffers(loop.getBuffers());
+		header = out[0];
+		mapped = response.isMapped() ? response : null;
+		file = response.getFile();
+		if (response.isBodyOmitted())
+			closeFile();
+		ranges = response.getRanges();
+		separators = response.getSeparators();
+		part = 0;
+		position = 0;
+		end = 0;
+		key.interestOps(SelectionKey.OP_WRITE);
+		timer.awaitWrite(response.isBodyOmitted() ? 0 : response.getContentLength());
+		flush();
+	}
+
+	/**
+	 * Writing as much of the response as the connection accepts. After the header
+	 * and the body in memory, the ranges of the file are transferred one after
+	 * another, each after its separator. A memory mapped body is written together
+	 * with the header from the buffers of {@link HttpResponse#getBuffers(BufferPool)}.
+	 * 
+	 * @return Boolean value weather the response was written completely.
+	 * @throws IOException Error writing to the connection.
+	 */
+	private boolean flush() throws IOException {
+		while (true) {
+			channel.write(out);
+			if (out[out.length - 1].hasRemaining())
+				return false;
+
+			while (position < end) {
+				long transferred = file.transferTo(position, end - position, channel);
+				if (transferred == 0 && position >= file.size())
+					throw new IOException("file is shorter than announced");
+				if (transferred == 0)
+					return false;
+				position += transferred;
+			}
+			if (file == null || part > ranges.length / 2)
+				break;
+
+			out = separators == null ? NO_SEPARATOR : new ByteBuffer[] { ByteBuffer.wrap(separators[part]) };
+			if (part < ranges.length / 2) {
+				position = ranges[2 * part];
+				end = position + ranges[2 * part + 1];
+			}
+			part++;
+		}
+		closeFile();
+		releaseHeader();
+
+		HANDLER.getMetrics().request(response, ready - parsed, System.nanoTime() - parsed);
+		if (record != null)
+			ACCESS_LOG.log(record, response);
+		record = null;
+		response = null;
+		out = null;
+		if (!keepAlive || timer.isDraining()) {
+			close();
+			return false;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		return true;
+	}
+
+	/**
+	 * Closing the file or releasing the mapped file of the response.
+	 */
+	private void closeFile() {
+		if (mapped != null)
+			mapped.release();
+		mapped = null;
+		try {
+			if (file != null)
+				file.close();
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't close file for " + address);
+		}
+		file = null;
+	}
+
+	/**
+	 * Returning the buffer of the header to the pool of the loop.
+	 */
+	private void releaseHeader() {
+		loop.getBuffers().release(header);
+		header = null;
+	}
+}
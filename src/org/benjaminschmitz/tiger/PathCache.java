@@ -0,0 +1,352 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared cache of the files resolved for the request targets. Resolving a
+ * target cuts off its query, converts it to an absolute path, maps a folder to
+ * its "index.html" and checks that the real path of the file, with all
+ * symbolic links followed, is within the real path of the web root, which
+ * takes several allocations and system calls. The cache is keyed by the path
+ * of the target, so "/style.css?v=2" shares the entry of "/style.css".
+ * <p>
+ * Targets outside of the web root and targets whose file couldn't be read are
+ * kept as "forbidden" and "not found" for a short time only, so repeated
+ * requests for them don't touch the file system, but scanners can't fill the
+ * cache with entries that never expire. A full cache rather removes one of
+ * these entries than the entry of a file. A cached file is resolved again
+ * after it couldn't be read, so the cache follows changes of the web root by
+ * itself. A {@link FolderWatcher} can invalidate the entries of changed files
+ * right away.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.RequestHandler
+ * @version 2021-02-19
+ */
+public class PathCache {
+	public static final int MAX_TARGET_LENGTH = 1024;
+	private static final int EVICTION_SAMPLES = 8;
+
+	private final Path folder;
+	private final Path realFolder;
+	private final int maxEntries;
+	private final long negativeNanos;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Initialising the cache. A cache with {@code maxEntries} of 0 resolves every
+	 * target again.
+	 * 
+	 * @param folder         Web root of the files.
+	 * @param maxEntries     Maximum number of cached targets.
+	 * @param negativeMillis Milliseconds a target is kept as not found.
+	 */
+	public PathCache(Path folder, int maxEntries, long negativeMillis) {
+		if (maxEntries < 0 || negativeMillis < 0)
+			throw new IllegalArgumentException("path cache settings must not be negative");
+		this.folder = folder.toAbsolutePath().normalize();
+		Path real;
+		try {
+			real = this.folder.toRealPath();
+		} catch (IOException e) {
+			real = this.folder;
+		}
+		realFolder = real;
+		this.maxEntries = maxEntries;
+		negativeNanos = TimeUnit.MILLISECONDS.toNanos(negativeMillis);
+	}
+
+	/**
+	 * Cutting off the query and the fragment of the request target.
+	 * 
+	 * @param target Target of the request, e.g. "/index.html?v=2".
+	 * @return Path of the target, e.g. "/index.html".
+	 */
+	public static String pathOf(String target) {
+		for (int i = 0; i < target.length(); i++) {
+			char c = target.charAt(i);
+			if (c == '?' || c == '#')
+				return target.substring(0, i);
+		}
+		return target;
+	}
+
+	/**
+	 * Returning the file of the request target.
+	 * 
+	 * @param target Target of the request, e.g. "/index.html".
+	 * @return Entry of the target.
+	 */
+	public Entry resolve(String target) {
+		target = pathOf(target);
+		Entry entry = lookup(target);
+		if (entry != null)
+			return entry;
+
+		misses.increment();
+		entry = resolveUncached(target);
+		put(target, entry);
+		return entry;
+	}
+
+	/**
+	 * Returning the file of the request target if it is cached, without touching
+	 * the file system.
+	 * 
+	 * @param target Target of the request, e.g. "/index.html".
+	 * @return Entry of the target or <code>null</code> if it isn't cached.
+	 */
+	public Entry lookup(String target) {
+		Entry entry = entries.get(pathOf(target));
+		if (entry == null || entry.expires != 0 && entry.expires - System.nanoTime() <= 0)
+			return null;
+		hits.increment();
+		return entry;
+	}
+
+	/**
+	 * Marking the file of the target as not found. The target is resolved again
+	 * after the negative time to live.
+	 * 
+	 * @param target Target of the request.
+	 * @param entry  Entry of the target, whose file couldn't be read.
+	 * @return Entry of the target with {@link HttpStatus#NOT_FOUND}.
+	 */
+	public Entry notFound(String target, Entry entry) {
+		target = pathOf(target);
+		Entry missing = negative(entry.path, entry.name, entry.relative, HttpStatus.NOT_FOUND);
+		if (negativeNanos > 0)
+			put(target, missing);
+		else
+			entries.remove(target);
+		return missing;
+	}
+
+	/**
+	 * Removing all entries, e.g. after the web root changed.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Removing the entries of the targets resolved to the file or to a file below
+	 * the folder, e.g. after it was created or deleted.
+	 * 
+	 * @param path Absolute path of the changed file or folder.
+	 */
+	public void invalidate(Path path) {
+		if (path.equals(folder)) {
+			clear();
+			return;
+		}
+		entries.values().removeIf(entry -> entry.path != null && entry.path.startsWith(path));
+	}
+
+	/**
+	 * Resolving the file of the target without the cache. The file must exist, as
+	 * only the real path of an existing file can be checked against the web root.
+	 * 
+	 * @param target Path of the request target.
+	 * @return Entry of the target.
+	 */
+	private Entry resolveUncached(String target) {
+		if (!target.startsWith("/"))
+			return negative(null, target, null, HttpStatus.FORBIDDEN);
+		String name = target.substring(1);
+
+		if (name.endsWith(File.separator))
+			name = name + "index.html";
+
+		Path path;
+		try {
+			path = HandleConnection.relativeUriToPath(folder, name);
+		} catch (IllegalArgumentException | FileSystemNotFoundException e) {
+			return negative(null, name, null, HttpStatus.FORBIDDEN);
+		}
+
+		if (Files.isDirectory(path))
+			path = path.resolve("index.html");
+		Path relative = folder.relativize(path);
+		try {
+			if (!path.toRealPath().startsWith(realFolder))
+				return negative(null, name, null, HttpStatus.FORBIDDEN);
+		} catch (IOException e) {
+			return negative(path, name, relative, HttpStatus.NOT_FOUND);
+		}
+		return new Entry(path, name, relative, null, 0);
+	}
+
+	/**
+	 * Making an entry which expires after the negative time to live.
+	 * 
+	 * @param path     Absolute path of the file or <code>null</code>.
+	 * @param name     Target without the leading slash.
+	 * @param relative Path of the file relative to the web root or
+	 *                 <code>null</code>.
+	 * @param status   Status of the error response.
+	 * @return Entry of the target.
+	 */
+	private Entry negative(Path path, String name, Path relative, HttpStatus status) {
+		// an expiry of 0 would never expire
+		return new Entry(path, name, relative, status, System.nanoTime() + negativeNanos | 1);
+	}
+
+	/**
+	 * Adding the entry to the cache. If the cache is full, an entry is removed
+	 * without a lock, preferably one of the first few entries which expires, so a
+	 * file isn't pushed out by missing or forbidden targets. Very long targets
+	 * and, without a negative time to live, entries which expire aren't cached.
+	 * 
+	 * @param target Path of the request target.
+	 * @param entry  Entry of the target.
+	 */
+	private void put(String target, Entry entry) {
+		if (maxEntries == 0 || target.length() > MAX_TARGET_LENGTH || entry.expires != 0 && negativeNanos == 0)
+			return;
+		if (entries.size() >= maxEntries && !entries.containsKey(target)) {
+			Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+			Map.Entry<String, Entry> victim = null;
+			for (int i = 0; i < EVICTION_SAMPLES && it.hasNext(); i++) {
+				Map.Entry<String, Entry> candidate = it.next();
+				if (victim == null || victim.getValue().expires == 0 && candidate.getValue().expires != 0)
+					victim = candidate;
+				if (victim.getValue().expires != 0)
+					break;
+			}
+			if (victim != null)
+				entries.remove(victim.getKey(), victim.getValue());
+		}
+		entries.put(target, entry);
+	}
+
+	/**
+	 * Getter for the number of targets resolved by the cache.
+	 * 
+	 * @return Number of cache hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Getter for the number of targets resolved on the file system.
+	 * 
+	 * @return Number of cache misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Getter for the number of cached targets.
+	 * 
+	 * @return Number of entries.
+	 */
+	public int getEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * Resolved file of a request target.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public static final class Entry {
+		final Path path;
+		final String name;
+		final Path relative;
+		final HttpStatus status;
+		final long expires;
+
+		/**
+		 * Setting the resolved file.
+		 * 
+		 * @param path     Absolute path of the file or <code>null</code>.
+		 * @param name     Target without the leading slash, as shown on the error
+		 *                 page.
+		 * @param relative Path of the file relative to the web root or
+		 *                 <code>null</code>.
+		 * @param status   <code>null</code> for a file, otherwise the status of
+		 *                 the error response.
+		 * @param expires  {@link System#nanoTime()} when the entry expires or 0 if
+		 *                 it doesn't.
+		 */
+		Entry(Path path, String name, Path relative, HttpStatus status, long expires) {
+			this.path = path;
+			this.name = name;
+			this.relative = relative;
+			this.status = status;
+			this.expires = expires;
+		}
+
+		/**
+		 * Getter for the absolute path of the file.
+		 * 
+		 * @return Path of the file or <code>null</code> if the target is
+		 *         forbidden.
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Getter for the target without the leading slash.
+		 * 
+		 * @return Name of the file as requested, e.g. "css/style.css".
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Getter for the path of the file relative to the web root.
+		 * 
+		 * @return Relative path of the file or <code>null</code> if the target is
+		 *         forbidden.
+		 */
+		public Path getRelative() {
+			return relative;
+		}
+
+		/**
+		 * Getter for the status of the error response.
+		 * 
+		 * @return {@link HttpStatus#FORBIDDEN}, {@link HttpStatus#NOT_FOUND} or
+		 *         <code>null</code> if the file can be read.
+		 */
+		public HttpStatus getStatus() {
+			return status;
+		}
+	}
+}
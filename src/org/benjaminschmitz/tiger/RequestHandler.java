@@ -0,0 +1,385 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Making the response for a request. The handler doesn't know anything about
+ * the connection, so it is shared by all connections of the server, no matter
+ * if they are handled by a thread or by an event loop.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.HandleConnection
+ * @see org.benjaminschmitz.tiger.EventLoop
+ * @version 2021-02-19
+ */
+public class RequestHandler {
+	private static final byte[] HTML_TYPE = HttpResponse.field("Content-Type", MimeTypes.HTML);
+	private static final byte[] NO_STORE = HttpResponse.field("Cache-Control", "no-store");
+	private static final byte[] VARY_ENCODING = HttpResponse.field("Vary", "Accept-Encoding");
+	private static final byte[] ACCEPT_RANGES = HttpResponse.field("Accept-Ranges", "bytes");
+
+	private final Logger LOGGER;
+	private final ErrorPageGenerator GENERATOR;
+	private final PathCache PATHS;
+	private final FileCache CACHE;
+	private final MappedFileCache MAPPED;
+	private final Compression COMPRESSION;
+	private final CacheControl CACHE_CONTROL;
+	private final Metrics METRICS;
+	private final String METRICS_PATH;
+
+	/**
+	 * Setting all the needed values.
+	 * 
+	 * @param logger       {@link Logger} instance.
+	 * @param generator    {@link ErrorPageGenerator} for error pages.
+	 * @param paths        {@link PathCache} resolving the files of the targets.
+	 * @param cache        {@link FileCache} for the content of the files.
+	 * @param mapped       {@link MappedFileCache} for the large files.
+	 * @param compression  {@link Compression} of the responses.
+	 * @param cacheControl {@link CacheControl} rules of the responses.
+	 * @param metrics      {@link Metrics} of the server.
+	 * @param metricsPath  Request target of the metrics, e.g. "/metrics", or
+	 *                     <code>null</code> if the metrics aren't served.
+	 */
+	public RequestHandler(Logger logger, ErrorPageGenerator generator, PathCache paths, FileCache cache,
+			MappedFileCache mapped, Compression compression, CacheControl cacheControl, Metrics metrics,
+			String metricsPath) {
+		LOGGER = logger;
+		GENERATOR = generator;
+		PATHS = paths;
+		CACHE = cache;
+		MAPPED = mapped;
+		COMPRESSION = compression;
+		CACHE_CONTROL = cacheControl;
+		METRICS = metrics;
+		METRICS_PATH = metricsPath;
+	}
+
+	/**
+	 * Making the response for a request.
+	 * 
+	 * @param request HttpRequest of the client.
+	 * @param remote  Address of the client.
+	 * @return HttpResponse to be sent to the client.
+	 */
+	public HttpResponse handle(HttpRequest request, InetAddress remote) {
+		HttpResponse response = handle(request, PathCache.pathOf(request.getTarget()), remote, true);
+		if (request.isHead())
+			response.omitBody();
+		return response;
+	}
+
+	/**
+	 * Making the response for a request from the caches only, e.g. on an event
+	 * loop, which must not wait for the disk. The request can't be answered if
+	 * its target isn't resolved yet, its file isn't cached or isn't trusted
+	 * without looking at it or the compressed variant the client accepts isn't
+	 * made yet.
+	 * 
+	 * @param request HttpRequest of the client.
+	 * @param remote  Address of the client.
+	 * @return HttpResponse to be sent to the client or <code>null</code> if the
+	 *         request must be answered with {@link #handle(HttpRequest, InetAddress)}
+	 *         on a thread which may block.
+	 */
+	public HttpResponse handleCached(HttpRequest request, InetAddress remote) {
+		HttpResponse response = handle(request, PathCache.pathOf(request.getTarget()), remote, false);
+		if (response != null && request.isHead())
+			response.omitBody();
+		return response;
+	}
+
+	/**
+	 * Making the response for the request target.
+	 * 
+	 * @param request HttpRequest of the client.
+	 * @param target  Target of the request without its query, e.g. "/index.html".
+	 * @param remote  Address of the client.
+	 * @param block   Boolean value weather the file system may be used.
+	 * @return HttpResponse to be sent to the client or <code>null</code> if it
+	 *         can't be made without the file system.
+	 */
+	private HttpResponse handle(HttpRequest request, String target, InetAddress remote, boolean block) {
+		if (target.equals(METRICS_PATH)) {
+			HttpResponse response = new HttpResponse(HttpStatus.OK, METRICS.format());
+			response.addHeader("Content-Type", Metrics.CONTENT_TYPE);
+			response.addHeader(NO_STORE);
+			return response;
+		}
+		PathCache.Entry resolved = block ? PATHS.resolve(target) : PATHS.lookup(target);
+		if (resolved == null)
+			return null;
+		if (resolved.getStatus() == HttpStatus.FORBIDDEN) {
+			LOGGER.warning("Invalid format from " + remote + ": " + target);
+			return error(HttpStatus.FORBIDDEN);
+		}
+		Path path = resolved.getPath();
+		if (resolved.getStatus() == HttpStatus.NOT_FOUND) {
+			LOGGER.warning("Error getting path " + path + " with " + remote);
+			return notFound(resolved);
+		}
+
+		String contentType = MimeTypes.of(path);
+		FileChannel file = null;
+		MappedFileCache.Mapping mapping = null;
+		try {
+			FileCache.Entry entry = block ? CACHE.get(path) : CACHE.peek(path);
+			HttpResponse response;
+			if (entry != null) {
+				response = cached(request, path, entry, contentType, block);
+				if (response == null)
+					return null;
+			} else if (!block) {
+				return null;
+			} else {
+				long lastModified = Files.getLastModifiedTime(path).toMillis();
+				Compression.Encoding encoding = COMPRESSION.negotiate(request, contentType, Long.MAX_VALUE);
+				Path sibling = encoding == null ? null : COMPRESSION.precompressed(path, lastModified, encoding);
+				Path source = sibling != null ? sibling : path;
+				mapping = MAPPED.acquire(source);
+				if (mapping == null)
+					file = FileChannel.open(source, StandardOpenOption.READ);
+				long size = mapping != null ? mapping.getSize() : file.size();
+				String etag = CacheControl.etag(size, lastModified, sibling != null ? encoding : null);
+				String date = CacheControl.formatDate(lastModified);
+				if (CacheControl.isNotModified(request, etag, lastModified)) {
+					if (file != null)
+						file.close();
+					if (mapping != null)
+						mapping.release();
+					mapping = null;
+					response = new HttpResponse(HttpStatus.NOT_MODIFIED, new byte[0]);
+				} else {
+					MappedFileCache.Mapping body = mapping;
+					mapping = null;
+					response = ranged(request, null, file, body, size, etag, date, contentType);
+					if (sibling != null)
+						response.addHeader("Content-Encoding", encoding.toString());
+				}
+				response.addHeader("ETag", etag);
+				response.addHeader("Last-Modified", date);
+			}
+			if (COMPRESSION.isCompressible(contentType))
+				response.addHeader(VARY_ENCODING);
+			String cacheControl = CACHE_CONTROL.get(resolved.getRelative());
+			if (cacheControl != null)
+				response.addHeader("Cache-Control", cacheControl);
+			return response;
+		} catch (Exception e) {
+			LOGGER.warning("Error getting path " + path + " with " + remote);
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e1) {
+					LOGGER.warning("Couldn't close file " + path);
+				}
+			}
+			if (mapping != null)
+				mapping.release();
+			return notFound(PATHS.notFound(target, resolved));
+		}
+	}
+
+	/**
+	 * Making the response for a cached file. The compressed variant is made on the
+	 * first request accepting its encoding and kept in the cache. If the client
+	 * already has the variant, the response has no body.
+	 * 
+	 * @param request     HttpRequest of the client.
+	 * @param path        Path of the file.
+	 * @param entry       Cached entry of the file.
+	 * @param contentType Content type of the file.
+	 * @param block       Boolean value weather the variant may be made.
+	 * @return HttpResponse with the content, its compressed variant or
+	 *         {@link HttpStatus#NOT_MODIFIED} or <code>null</code> if the variant
+	 *         isn't made yet and may not be made.
+	 * @throws IOException Error reading the pre-compressed file.
+	 */
+	private HttpResponse cached(HttpRequest request, Path path, FileCache.Entry entry, String contentType,
+			boolean block) throws IOException {
+		byte[] content = entry.getContent();
+		Compression.Encoding encoding = COMPRESSION.negotiate(request, contentType, content.length);
+		byte[] variant = content;
+		if (encoding != null) {
+			variant = entry.getVariant(encoding);
+			if (variant == null && !block)
+				return null;
+			if (variant == null) {
+				variant = COMPRESSION.encode(path, entry.getLastModified(), content, encoding);
+				CACHE.putVariant(path, entry, encoding, variant);
+			}
+			if (variant == content)
+				encoding = null;
+		}
+
+		String etag = entry.getETag(encoding);
+		HttpResponse response;
+		if (CacheControl.isNotModified(request, etag, entry.getLastModified())) {
+			response = new HttpResponse(HttpStatus.NOT_MODIFIED, new byte[0]);
+		} else {
+			response = ranged(request, variant, null, null, variant.length, etag, entry.getLastModifiedDate(),
+					contentType);
+			if (encoding != null)
+				response.addHeader("Content-Encoding", encoding.toString());
+		}
+		response.addHeader("ETag", etag);
+		response.addHeader("Last-Modified", entry.getLastModifiedDate());
+		return response;
+	}
+
+	/**
+	 * Making the response with the whole body or with the requested ranges of it.
+	 * The ranges of a file are read from the file or its mapping when the response
+	 * is written.
+	 * 
+	 * @param request      HttpRequest of the client.
+	 * @param content      Body in memory or <code>null</code>.
+	 * @param file         File of the body or <code>null</code>.
+	 * @param mapping      Mapped file of the body with a reference for the
+	 *                     response or <code>null</code>.
+	 * @param size         Size of the body.
+	 * @param etag         ETag of the body.
+	 * @param lastModified Last-Modified date of the body.
+	 * @param contentType  Content type of the file.
+	 * @return HttpResponse with {@link HttpStatus#OK},
+	 *         {@link HttpStatus#PARTIAL_CONTENT} or
+	 *         {@link HttpStatus#RANGE_NOT_SATISFIABLE}.
+	 * @throws IOException Error closing the file.
+	 */
+	private HttpResponse ranged(HttpRequest request, byte[] content, FileChannel file, MappedFileCache.Mapping mapping,
+			long size, String etag, String lastModified, String contentType) throws IOException {
+		ByteRanges ranges = ByteRanges.of(request, etag, lastModified, size);
+		HttpResponse response;
+		if (ranges == null) {
+			if (mapping != null)
+				response = new HttpResponse(HttpStatus.OK, mapping, new long[] { 0, size }, null);
+			else
+				response = file != null ? new HttpResponse(HttpStatus.OK, file, size)
+						: new HttpResponse(HttpStatus.OK, content);
+			response.addHeader("Content-Type", contentType);
+		} else if (!ranges.isSatisfiable()) {
+			if (mapping != null)
+				mapping.release();
+			if (file != null)
+				file.close();
+			response = new HttpResponse(HttpStatus.RANGE_NOT_SATISFIABLE, new byte[0]);
+			ranges.addHeaders(response, contentType);
+		} else {
+			byte[][] separators = ranges.getSeparators(contentType);
+			if (mapping != null)
+				response = new HttpResponse(HttpStatus.PARTIAL_CONTENT, mapping, ranges.getRanges(), separators);
+			else
+				response = file != null
+						? new HttpResponse(HttpStatus.PARTIAL_CONTENT, file, ranges.getRanges(), separators)
+						: new HttpResponse(HttpStatus.PARTIAL_CONTENT, ranges.slice(content, separators));
+			ranges.addHeaders(response, contentType);
+		}
+		response.addHeader(ACCEPT_RANGES);
+		return response;
+	}
+
+	/**
+	 * Making the response with the error page for a request whose header couldn't
+	 * be parsed.
+	 * 
+	 * @param state {@link RequestParser.State#INVALID} or
+	 *              {@link RequestParser.State#TOO_LARGE}.
+	 * @return HttpResponse with {@link HttpStatus#BAD_REQUEST} or
+	 *         {@link HttpStatus#REQUEST_HEADER_FIELDS_TOO_LARGE}.
+	 */
+	public HttpResponse error(RequestParser.State state) {
+		return error(state == RequestParser.State.TOO_LARGE ? HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE
+				: HttpStatus.BAD_REQUEST);
+	}
+
+	/**
+	 * Making the response with the error page for the status.
+	 * 
+	 * @param status HttpStatus of the failed request.
+	 * @return HttpResponse with the error page.
+	 */
+	public HttpResponse error(HttpStatus status) {
+		HttpResponse response = new HttpResponse(status, GENERATOR.errorPage(status));
+		response.addHeader(HTML_TYPE);
+		return response;
+	}
+
+	/**
+	 * Making the response with the error page for a file which couldn't be read.
+	 * 
+	 * @param resolved Entry of the target.
+	 * @return HttpResponse with the error page.
+	 */
+	private HttpResponse notFound(PathCache.Entry resolved) {
+		HttpResponse response = new HttpResponse(HttpStatus.NOT_FOUND,
+				GENERATOR.errorPage(HttpStatus.NOT_FOUND, resolved.getName()));
+		response.addHeader(HTML_TYPE);
+		return response;
+	}
+
+	/**
+	 * Loading the files of the targets into the file cache, so the first requests
+	 * don't have to wait for the disk. Targets which can't be resolved or whose
+	 * files are too large for the cache are skipped.
+	 * 
+	 * @param targets Targets of the requests, e.g. "/index.html".
+	 * @return Number of loaded files.
+	 */
+	public int preload(List<String> targets) {
+		int loaded = 0;
+		for (String target : targets) {
+			PathCache.Entry resolved = PATHS.resolve(target);
+			if (resolved.getStatus() != null)
+				continue;
+			try {
+				if (CACHE.get(resolved.getPath()) != null)
+					loaded++;
+			} catch (IOException e) {
+				PATHS.notFound(target, resolved);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Getter for the file cache.
+	 * 
+	 * @return FileCache of the handler.
+	 */
+	public FileCache getCache() {
+		return CACHE;
+	}
+
+	/**
+	 * Getter for the metrics.
+	 * 
+	 * @return Metrics of the server.
+	 */
+	public Metrics getMetrics() {
+		return METRICS;
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser for the header of HTTP/1.x requests. The parser works directly on the
+ * ASCII bytes of its buffer and reuses the buffer and the {@link HttpRequest}
+ * for every request, so parsing doesn't allocate anything.
+ * <p>
+ * The bytes of the connection are read into {@link #getBuffer()} and
+ * {@link #parse()} is called until the header is complete. After the response
+ * was made, {@link #next()} removes the request from the buffer, keeping the
+ * bytes of pipelined requests.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.HttpRequest
+ * @version 2021-02-19
+ */
+public class RequestParser {
+	public static final int MAX_HEADER_SIZE = 8192;
+	public static final int MAX_HEADER_FIELDS = 64;
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final ByteBuffer buffer;
+	private final HttpRequest request = new HttpRequest(MAX_HEADER_FIELDS);
+	private int scanned;
+	private int headerLength;
+
+	/**
+	 * Making a parser with a heap buffer of {@link #MAX_HEADER_SIZE} bytes.
+	 */
+	public RequestParser() {
+		this(ByteBuffer.allocate(MAX_HEADER_SIZE));
+	}
+
+	/**
+	 * Making a parser with the given buffer. The capacity of the buffer limits the
+	 * size of the header.
+	 * 
+	 * @param buffer Buffer for the received bytes.
+	 */
+	public RequestParser(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Getter for the buffer. The received bytes are put at the position of the
+	 * buffer.
+	 * 
+	 * @return ByteBuffer of the parser.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Parsing the header of the request in the buffer.
+	 * 
+	 * @return State of the request.
+	 */
+	public State parse() {
+		if (headerLength > 0)
+			return State.COMPLETE;
+
+		int length = buffer.position();
+		int end = -1;
+		for (int i = Math.max(scanned, 1); i < length; i++) {
+			if (buffer.get(i) != '\n')
+				continue;
+			byte previous = buffer.get(i - 1);
+			if (previous == '\n' || (previous == '\r' && i >= 2 && buffer.get(i - 2) == '\n')) {
+				end = i + 1;
+				break;
+			}
+		}
+		if (end < 0) {
+			scanned = length;
+			return buffer.hasRemaining() ? State.INCOMPLETE : State.TOO_LARGE;
+		}
+
+		headerLength = end;
+		int lineEnd = parseRequestLine(end);
+		if (lineEnd < 0)
+			return State.INVALID;
+		return parseFields(lineEnd, end);
+	}
+
+	/**
+	 * Getter for the parsed request. Only valid after {@link #parse()} returned
+	 * {@link State#COMPLETE}.
+	 * 
+	 * @return HttpRequest of the parser.
+	 */
+	public HttpRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * Removing the parsed request from the buffer. The bytes received after the
+	 * header are moved to the start of the buffer.
+	 */
+	public void next() {
+		int length = buffer.position();
+		int consumed = headerLength > 0 ? headerLength : length;
+		buffer.limit(length);
+		buffer.position(consumed);
+		buffer.compact();
+		scanned = 0;
+		headerLength = 0;
+	}
+
+	/**
+	 * Removing all received bytes.
+	 */
+	public void reset() {
+		buffer.clear();
+		scanned = 0;
+		headerLength = 0;
+	}
+
+	/**
+	 * Checks weather the buffer doesn't hold any bytes of a request.
+	 * 
+	 * @return Boolean value weather the buffer is empty.
+	 */
+	public boolean isEmpty() {
+		return buffer.position() == 0;
+	}
+
+	/**
+	 * Checks weather the buffer starts with the request line of the HTTP/2
+	 * connection preface, which a client knowing that the server speaks HTTP/2
+	 * sends instead of a request.
+	 * 
+	 * @return Boolean value weather the connection is a HTTP/2 connection.
+	 */
+	public boolean isPreface() {
+		if (buffer.position() < PREFACE.length)
+			return false;
+		for (int i = 0; i < PREFACE.length; i++)
+			if (buffer.get(i) != PREFACE[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returning the first line of the received bytes for logging invalid
+	 * requests.
+	 * 
+	 * @return First line of the request.
+	 */
+	public String getRequestLine() {
+		int end = 0;
+		while (end < buffer.position() && buffer.get(end) != '\r' && buffer.get(end) != '\n')
+			end++;
+		byte[] bytes = new byte[Math.min(end, 256)];
+		buffer.get(0, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parsing the request line "method SP target SP version".
+	 * 
+	 * @param end Index after the header.
+	 * @return Index after the request line or -1 if it is invalid.
+	 */
+	private int parseRequestLine(int end) {
+		int i = 0;
+		int methodStart = i;
+		while (i < end && isTokenChar(buffer.get(i)))
+			i++;
+		int methodEnd = i;
+		if (methodEnd == methodStart || i >= end || buffer.get(i) != ' ')
+			return -1;
+
+		int targetStart = ++i;
+		while (i < end && buffer.get(i) > ' ' && buffer.get(i) != 127)
+			i++;
+		int targetEnd = i;
+		if (targetEnd == targetStart || i >= end || buffer.get(i) != ' ')
+			return -1;
+
+		int versionStart = ++i;
+		if (versionStart + 8 > end || buffer.get(versionStart) != 'H' || buffer.get(versionStart + 1) != 'T'
+				|| buffer.get(versionStart + 2) != 'T' || buffer.get(versionStart + 3) != 'P'
+				|| buffer.get(versionStart + 4) != '/' || buffer.get(versionStart + 5) != '1'
+				|| buffer.get(versionStart + 6) != '.')
+			return -1;
+		byte minor = buffer.get(versionStart + 7);
+		if (minor < '0' || minor > '9')
+			return -1;
+		i = skipLineEnd(versionStart + 8, end);
+		if (i < 0)
+			return -1;
+
+		request.set(buffer, methodStart, methodEnd, targetStart, targetEnd, minor == '0');
+		return i;
+	}
+
+	/**
+	 * Parsing the header fields "name: value" up to the empty line.
+	 * 
+	 * @param start Index after the request line.
+	 * @param end   Index after the header.
+	 * @return {@link State#COMPLETE}, {@link State#INVALID} or
+	 *         {@link State#TOO_LARGE} if there are too many fields.
+	 */
+	private State parseFields(int start, int end) {
+		int i = start;
+		while (i < end && buffer.get(i) != '\r' && buffer.get(i) != '\n') {
+			int nameStart = i;
+			while (i < end && isTokenChar(buffer.get(i)))
+				i++;
+			int nameEnd = i;
+			if (nameEnd == nameStart || i >= end || buffer.get(i) != ':')
+				return State.INVALID;
+			i++;
+
+			while (i < end && (buffer.get(i) == ' ' || buffer.get(i) == '\t'))
+				i++;
+			int valueStart = i;
+			while (i < end && buffer.get(i) != '\r' && buffer.get(i) != '\n')
+				i++;
+			int valueEnd = i;
+			while (valueEnd > valueStart && (buffer.get(valueEnd - 1) == ' ' || buffer.get(valueEnd - 1) == '\t'))
+				valueEnd--;
+
+			i = skipLineEnd(i, end);
+			if (i < 0)
+				return State.INVALID;
+			if (!request.addField(nameStart, nameEnd, valueStart, valueEnd))
+				return State.TOO_LARGE;
+		}
+		return State.COMPLETE;
+	}
+
+	/**
+	 * Skipping the "\r\n" or "\n" at the end of a line.
+	 * 
+	 * @param i   Index of the line end.
+	 * @param end Index after the header.
+	 * @return Index after the line end or -1 if there is no line end.
+	 */
+	private int skipLineEnd(int i, int end) {
+		if (i < end && buffer.get(i) == '\r')
+			i++;
+		if (i < end && buffer.get(i) == '\n')
+			return i + 1;
+		return -1;
+	}
+
+	/**
+	 * Checks weather the byte is allowed in a token, i.e. in a method or in the
+	 * name of a header field.
+	 * 
+	 * @param b Byte to be checked.
+	 * @return Boolean value weather the byte is a token character.
+	 */
+	private static boolean isTokenChar(byte b) {
+		if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9')
+			return true;
+		return switch (b) {
+		case '!', '#', '$', '%', '&', '\'', '*', '+', '-', '.', '^', '_', '`', '|', '~' -> true;
+		default -> false;
+		};
+	}
+
+	/**
+	 * States of the parsed request.
+	 * <p>
+	 * "INCOMPLETE" if more bytes are needed.
+	 * <p>
+	 * "COMPLETE" if the request can be answered.
+	 * <p>
+	 * "TOO_LARGE" if the header doesn't fit into the buffer or has more than
+	 * {@link RequestParser#MAX_HEADER_FIELDS} fields.
+	 * <p>
+	 * "INVALID" if the header isn't a valid HTTP/1.x header.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum State {
+		INCOMPLETE, COMPLETE, TOO_LARGE, INVALID
+	}
+}
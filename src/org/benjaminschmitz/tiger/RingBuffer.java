@@ -0,0 +1,121 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer. Every slot
+ * has a sequence number telling weather it is free for the producer of a
+ * position or filled for the consumer, so producers only compete for the tail
+ * with a compare-and-set and never wait for each other.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.Logger
+ * @param <E> Type of the elements.
+ * @version 2021-02-19
+ */
+public final class RingBuffer<E> {
+	private final Object[] elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+
+	/**
+	 * Making an empty queue. The capacity is rounded up to a power of two of at
+	 * least two.
+	 * 
+	 * @param capacity Minimum number of elements the queue can hold.
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		elements = new Object[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+		mask = size - 1;
+	}
+
+	/**
+	 * Adding the element to the queue without waiting. Can be called by any
+	 * thread.
+	 * 
+	 * @param element Element to be added, must not be <code>null</code>.
+	 * @return Boolean value weather the element was added, <code>false</code> if
+	 *         the queue is full.
+	 */
+	public boolean offer(E element) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.getAcquire(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements[index] = element;
+					sequences.setRelease(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removing the oldest element. Must only be called by the consumer thread.
+	 * 
+	 * @return Oldest element or <code>null</code> if the queue is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		int index = (int) head & mask;
+		if (sequences.getAcquire(index) != head + 1)
+			return null;
+		E element = (E) elements[index];
+		elements[index] = null;
+		sequences.setRelease(index, head + elements.length);
+		head++;
+		return element;
+	}
+
+	/**
+	 * Checks weather the queue is empty. Must only be called by the consumer
+	 * thread.
+	 * 
+	 * @return Boolean value weather there is no element to be polled.
+	 */
+	public boolean isEmpty() {
+		return sequences.getAcquire((int) head & mask) != head + 1;
+	}
+
+	/**
+	 * Getter for the capacity.
+	 * 
+	 * @return Number of elements the queue can hold.
+	 */
+	public int getCapacity() {
+		return elements.length;
+	}
+}
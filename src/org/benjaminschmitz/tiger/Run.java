@@ -20,6 +20,8 @@ package org.benjaminschmitz.tiger;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 import org.benjaminschmitz.tools.PropertyReader;
 
 /**
@@ -32,6 +34,9 @@ import org.benjaminschmitz.tools.PropertyReader;
 public class Run {
 	public static final String CONFIGFILE = "tiger.config";
 	private final WebServer server;
+	private final Logger logger;
+	private final AccessLog accessLog;
+	private final long drainTimeout;
 
 	/**
 	 * Constructor for setting up the {@link WebServer} with the parameters from the
@@ -46,7 +51,47 @@ public class Run {
 		String folder;
 		int threads;
 		int logLevel;
+		int logQueue;
+		Logger.Overflow logOverflow;
+		String logFile;
+		String accessLogFile;
+		AccessLog.Format accessLogFormat;
+		long accessLogRotate;
+		int accessLogKeep;
+		String metricsPath;
 		String host;
+		long cacheSize;
+		long cacheEntrySize;
+		int pathCacheSize;
+		long pathCacheNegative;
+		long mmapMin;
+		long mmapSize;
+		boolean watch;
+		int preload;
+		WebServer.Engine engine;
+		int loops;
+		WebServer.ExecutorType executor;
+		int concurrency;
+		int queueSize;
+		int backlog;
+		int retryAfter;
+		int acceptors;
+		boolean reusePort;
+		boolean noDelay;
+		int sendBuffer;
+		int receiveBuffer;
+		int keepAliveRequests;
+		long bufferPool;
+		int keepAliveTimeout;
+		int headerTimeout;
+		int writeTimeout;
+		long minRate;
+		int http2Streams;
+		long drain;
+		boolean compression;
+		long compressionMinSize;
+		Set<String> compressionTypes;
+		CacheControl cacheControl = new CacheControl();
 
 		PropertyReader properties;
 		try {
@@ -70,26 +115,239 @@ public class Run {
 		folder = properties.getProperty("tiger.folder");
 		if (folder == null || !Files.isDirectory(Path.of(folder)))
 			throw new InvalidConfigException("No folder declared or incorrect folder.");
-		try {
-			threads = Integer.parseInt(properties.getProperty("tiger.threads"));
-		} catch (NumberFormatException e) {
-			throw new InvalidConfigException("Couldn't parse threads.");
-		}
+		threads = (int) parseLong(properties, "tiger.threads", Runtime.getRuntime().availableProcessors());
+		if (threads < 1)
+			throw new InvalidConfigException("At least one thread needed.");
 		try {
 			logLevel = Integer.parseInt(properties.getProperty("tiger.log"));
 		} catch (NumberFormatException e) {
 			throw new InvalidConfigException("Couldn't parse log level.");
 		}
+		logQueue = (int) parseLong(properties, "tiger.log.queue", Logger.DEFAULT_QUEUE_SIZE);
+		try {
+			logOverflow = Logger.Overflow
+					.valueOf(properties.getProperty("tiger.log.overflow", "drop").trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidConfigException("Unknown log overflow policy.");
+		}
+		logFile = properties.getProperty("tiger.log.file");
+
+		accessLogFile = properties.getProperty("tiger.access.log");
+		try {
+			accessLogFormat = AccessLog.Format
+					.valueOf(properties.getProperty("tiger.access.format", "combined").trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidConfigException("Unknown access log format.");
+		}
+		accessLogRotate = parseLong(properties, "tiger.access.rotate", 100L * 1024 * 1024);
+		accessLogKeep = (int) parseLong(properties, "tiger.access.keep", 5);
+		if (accessLogRotate < 0 || accessLogKeep < 0)
+			throw new InvalidConfigException("Access log rotation must not be negative.");
+
+		metricsPath = properties.getProperty("tiger.metrics.path");
+		if (metricsPath != null && metricsPath.isBlank())
+			metricsPath = null;
+		if (metricsPath != null && !(metricsPath = metricsPath.trim()).startsWith("/"))
+			throw new InvalidConfigException("Metrics path must start with /.");
+
+		cacheSize = parseLong(properties, "tiger.cache.size", 64L * 1024 * 1024);
+		cacheEntrySize = parseLong(properties, "tiger.cache.entry", 1024L * 1024);
+		if (cacheSize < 0 || cacheEntrySize < 0)
+			throw new InvalidConfigException("Cache sizes must not be negative.");
+		pathCacheSize = (int) parseLong(properties, "tiger.path.cache", 10000);
+		pathCacheNegative = parseLong(properties, "tiger.path.cache.negative", 1000);
+		if (pathCacheSize < 0 || pathCacheNegative < 0)
+			throw new InvalidConfigException("Path cache settings must not be negative.");
+		mmapMin = parseLong(properties, "tiger.mmap.min", 0);
+		mmapSize = parseLong(properties, "tiger.mmap.size", 4L * 1024 * 1024 * 1024);
+		if (mmapMin < 0 || mmapSize < 0)
+			throw new InvalidConfigException("Mapping sizes must not be negative.");
+		watch = Boolean.parseBoolean(properties.getProperty("tiger.watch", "true").trim());
+		preload = (int) parseLong(properties, "tiger.preload", 0);
+		if (preload < 0)
+			throw new InvalidConfigException("Number of preloaded files must not be negative.");
+
+		try {
+			engine = WebServer.Engine.valueOf(properties.getProperty("tiger.engine", "blocking").trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidConfigException("Unknown engine.");
+		}
+		loops = (int) parseLong(properties, "tiger.loops", Runtime.getRuntime().availableProcessors());
+		if (loops < 1)
+			throw new InvalidConfigException("At least one event loop needed.");
+		try {
+			executor = WebServer.ExecutorType
+					.valueOf(properties.getProperty("tiger.executor", "fixed").trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new InvalidConfigException("Unknown executor.");
+		}
+		concurrency = (int) parseLong(properties, "tiger.concurrency", 10000);
+		if (concurrency < 0)
+			throw new InvalidConfigException("Concurrency must not be negative.");
+		queueSize = (int) parseLong(properties, "tiger.queue", 1000);
+		if (queueSize < 1)
+			throw new InvalidConfigException("Queue size must be positive.");
+		backlog = (int) parseLong(properties, "tiger.backlog", 0);
+		retryAfter = (int) parseLong(properties, "tiger.retry.after", 1);
+		if (backlog < 0 || retryAfter < 0)
+			throw new InvalidConfigException("Backlog and retry delay must not be negative.");
+		acceptors = (int) parseLong(properties, "tiger.acceptors", 1);
+		if (acceptors < 1)
+			throw new InvalidConfigException("At least one acceptor needed.");
+		reusePort = Boolean.parseBoolean(properties.getProperty("tiger.reuseport", "true").trim());
+		noDelay = Boolean.parseBoolean(properties.getProperty("tiger.tcp.nodelay", "true").trim());
+		sendBuffer = (int) parseLong(properties, "tiger.socket.send", 0);
+		receiveBuffer = (int) parseLong(properties, "tiger.socket.receive", 0);
+		if (sendBuffer < 0 || receiveBuffer < 0)
+			throw new InvalidConfigException("Socket buffer sizes must not be negative.");
+
+		keepAliveRequests = (int) parseLong(properties, "tiger.keepalive.requests", 100);
+		keepAliveTimeout = (int) parseLong(properties, "tiger.keepalive.timeout", 5000);
+		if (keepAliveRequests < 1 || keepAliveTimeout < 1)
+			throw new InvalidConfigException("Keep-alive limits must be positive.");
+		headerTimeout = (int) parseLong(properties, "tiger.timeout.header", 10000);
+		writeTimeout = (int) parseLong(properties, "tiger.timeout.write", 10000);
+		if (headerTimeout < 1 || writeTimeout < 1)
+			throw new InvalidConfigException("Timeouts must be positive.");
+		minRate = parseLong(properties, "tiger.rate.min", 1024);
+		if (minRate < 0)
+			throw new InvalidConfigException("Minimum rate must not be negative.");
+		http2Streams = (int) parseLong(properties, "tiger.http2.streams", 100);
+		if (http2Streams < 0)
+			throw new InvalidConfigException("Number of HTTP/2 streams must not be negative.");
+		drain = parseLong(properties, "tiger.shutdown.drain", 30000);
+		if (drain < 0)
+			throw new InvalidConfigException("Drain timeout must not be negative.");
+		bufferPool = parseLong(properties, "tiger.buffer.pool", 64L * 1024 * 1024);
+		if (bufferPool < 0)
+			throw new InvalidConfigException("Buffer pool size must not be negative.");
+
+		compression = Boolean.parseBoolean(properties.getProperty("tiger.compression", "true").trim());
+		compressionMinSize = parseLong(properties, "tiger.compression.min", 1024);
+		String types = properties.getProperty("tiger.compression.types");
+		if (types == null) {
+			compressionTypes = Compression.DEFAULT_TYPES;
+		} else {
+			compressionTypes = new HashSet<>();
+			for (String type : types.split(","))
+				if (!type.isBlank())
+					compressionTypes.add(type.trim().toLowerCase());
+		}
 
-		server = new WebServer(new Logger(version, logLevel), port, folder, threads,
-				new ErrorPageGenerator(version, port, host));
+		String rules = properties.getProperty("tiger.cache.control", "");
+		for (String rule : rules.trim().split("\\s+")) {
+			if (rule.isEmpty())
+				continue;
+			int colon = rule.lastIndexOf(':');
+			try {
+				cacheControl.addRule(rule.substring(0, colon), Long.parseLong(rule.substring(colon + 1)));
+			} catch (RuntimeException e) {
+				throw new InvalidConfigException("Couldn't parse cache control rule " + rule + ".");
+			}
+		}
+
+		Logger logger = new Logger(version, logLevel, logQueue, logOverflow,
+				logFile == null || logFile.isBlank() ? null : Path.of(logFile.trim()));
+		AccessLog accessLog = null;
+		if (accessLogFile != null && !accessLogFile.isBlank()) {
+			try {
+				accessLog = new AccessLog(logger, accessLogFormat, Path.of(accessLogFile.trim()), accessLogRotate,
+						accessLogKeep, AccessLog.DEFAULT_QUEUE_SIZE);
+			} catch (IOException e) {
+				throw new InvalidConfigException("Couldn't open access log " + accessLogFile + ".");
+			}
+		}
+		FileCache cache = new FileCache(cacheSize, cacheEntrySize);
+		PathCache paths = new PathCache(Path.of(folder), pathCacheSize, pathCacheNegative);
+		MappedFileCache mapped = new MappedFileCache(mmapMin, mmapSize);
+		Metrics metrics = new Metrics();
+		metrics.addCounter("tiger_cache_hits_total", "Requests served from the file cache.", cache::getHits);
+		metrics.addCounter("tiger_cache_misses_total", "Requests read from disk.", cache::getMisses);
+		metrics.addCounter("tiger_cache_evictions_total", "Entries evicted from the file cache.", cache::getEvictions);
+		metrics.addGauge("tiger_cache_bytes", "Bytes held by the file cache.", cache::getSize);
+		metrics.addCounter("tiger_path_cache_hits_total", "Request targets resolved by the path cache.",
+				paths::getHits);
+		metrics.addCounter("tiger_path_cache_misses_total", "Request targets resolved on the file system.",
+				paths::getMisses);
+		metrics.addCounter("tiger_mmap_hits_total", "Responses written from an existing mapping.", mapped::getHits);
+		metrics.addCounter("tiger_mmap_misses_total", "Files mapped into memory.", mapped::getMisses);
+		metrics.addGauge("tiger_mmap_bytes", "Bytes mapped by the mapped file cache.", mapped::getSize);
+		metrics.addCounter("tiger_log_dropped_total", "Log messages dropped.", logger::getDropped);
+		if (accessLog != null)
+			metrics.addCounter("tiger_access_log_dropped_total", "Access log records dropped.",
+					accessLog::getDropped);
+		RequestHandler handler = new RequestHandler(logger, new ErrorPageGenerator(version, port, host), paths, cache,
+				mapped, new Compression(compression, compressionMinSize, compressionTypes), cacheControl, metrics,
+				metricsPath);
+		if (watch) {
+			try {
+				FolderWatcher watcher = new FolderWatcher(logger, Path.of(folder));
+				watcher.addListener(cache::invalidate);
+				watcher.addListener(paths::invalidate);
+				watcher.addListener(mapped::invalidate);
+				watcher.start();
+				cache.setWatched(true);
+				mapped.setWatched(true);
+			} catch (IOException e) {
+				logger.warning("Couldn't watch " + folder + ", cached files are checked on every request.");
+			}
+		}
+		if (preload > 0 && accessLog != null) {
+			try {
+				int loaded = handler.preload(
+						AccessLog.topTargets(Path.of(accessLogFile.trim()), accessLogFormat, preload));
+				logger.info("Preloaded " + loaded + " files.");
+			} catch (IOException e) {
+				logger.warning("Couldn't read the access log for preloading.");
+			}
+		}
+		BufferPool buffers = new BufferPool(bufferPool);
+		metrics.addGauge("tiger_buffer_pool_bytes", "Bytes of the direct buffers of the buffer pool.",
+				buffers::getAllocated);
+		metrics.addCounter("tiger_buffer_pool_fallbacks_total", "Heap buffers used instead of pooled buffers.",
+				buffers::getFallbacks);
+		ConnectionLimits limits = new ConnectionLimits(keepAliveRequests, keepAliveTimeout, headerTimeout,
+				writeTimeout, minRate, http2Streams);
+		server = new WebServer(logger, port, threads, handler, limits, buffers,
+				new LoadShedding(queueSize, backlog, retryAfter),
+				new SocketOptions(acceptors, reusePort, noDelay, sendBuffer, receiveBuffer), engine, loops, executor,
+				concurrency, accessLog);
+		this.logger = logger;
+		this.accessLog = accessLog;
+		drainTimeout = drain;
+	}
+
+	/**
+	 * Parsing an optional number from the configuration file.
+	 * 
+	 * @param properties   PropertyReader of the configuration file.
+	 * @param key          Key of the property.
+	 * @param defaultValue Value if the property is not set.
+	 * @return Value of the property.
+	 * @throws InvalidConfigException The property couldn't be parsed.
+	 */
+	private static long parseLong(PropertyReader properties, String key, long defaultValue)
+			throws InvalidConfigException {
+		String value = properties.getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new InvalidConfigException("Couldn't parse " + key + ".");
+		}
 	}
 
 	/**
 	 * Running the WebServer. Catching the {@code RuntimeException} and aborting the
-	 * execution.
+	 * execution. When the JVM is asked to exit, e.g. by SIGTERM or Ctrl+C, the
+	 * server is shut down gracefully.
 	 */
 	public void run() {
+		logger.removeShutdownHook();
+		if (accessLog != null)
+			accessLog.removeShutdownHook();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "tiger-shutdown"));
 		try {
 			server.run();
 		} catch (RuntimeException e) {
@@ -98,6 +356,17 @@ public class Run {
 		}
 	}
 
+	/**
+	 * Draining the connections of the server and closing the logs afterwards, so
+	 * the last requests and the report of the shutdown are written.
+	 */
+	private void shutdown() {
+		server.shutdown(drainTimeout);
+		if (accessLog != null)
+			accessLog.close();
+		logger.close();
+	}
+
 	/**
 	 * Starting the server. Catching the {@code InvalidConfigException} and aborting
 	 * the execution.
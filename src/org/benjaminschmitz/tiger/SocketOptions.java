@@ -0,0 +1,125 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Options of the listening and the accepted sockets. The connections are
+ * accepted by {@link #getAcceptors()} threads, each handing its connections to
+ * its own group of threads or event loops. Where the system supports
+ * {@link StandardSocketOptions#SO_REUSEPORT} every acceptor gets its own
+ * listening socket on the same port and the system spreads the connections over
+ * them, otherwise the acceptors share one listening socket.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.WebServer
+ * @version 2021-02-19
+ */
+public class SocketOptions {
+	private final int acceptors;
+	private final boolean reusePort;
+	private final boolean noDelay;
+	private final int sendBuffer;
+	private final int receiveBuffer;
+
+	/**
+	 * Setting the options.
+	 * 
+	 * @param acceptors     Number of threads accepting the connections.
+	 * @param reusePort     Weather every acceptor gets its own listening socket
+	 *                      if the system supports it.
+	 * @param noDelay       Weather small responses are sent at once instead of
+	 *                      being delayed by Nagle's algorithm.
+	 * @param sendBuffer    Size of the send buffer of the connections in bytes.
+	 *                      0 for the default of the system.
+	 * @param receiveBuffer Size of the receive buffer of the connections in
+	 *                      bytes. 0 for the default of the system.
+	 */
+	public SocketOptions(int acceptors, boolean reusePort, boolean noDelay, int sendBuffer, int receiveBuffer) {
+		if (acceptors < 1)
+			throw new IllegalArgumentException("at least one acceptor needed");
+		if (sendBuffer < 0 || receiveBuffer < 0)
+			throw new IllegalArgumentException("buffer sizes must not be negative");
+		this.acceptors = acceptors;
+		this.reusePort = reusePort;
+		this.noDelay = noDelay;
+		this.sendBuffer = sendBuffer;
+		this.receiveBuffer = receiveBuffer;
+	}
+
+	/**
+	 * Making the options of a single acceptor with the defaults of the system,
+	 * but without Nagle's algorithm.
+	 */
+	public SocketOptions() {
+		this(1, true, true, 0, 0);
+	}
+
+	/**
+	 * Getter for the number of acceptors.
+	 * 
+	 * @return Number of threads accepting the connections.
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * Checks weather the acceptors get their own listening sockets.
+	 * 
+	 * @param socket Unbound server socket.
+	 * @return Boolean value weather it is enabled and the socket supports
+	 *         {@link StandardSocketOptions#SO_REUSEPORT}.
+	 */
+	public boolean isReusePort(ServerSocketChannel socket) {
+		return reusePort && socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+	}
+
+	/**
+	 * Configuring a listening socket before it is bound. The receive buffer is
+	 * set here, as the window of the accepted connections is negotiated during
+	 * the handshake.
+	 * 
+	 * @param socket    Unbound server socket.
+	 * @param reusePort Weather other sockets may be bound to the same port.
+	 * @throws IOException The options couldn't be set.
+	 */
+	public void configure(ServerSocketChannel socket, boolean reusePort) throws IOException {
+		if (reusePort)
+			socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+		if (receiveBuffer > 0)
+			socket.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+	}
+
+	/**
+	 * Configuring an accepted connection.
+	 * 
+	 * @param channel Accepted connection.
+	 * @throws IOException The options couldn't be set.
+	 */
+	public void configure(SocketChannel channel) throws IOException {
+		if (noDelay)
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		if (sendBuffer > 0)
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBuffer);
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for the deadlines of many connections. The wheel is a
+ * ring of slots, one per tick, and every {@link Timeout} is linked into the
+ * slot of its deadline, so scheduling and cancelling are constant time and
+ * {@link #advance()} only looks at the slots of the passed ticks. Deadlines
+ * further away than one round stay in their slot until their round comes.
+ * <p>
+ * A connection keeps a single Timeout and moves it to its next deadline, so
+ * the wheel doesn't allocate anything for the deadlines of a connection.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.ConnectionTimer
+ * @version 2021-02-19
+ */
+public class TimerWheel {
+	public static final long DEFAULT_TICK = 100;
+	public static final int DEFAULT_SLOTS = 512;
+
+	private final long tick;
+	private final Timeout[] slots;
+	private final int mask;
+	private long current;
+
+	/**
+	 * Making a wheel with ticks of {@link #DEFAULT_TICK} milliseconds and
+	 * {@link #DEFAULT_SLOTS} slots.
+	 */
+	public TimerWheel() {
+		this(DEFAULT_TICK, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * Making an empty wheel.
+	 * 
+	 * @param tick  Milliseconds of a tick, the precision of the deadlines.
+	 * @param slots Number of slots, rounded up to a power of two.
+	 */
+	public TimerWheel(long tick, int slots) {
+		if (tick < 1 || slots < 1 || slots > 1 << 20)
+			throw new IllegalArgumentException("tick and slots must be positive");
+		this.tick = tick;
+		this.slots = new Timeout[slots <= 1 ? 1 : Integer.highestOneBit(slots - 1) << 1];
+		mask = this.slots.length - 1;
+		current = now() / tick;
+	}
+
+	/**
+	 * Returning the current time of the wheel, which doesn't jump with the clock
+	 * of the system.
+	 * 
+	 * @return Milliseconds since an arbitrary origin.
+	 */
+	public static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * Getter for the length of a tick.
+	 * 
+	 * @return Milliseconds of a tick.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Scheduling the timeout, replacing its previous deadline.
+	 * 
+	 * @param timeout  Timeout to be scheduled.
+	 * @param deadline Time of {@link #now()} when the timeout expires.
+	 */
+	public synchronized void schedule(Timeout timeout, long deadline) {
+		unlink(timeout);
+		timeout.deadline = deadline;
+		timeout.slot = (int) Math.max(deadline / tick, current) & mask;
+		timeout.next = slots[timeout.slot];
+		if (timeout.next != null)
+			timeout.next.previous = timeout;
+		slots[timeout.slot] = timeout;
+	}
+
+	/**
+	 * Removing the timeout from the wheel, if it is scheduled.
+	 * 
+	 * @param timeout Timeout to be cancelled.
+	 */
+	public synchronized void cancel(Timeout timeout) {
+		unlink(timeout);
+	}
+
+	/**
+	 * Returning all scheduled timeouts, e.g. to close the idle connections when
+	 * the server shuts down.
+	 * 
+	 * @return Timeouts scheduled at the time of the call.
+	 */
+	public synchronized List<Timeout> getScheduled() {
+		List<Timeout> scheduled = new ArrayList<>();
+		for (Timeout timeout : slots)
+			for (; timeout != null; timeout = timeout.next)
+				scheduled.add(timeout);
+		return scheduled;
+	}
+
+	/**
+	 * Expiring all timeouts whose deadline has passed. The timeouts are expired
+	 * after they were removed from the wheel, so they may be scheduled again.
+	 */
+	public void advance() {
+		long now = now();
+		List<Timeout> expired = null;
+		synchronized (this) {
+			long target = now / tick;
+			long first = Math.max(current, target - mask);
+			for (long t = first; t <= target; t++) {
+				Timeout timeout = slots[(int) t & mask];
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					if (timeout.deadline <= now) {
+						unlink(timeout);
+						if (expired == null)
+							expired = new ArrayList<>();
+						expired.add(timeout);
+					}
+					timeout = next;
+				}
+			}
+			current = target;
+		}
+		if (expired != null)
+			for (Timeout timeout : expired)
+				timeout.expired();
+	}
+
+	/**
+	 * Removing the timeout from its slot.
+	 * 
+	 * @param timeout Scheduled or unscheduled timeout.
+	 */
+	private void unlink(Timeout timeout) {
+		if (timeout.slot < 0)
+			return;
+		if (timeout.previous != null)
+			timeout.previous.next = timeout.next;
+		else
+			slots[timeout.slot] = timeout.next;
+		if (timeout.next != null)
+			timeout.next.previous = timeout.previous;
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.slot = -1;
+	}
+
+	/**
+	 * Deadline which can be scheduled on a wheel. It is linked into the slot of
+	 * its deadline by the wheel.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public abstract static class Timeout {
+		private Timeout previous;
+		private Timeout next;
+		private long deadline;
+		private int slot = -1;
+
+		/**
+		 * Called by the thread advancing the wheel when the deadline has passed.
+		 */
+		protected abstract void expired();
+	}
+}
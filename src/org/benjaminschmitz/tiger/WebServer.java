@@ -18,13 +18,26 @@
 package org.benjaminschmitz.tiger;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
 /**
- * WebServer class for the main server application.
+ * WebServer class for the main server application. The server runs until its
+ * thread is interrupted, which aborts all connections, or until
+ * {@link #shutdown(long)} drains the connections gracefully.
  * 
  * @author Benjamin Schmitz
  * @see org.benjaminschmitz.tiger
@@ -32,27 +45,61 @@ import java.util.concurrent.Executors;
  */
 public class WebServer {
 	private final int PORT;
-	private final String FOLDER;
 	private final int THREADS;
-	private final ErrorPageGenerator GENERATOR;
 	private final Logger LOGGER;
+	private final RequestHandler HANDLER;
+	private final ConnectionLimits LIMITS;
+	private final BufferPool BUFFERS;
+	private final LoadShedding SHEDDING;
+	private final ByteBuffer SHED_RESPONSE;
+	private final SocketOptions OPTIONS;
+	private final Engine ENGINE;
+	private final int LOOPS;
+	private final ExecutorType EXECUTOR;
+	private final int CONCURRENCY;
+	private final AccessLog ACCESS_LOG;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private volatile ServerSocketChannel[] sockets;
+	private volatile boolean draining;
+	private volatile long drainTimeout;
 
 	/**
 	 * Initialising the server.
 	 * 
-	 * @param logger    {@link Logger} instance.
-	 * @param port      Port for the application.
-	 * @param folder    Root folder for files.
-	 * @param threads   Number of threads handling incoming connections.
-	 * @param generator {@link ErrorPageGenerator} for error pages.
+	 * @param logger      {@link Logger} instance.
+	 * @param port        Port for the application.
+	 * @param threads     Number of threads handling incoming connections.
+	 * @param handler     {@link RequestHandler} making the responses.
+	 * @param limits      {@link ConnectionLimits} of persistent connections.
+	 * @param buffers     {@link BufferPool} for the requests and responses.
+	 * @param shedding    {@link LoadShedding} limits of the waiting connections.
+	 * @param options     {@link SocketOptions} of the acceptors and the
+	 *                    connections.
+	 * @param engine      {@link Engine} handling the connections.
+	 * @param loops       Number of event loops of the {@link Engine#NIO} engine.
+	 * @param executor    {@link ExecutorType} of the {@link Engine#BLOCKING}
+	 *                    engine.
+	 * @param concurrency Maximum number of connections handled at the same time
+	 *                    by the {@link Engine#BLOCKING} engine. 0 for no limit.
+	 * @param accessLog   {@link AccessLog} of the requests or <code>null</code>.
 	 */
-	public WebServer(Logger logger, int port, String folder, int threads, ErrorPageGenerator generator) {
+	public WebServer(Logger logger, int port, int threads, RequestHandler handler, ConnectionLimits limits,
+			BufferPool buffers, LoadShedding shedding, SocketOptions options, Engine engine, int loops,
+			ExecutorType executor, int concurrency, AccessLog accessLog) {
 		LOGGER = logger;
 		PORT = port;
-		FOLDER = folder;
 		THREADS = threads;
-		GENERATOR = generator;
-
+		HANDLER = handler;
+		LIMITS = limits;
+		BUFFERS = buffers;
+		SHEDDING = shedding;
+		SHED_RESPONSE = shedding.encodeResponse(handler);
+		OPTIONS = options;
+		ENGINE = engine;
+		LOOPS = loops;
+		EXECUTOR = executor;
+		CONCURRENCY = concurrency;
+		ACCESS_LOG = accessLog;
 	}
 
 	/**
@@ -67,6 +114,7 @@ public class WebServer {
 			public void run() {
 				while (!Thread.currentThread().isInterrupted()) {
 					LOGGER.runtime();
+					LOGGER.runtime(HANDLER.getCache().toString());
 					try {
 						Thread.sleep(5 * 60 * 1000);
 					} catch (InterruptedException e) {
@@ -76,39 +124,489 @@ public class WebServer {
 		});
 		runtime.start();
 
-		final ServerSocket socket;
 		try {
-			socket = new ServerSocket(PORT);
-		} catch (IOException e) {
-			LOGGER.severe("Couldn't bind on port " + PORT);
-			throw new RuntimeException("Couldn't bind on port " + PORT);
+			// accepting through channels, so the sockets can transfer files directly
+			final int acceptors = acceptors();
+			try {
+				sockets = bind(acceptors);
+			} catch (IOException e) {
+				LOGGER.severe("Couldn't bind on port " + PORT);
+				throw new RuntimeException("Couldn't bind on port " + PORT);
+			}
+			if (draining)
+				closeSockets();
+
+			switch (ENGINE) {
+			case NIO -> runEventLoops(sockets, acceptors);
+			default -> runThreadPool(sockets, acceptors);
+			}
+
+			LOGGER.severe("Server stopped!");
+			closeSockets();
+		} finally {
+			runtime.interrupt();
+			stopped.countDown();
+		}
+	}
+
+	/**
+	 * Shutting the server down gracefully, e.g. from a shutdown hook. The server
+	 * stops accepting connections and closes the connections waiting for their
+	 * next request at once. The responses being written may take until the drain
+	 * timeout, afterwards their connections are aborted. Returns when
+	 * {@link #run()} has ended or the drain timeout and a grace period of 5
+	 * seconds have passed.
+	 * 
+	 * @param drainTimeout Milliseconds the server waits for the responses being
+	 *                     written.
+	 */
+	public void shutdown(long drainTimeout) {
+		this.drainTimeout = drainTimeout;
+		draining = true;
+		if (sockets != null)
+			closeSockets();
+		try {
+			stopped.await(drainTimeout + 5000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+	}
 
-		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
-		while (!Thread.currentThread().isInterrupted()) {
-			Socket sock;
+	/**
+	 * Closing the server sockets, which ends the acceptors.
+	 */
+	private void closeSockets() {
+		for (ServerSocketChannel socket : sockets) {
 			try {
-				sock = socket.accept();
+				socket.close();
 			} catch (IOException e) {
-				sock = null;
+				LOGGER.severe("Couldn't close server socket.");
+			}
+		}
+	}
+
+	/**
+	 * Returning the number of acceptors. Every acceptor needs at least one thread
+	 * of a pool or one event loop of its own.
+	 * 
+	 * @return Number of threads accepting the connections.
+	 */
+	private int acceptors() {
+		if (ENGINE == Engine.NIO)
+			return Math.min(OPTIONS.getAcceptors(), LOOPS);
+		if (EXECUTOR != ExecutorType.VIRTUAL)
+			return Math.min(OPTIONS.getAcceptors(), THREADS);
+		return OPTIONS.getAcceptors();
+	}
+
+	/**
+	 * Binding the listening sockets. Every acceptor gets its own socket if the
+	 * system supports {@link java.net.StandardSocketOptions#SO_REUSEPORT},
+	 * otherwise all acceptors share one socket.
+	 * 
+	 * @param acceptors Number of acceptors.
+	 * @return Bound server sockets.
+	 * @throws IOException A socket couldn't be bound.
+	 */
+	private ServerSocketChannel[] bind(int acceptors) throws IOException {
+		ServerSocketChannel first = ServerSocketChannel.open();
+		boolean reusePort = acceptors > 1 && OPTIONS.isReusePort(first);
+		ServerSocketChannel[] sockets = new ServerSocketChannel[reusePort ? acceptors : 1];
+		sockets[0] = first;
+		try {
+			for (int i = 0; i < sockets.length; i++) {
+				if (sockets[i] == null)
+					sockets[i] = ServerSocketChannel.open();
+				OPTIONS.configure(sockets[i], reusePort);
+				sockets[i].bind(new InetSocketAddress(PORT), SHEDDING.getBacklog());
+			}
+		} catch (IOException e) {
+			for (ServerSocketChannel socket : sockets)
+				if (socket != null)
+					socket.close();
+			throw e;
+		}
+		if (acceptors > 1 && !reusePort)
+			LOGGER.info("Acceptors share one server socket.");
+		return sockets;
+	}
+
+	/**
+	 * Running the acceptors. All acceptors but the first get their own thread,
+	 * the first one runs on the calling thread. When the calling thread is
+	 * interrupted the other acceptors are interrupted as well.
+	 * 
+	 * @param sockets   Bound server sockets, shared in turn by the acceptors.
+	 * @param acceptors Number of acceptors.
+	 * @param acceptor  Accept loop of an acceptor, getting its index and its
+	 *                  server socket.
+	 */
+	private void runAcceptors(ServerSocketChannel[] sockets, int acceptors,
+			BiConsumer<Integer, ServerSocketChannel> acceptor) {
+		Thread[] threads = new Thread[acceptors];
+		for (int i = 1; i < acceptors; i++) {
+			final int index = i;
+			threads[i] = new Thread(() -> acceptor.accept(index, sockets[index % sockets.length]),
+					"tiger-acceptor-" + i);
+			threads[i].start();
+		}
+		acceptor.accept(0, sockets[0]);
+		for (Thread t : threads)
+			if (t != null)
+				t.interrupt();
+	}
+
+	/**
+	 * Accepting a connection and setting its options.
+	 * 
+	 * @param socket Bound server socket.
+	 * @return Accepted connection or <code>null</code> if it couldn't be accepted.
+	 */
+	private SocketChannel accept(ServerSocketChannel socket) {
+		SocketChannel channel;
+		try {
+			channel = socket.accept();
+		} catch (IOException e) {
+			if (!Thread.currentThread().isInterrupted() && socket.isOpen())
 				LOGGER.severe("Error getting connection.");
+			return null;
+		}
+		try {
+			OPTIONS.configure(channel);
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't set socket options.");
+		}
+		return channel;
+	}
+
+	/**
+	 * Accepting the connections and handling every connection on a thread of the
+	 * pool of its acceptor. Connections exceeding the maximum number of
+	 * connections handled at the same time or the queue of the pool are shed.
+	 * The deadlines of all connections are kept by a single timer wheel.
+	 * 
+	 * @param sockets   Bound server sockets.
+	 * @param acceptors Number of acceptors.
+	 */
+	private void runThreadPool(ServerSocketChannel[] sockets, int acceptors) {
+		ExecutorService[] pools = new ExecutorService[acceptors];
+		for (int i = 0; i < acceptors; i++)
+			pools[i] = newExecutor(share(THREADS, acceptors, i), share(SHEDDING.getQueueSize(), acceptors, i), i);
+		Semaphore permits = CONCURRENCY > 0 ? new Semaphore(CONCURRENCY) : null;
+		TimerWheel timers = new TimerWheel();
+		Thread timer = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					Thread.sleep(timers.getTick());
+				} catch (InterruptedException e) {
+					break;
+				}
+				timers.advance();
 			}
-			final Socket s = sock;
+		}, "tiger-timer");
+		timer.setDaemon(true);
+		timer.start();
+		runAcceptors(sockets, acceptors, (index, socket) -> {
+			while (!Thread.currentThread().isInterrupted() && socket.isOpen()) {
+				SocketChannel channel = accept(socket);
+				if (channel == null)
+					continue;
+				if (permits != null && !permits.tryAcquire()) {
+					shed(channel);
+					continue;
+				}
+				submit(pools[index], channel, permits, timers);
+			}
+		});
+		if (draining) {
+			for (ExecutorService pool : pools)
+				pool.shutdown();
+			drain(() -> ConnectionTimer.drainAll(timers), () -> isTerminated(pools), () -> {
+				ConnectionTimer.abortAll(timers);
+				for (ExecutorService pool : pools)
+					pool.shutdownNow();
+				awaitTermination(pools);
+			});
+		}
+		timer.interrupt();
+		for (ExecutorService pool : pools)
+			pool.shutdownNow();
+	}
 
-			if (s != null) {
-				pool.submit(() -> HandleConnection.handleConnection(LOGGER, s, GENERATOR, FOLDER));
+	/**
+	 * Checks weather all pools are terminated.
+	 * 
+	 * @param pools Pools which were shut down.
+	 * @return Boolean value weather all connections of the pools are closed.
+	 */
+	private static boolean isTerminated(ExecutorService[] pools) {
+		for (ExecutorService pool : pools)
+			if (!pool.isTerminated())
+				return false;
+		return true;
+	}
 
+	/**
+	 * Waiting a second for the aborted connections of the pools to end, so they
+	 * are counted.
+	 * 
+	 * @param pools Pools which were shut down.
+	 */
+	private static void awaitTermination(ExecutorService[] pools) {
+		try {
+			for (ExecutorService pool : pools)
+				pool.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Draining the connections after the acceptors stopped. The idle connections
+	 * are closed on every tick of the timer wheel, until all connections are
+	 * closed or the drain timeout passes and the remaining connections are
+	 * aborted. The requests completed and aborted meanwhile are logged.
+	 * 
+	 * @param sweep Closing the idle connections, repeated on every tick.
+	 * @param done  Checking weather all connections are closed.
+	 * @param abort Aborting the remaining connections and waiting for them.
+	 */
+	private void drain(Runnable sweep, BooleanSupplier done, Runnable abort) {
+		Metrics metrics = HANDLER.getMetrics();
+		long completed = metrics.getRequests();
+		long aborted = metrics.getAborted();
+		long start = TimerWheel.now();
+		LOGGER.info("Draining connections for at most " + drainTimeout + " ms.");
+		sweep.run();
+		boolean drained = done.getAsBoolean();
+		try {
+			while (!drained && TimerWheel.now() - start < drainTimeout) {
+				Thread.sleep(TimerWheel.DEFAULT_TICK);
+				sweep.run();
+				drained = done.getAsBoolean();
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		if (!drained)
+			abort.run();
+		LOGGER.info("Drained connections in " + (TimerWheel.now() - start) + " ms: "
+				+ (metrics.getRequests() - completed) + " requests completed, " + (metrics.getAborted() - aborted)
+				+ " aborted.");
+	}
 
-		LOGGER.severe("Server stopped!");
-		runtime.interrupt();
-		pool.shutdownNow();
+	/**
+	 * Handing a connection to a pool. The connection is shed if the queue of the
+	 * pool is full.
+	 * 
+	 * @param pool      ExecutorService handling the connection.
+	 * @param channel   Accepted connection.
+	 * @param permits   Semaphore holding a permit of the connection or
+	 *                  <code>null</code>.
+	 * @param timers    TimerWheel keeping the deadlines of the connection.
+	 */
+	private void submit(ExecutorService pool, SocketChannel channel, Semaphore permits, TimerWheel timers) {
+		final Socket s = channel.socket();
+		final long queued = System.nanoTime();
+		HANDLER.getMetrics().queued();
+		try {
+			pool.submit(() -> {
+				HANDLER.getMetrics().dequeued(System.nanoTime() - queued);
+				try {
+					HandleConnection.handleConnection(LOGGER, s, HANDLER, LIMITS, BUFFERS, timers, ACCESS_LOG);
+				} finally {
+					if (permits != null)
+						permits.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			HANDLER.getMetrics().dequeued();
+			if (permits != null)
+				permits.release();
+			shed(channel);
+		}
+	}
 
+	/**
+	 * Returning the share of a group, e.g. the threads of an acceptor. The
+	 * remainder is spread over the first groups.
+	 * 
+	 * @param total  Total number, at least the number of groups.
+	 * @param groups Number of groups.
+	 * @param i      Index of the group.
+	 * @return Share of the group, at least 1.
+	 */
+	private static int share(int total, int groups, int i) {
+		return Math.max(1, total / groups + (i < total % groups ? 1 : 0));
+	}
+
+	/**
+	 * Answering a connection with the prepared
+	 * {@link HttpStatus#SERVICE_UNAVAILABLE} response and closing it. The
+	 * response is written without waiting, if the connection doesn't take it at
+	 * once the connection is only closed.
+	 * 
+	 * @param channel Accepted connection.
+	 */
+	private void shed(SocketChannel channel) {
+		HANDLER.getMetrics().connectionShed();
 		try {
-			socket.close();
+			channel.configureBlocking(false);
+			channel.write(SHED_RESPONSE.duplicate());
 		} catch (IOException e) {
-			LOGGER.severe("Couldn't close server socket.");
+			// the client only notices the closed connection
 		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.warning("Couldn't close shed connection.");
+		}
+	}
+
+	/**
+	 * Making the executor for the connections of an acceptor. The fixed and the
+	 * work-stealing pool queue at most the given number of connections. Virtual
+	 * threads need
+	 * Java 21, on older runtimes every connection gets a new platform thread
+	 * instead.
+	 * 
+	 * @param threads   Number of threads of the fixed or work-stealing pool.
+	 * @param queueSize Maximum number of connections waiting for the pool.
+	 * @param index     Index of the acceptor, part of the names of the threads.
+	 * @return ExecutorService handling the connections.
+	 */
+	private ExecutorService newExecutor(int threads, int queueSize, int index) {
+		if (EXECUTOR == ExecutorType.VIRTUAL) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				LOGGER.warning("Virtual threads aren't supported by this Java runtime, using a thread per connection.");
+				return Executors.newCachedThreadPool();
+			}
+		}
+		if (EXECUTOR == ExecutorType.STEALING)
+			return new WorkStealingExecutor(threads, queueSize, "tiger-worker-" + index + "-");
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+	}
+
+	/**
+	 * Accepting the connections and handing them over to the event loops in turn.
+	 * Every acceptor has its own group of event loops. Connections which don't
+	 * fit into the queue of their loop are shed. The requests which need the file
+	 * system are answered by workers of the configured executor, which all loops
+	 * share.
+	 * 
+	 * @param sockets   Bound server sockets.
+	 * @param acceptors Number of acceptors.
+	 */
+	private void runEventLoops(ServerSocketChannel[] sockets, int acceptors) {
+		EventLoop[] loops = new EventLoop[LOOPS];
+		Thread[] threads = new Thread[LOOPS];
+		ExecutorService workers = newExecutor(THREADS, SHEDDING.getQueueSize(), 0);
+		try {
+			for (int i = 0; i < LOOPS; i++) {
+				loops[i] = new EventLoop(LOGGER, HANDLER, LIMITS, BUFFERS, SHEDDING.getQueueSize(), ACCESS_LOG,
+						workers);
+				threads[i] = new Thread(loops[i], "tiger-loop-" + i);
+				threads[i].start();
+			}
+		} catch (IOException e) {
+			LOGGER.severe("Couldn't open event loop.");
+			for (Thread t : threads)
+				if (t != null)
+					t.interrupt();
+			workers.shutdownNow();
+			throw new RuntimeException("Couldn't open event loop.");
+		}
+
+		runAcceptors(sockets, acceptors, (index, socket) -> {
+			// the loops index, index + acceptors, ... belong to this acceptor
+			int next = index;
+			while (!Thread.currentThread().isInterrupted() && socket.isOpen()) {
+				SocketChannel channel = accept(socket);
+				if (channel == null)
+					continue;
+				if (!loops[next].register(channel))
+					shed(channel);
+				next += acceptors;
+				if (next >= LOOPS)
+					next = index;
+			}
+		});
+		if (draining) {
+			drain(() -> {
+				for (EventLoop loop : loops)
+					loop.drain();
+			}, () -> !isAlive(threads), () -> {
+				for (Thread t : threads)
+					t.interrupt();
+				join(threads);
+			});
+		}
+		for (Thread t : threads)
+			t.interrupt();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Checks weather a thread is still running.
+	 * 
+	 * @param threads Threads of the event loops.
+	 * @return Boolean value weather at least one thread is alive.
+	 */
+	private static boolean isAlive(Thread[] threads) {
+		for (Thread t : threads)
+			if (t.isAlive())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Waiting a second for every aborted event loop to close its connections, so
+	 * they are counted.
+	 * 
+	 * @param threads Threads of the event loops.
+	 */
+	private static void join(Thread[] threads) {
+		try {
+			for (Thread t : threads)
+				t.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Engines for handling the connections.
+	 * <p>
+	 * "BLOCKING" handles every connection on a thread of a fixed pool.
+	 * <p>
+	 * "NIO" handles all connections with non-blocking event loops.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum Engine {
+		BLOCKING, NIO
+	}
+
+	/**
+	 * Executors of the {@link Engine#BLOCKING} engine. The {@link Engine#NIO}
+	 * engine answers the requests which need the file system with them.
+	 * <p>
+	 * "FIXED" handles the connections on {@code tiger.threads} platform threads.
+	 * <p>
+	 * "STEALING" handles the connections on {@code tiger.threads} platform
+	 * threads of a {@link WorkStealingExecutor}. Every thread has its own queue
+	 * and takes connections from the others when it runs out, so the accepting
+	 * threads and the workers don't compete for the lock of a single queue.
+	 * <p>
+	 * "VIRTUAL" handles every connection on its own virtual thread.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	public enum ExecutorType {
+		FIXED, STEALING, VIRTUAL
 	}
 }
@@ -0,0 +1,267 @@
+/*
+ * TIGER WEBSERVER. A simple HTTP webserver.
+ * Copyright (C) 2021  Benjamin Schmitz
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.benjaminschmitz.tiger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executor whose threads have a queue each. A task is put into the queue of an
+ * idle thread or, if all threads are busy, into the queues in turn, so the
+ * submitting thread and the threads of the pool don't compete for the lock of
+ * a single queue. A thread which runs out of tasks takes the oldest task from
+ * the queues of the other threads, so a connection queued behind a long
+ * connection is taken by the next free thread.
+ * <p>
+ * The queues are lock-free and together hold at most a given number of tasks,
+ * further tasks are rejected. Idle threads are parked until a task is put into
+ * their queue or into the queue of a busy thread. The tasks block on sockets
+ * and files, which is fine here, as no thread waits for another task to
+ * finish.
+ * 
+ * @author Benjamin Schmitz
+ * @see org.benjaminschmitz.tiger.WebServer
+ * @version 2021-02-19
+ */
+public class WorkStealingExecutor extends AbstractExecutorService {
+	private static final int RUNNING = 0;
+	private static final int SHUTDOWN = 1;
+	private static final int STOP = 2;
+
+	private final Worker[] workers;
+	private final int maxQueued;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final CountDownLatch terminated;
+	private volatile int state = RUNNING;
+	private int next;
+
+	/**
+	 * Starting the threads of the executor.
+	 * 
+	 * @param threads   Number of threads.
+	 * @param maxQueued Maximum number of tasks waiting for a thread.
+	 * @param name      Prefix of the names of the threads, e.g. "tiger-worker-".
+	 */
+	public WorkStealingExecutor(int threads, int maxQueued, String name) {
+		if (threads < 1 || maxQueued < 0)
+			throw new IllegalArgumentException("at least one thread and a non-negative queue size are needed");
+		this.maxQueued = maxQueued;
+		workers = new Worker[threads];
+		terminated = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++)
+			workers[i] = new Worker(i);
+		for (int i = 0; i < threads; i++) {
+			workers[i].thread = new Thread(workers[i], name + i);
+			workers[i].thread.start();
+		}
+	}
+
+	/**
+	 * Putting the task into the queue of a thread.
+	 * 
+	 * @param task Task to be run.
+	 * @throws RejectedExecutionException The executor is shut down or the queues
+	 *                                    are full.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (task == null)
+			throw new NullPointerException();
+		if (state != RUNNING)
+			throw new RejectedExecutionException("executor is shut down");
+		if (queued.incrementAndGet() > maxQueued) {
+			queued.decrementAndGet();
+			throw new RejectedExecutionException("queues are full");
+		}
+
+		// an idle thread takes the task at once, otherwise the busy threads get
+		// the tasks in turn and the next free thread steals them
+		Worker target = null;
+		int start = next;
+		for (int i = 0; i < workers.length && target == null; i++) {
+			Worker worker = workers[(start + i) % workers.length];
+			if (worker.idle)
+				target = worker;
+		}
+		if (target == null)
+			target = workers[start % workers.length];
+		next = (target.index + 1) % workers.length;
+		target.tasks.offer(task);
+
+		if (state != RUNNING && target.tasks.remove(task)) {
+			queued.decrementAndGet();
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		if (target.idle) {
+			LockSupport.unpark(target.thread);
+			return;
+		}
+		for (Worker worker : workers) {
+			if (worker.idle) {
+				LockSupport.unpark(worker.thread);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Taking the next task for a thread, first from its own queue, then from the
+	 * queues of the other threads.
+	 * 
+	 * @param worker Thread taking the task.
+	 * @return Task or <code>null</code> if all queues are empty.
+	 */
+	private Runnable take(Worker worker) {
+		Runnable task = worker.tasks.poll();
+		for (int i = 1; task == null && i < workers.length; i++)
+			task = workers[(worker.index + i) % workers.length].tasks.poll();
+		if (task != null)
+			queued.decrementAndGet();
+		return task;
+	}
+
+	/**
+	 * Stopping to take tasks. The queued tasks are still run.
+	 */
+	@Override
+	public void shutdown() {
+		if (state == RUNNING)
+			state = SHUTDOWN;
+		for (Worker worker : workers)
+			LockSupport.unpark(worker.thread);
+	}
+
+	/**
+	 * Stopping to take tasks and interrupting the running tasks.
+	 * 
+	 * @return Tasks which weren't run.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		state = STOP;
+		List<Runnable> tasks = new ArrayList<>();
+		for (Worker worker : workers) {
+			Runnable task;
+			while ((task = worker.tasks.poll()) != null) {
+				queued.decrementAndGet();
+				tasks.add(task);
+			}
+			worker.thread.interrupt();
+		}
+		return tasks;
+	}
+
+	/**
+	 * Checks weather the executor is shut down.
+	 * 
+	 * @return Boolean value weather no further tasks are taken.
+	 */
+	@Override
+	public boolean isShutdown() {
+		return state != RUNNING;
+	}
+
+	/**
+	 * Checks weather all threads ended after the shutdown.
+	 * 
+	 * @return Boolean value weather all tasks are done.
+	 */
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	/**
+	 * Waiting for all threads to end after the shutdown.
+	 * 
+	 * @param timeout Maximum time to wait.
+	 * @param unit    TimeUnit of the timeout.
+	 * @return Boolean value weather the executor terminated in time.
+	 * @throws InterruptedException The waiting thread was interrupted.
+	 */
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	/**
+	 * Thread of the executor with its queue.
+	 * 
+	 * @author Benjamin Schmitz
+	 * @version 2021-02-19
+	 */
+	private final class Worker implements Runnable {
+		final int index;
+		final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		Thread thread;
+		volatile boolean idle;
+
+		/**
+		 * Making the worker.
+		 * 
+		 * @param index Index of the worker in the executor.
+		 */
+		Worker(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Running the tasks until the executor is shut down and all queues are
+		 * empty. Before the thread is parked, it announces that it is idle and looks
+		 * at the queues again, so a task put into a queue meanwhile isn't missed.
+		 */
+		@Override
+		public void run() {
+			try {
+				while (state != STOP) {
+					Runnable task = take(this);
+					if (task == null) {
+						idle = true;
+						task = take(this);
+						if (task == null) {
+							if (state != RUNNING) {
+								idle = false;
+								break;
+							}
+							LockSupport.park(this);
+							idle = false;
+							continue;
+						}
+						idle = false;
+					}
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						// a failed task doesn't end the thread
+					}
+					if (state != STOP)
+						Thread.interrupted();
+				}
+			} finally {
+				terminated.countDown();
+			}
+		}
+	}
+}
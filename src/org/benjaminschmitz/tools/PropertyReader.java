@@ -39,4 +39,16 @@ public class PropertyReader {
 	public String getProperty(String property) {
 		return properties.getProperty(property);
 	}
+
+	/**
+	 * Returning the String of the property or the default value if the property is
+	 * not set
+	 * 
+	 * @param property     key of the property
+	 * @param defaultValue value returned if the property is not set
+	 * @return String value of the property
+	 */
+	public String getProperty(String property, String defaultValue) {
+		return properties.getProperty(property, defaultValue);
+	}
 }